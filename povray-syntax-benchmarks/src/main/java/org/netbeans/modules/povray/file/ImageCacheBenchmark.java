@@ -0,0 +1,96 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Switching between the renders of open scenes, cycling through the few
+ * most recently viewed of them, through the shared image cache and by
+ * decoding each time.  With a budget of 0 every image is evicted at once,
+ * and only the soft references keep it.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageCacheBenchmark {
+
+    @Param({"20"})
+    public int scenes;
+    @Param({"5"})
+    public int recent;
+    @Param({"0", "256"})
+    public int budgetMb;
+    private File[] files;
+    private ImageCache cache;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        files = new File[scenes];
+        for (int i = 0; i < scenes; i++) {
+            files[i] = File.createTempFile("scene" + i, ".png");
+            TestImages.write(TestImages.render(1600 + i, 1200, false), files[i], "png");
+        }
+        cache = new ImageCache((long) budgetMb << 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println(cache + ", " + cache.getBytes() + " bytes cached");
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private File nextFile() {
+        next = (next + 1) % recent;
+        return files[next];
+    }
+
+    @Benchmark
+    public BufferedImage cached() throws IOException {
+        return cache.read(nextFile(), null, 2);
+    }
+
+    @Benchmark
+    public BufferedImage uncached() throws IOException {
+        return ImageDecoder.read(nextFile(), null, 2);
+    }
+}
@@ -0,0 +1,91 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Decoding a large render written as PNG, through ImageIO, against TGA
+ * (uncompressed and run-length encoded) and PPM through the NIO decoders:
+ * the whole image, the overview shown in a window, and a region at full
+ * size.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageDecodeBenchmark {
+
+    @Param({"png", "tga", "tga-rle", "ppm"})
+    public String format;
+    @Param({"4000"})
+    public int width;
+    @Param({"3000"})
+    public int height;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BufferedImage img = TestImages.render(width, height, false);
+        String ext = format.startsWith("tga") ? "tga" : format;
+        file = File.createTempFile("render", '.' + ext);
+        TestImages.write(img, file, format);
+        System.out.println(format + " written in " + file.length() + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public BufferedImage full() throws IOException {
+        return ImageDecoder.read(file, null, 1);
+    }
+
+    @Benchmark
+    public BufferedImage overview() throws IOException {
+        return ImageDecoder.read(file, null, 8);
+    }
+
+    @Benchmark
+    public BufferedImage region() throws IOException {
+        return ImageDecoder.read(file, new Rectangle(width / 3, height / 3, 1024, 768), 1);
+    }
+}
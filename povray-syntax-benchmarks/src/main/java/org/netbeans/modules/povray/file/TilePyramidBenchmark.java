@@ -0,0 +1,115 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to paint a 1600x1000 view of renders of increasing size from a
+ * TilePyramid, fitted to the view and at full size, with the visible tiles
+ * loaded;  it should not grow with the size of the image.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TilePyramidBenchmark {
+
+    private static final int VIEW_WIDTH = 1600;
+    private static final int VIEW_HEIGHT = 1000;
+    @Param({"2000", "8000", "16000"})
+    public int width;
+    private File file;
+    private TilePyramid pyramid;
+    private Graphics2D g;
+    private final Rectangle clip = new Rectangle(VIEW_WIDTH, VIEW_HEIGHT);
+    private Point center;
+    private double fit;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int height = width * 3 / 4;
+        file = File.createTempFile("pyramid", ".ppm");
+        // Written a row at a time, since the largest would not fit in memory
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            byte[] row = new byte[width * 3];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x * 3] = (byte) (y * 255 / height);
+                    row[x * 3 + 1] = (byte) (x * 255 / width);
+                    row[x * 3 + 2] = (byte) (x * 7 + y * 3);
+                }
+                out.write(row);
+            }
+        }
+        int level = TilePyramid.levelToFill(width, height, VIEW_WIDTH, VIEW_HEIGHT);
+        pyramid = new TilePyramid(file, new Dimension(width, height),
+                ImageDecoder.read(file, null, 1 << level), level);
+        Rectangle source = new Rectangle((width - VIEW_WIDTH) / 2, (height - VIEW_HEIGHT) / 2,
+                VIEW_WIDTH, VIEW_HEIGHT);
+        pyramid.add(pyramid.load(pyramid.missing(0, pyramid.tileRange(0, source))));
+        center = new Point(-source.x, -source.y);
+        fit = Math.min(VIEW_WIDTH / (double) width, VIEW_HEIGHT / (double) height);
+        g = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+        file.delete();
+    }
+
+    @Benchmark
+    public void paintFit() {
+        pyramid.paint(g, clip, new Point(), fit);
+    }
+
+    @Benchmark
+    public void paintFullSize() {
+        pyramid.paint(g, clip, center, 1);
+    }
+}
@@ -0,0 +1,87 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.netbeans.spi.editor.completion.CompletionItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency of fuzzy completion queries over all keywords, over the names
+ * declared in a 100k line document, and over an included library
+ * declaring about thirty thousand names.  Each should stay well under a
+ * millisecond.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FuzzyCompletionBenchmark {
+
+    private static final String LIBRARY = "/library/big.inc";
+    @Param({"mtl", "ph_s", "s", "refl", "xhb"})
+    public String query;
+    private SymbolIndex index;
+    private DocumentSymbols symbols;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadLocationException {
+        // The file does not exist, so its size and timestamp stay 0
+        index = new SymbolIndex(null);
+        index.put(LIBRARY, 0, 0, SceneCorpus.generate(1000000));
+        PlainDocument doc = new PlainDocument();
+        doc.insertString(0, SceneCorpus.generate(100000), null);
+        symbols = new DocumentSymbols();
+        symbols.run(doc, SceneTree.get(doc));
+    }
+
+    @Benchmark
+    public List<CompletionItem> keywords() {
+        return KeywordsCompletionProvider.keywordItems(query);
+    }
+
+    @Benchmark
+    public Map<String, Keywords> document() {
+        return symbols.matching(new FuzzyMatcher(query, false), 500, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<SymbolIndex.Symbol> library() {
+        return index.matching(new File(LIBRARY), new FuzzyMatcher(query, false), 500);
+    }
+}
@@ -0,0 +1,118 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles src/main/docs/keywords.txt in povray-syntax into the
+ * keywords.doc resource read by KeywordDocs, failing on entries for
+ * unknown keywords and listing keywords with no entry.  Run from the
+ * top of the project after editing the documentation with
+ * <pre>
+ * java -cp povray-syntax-benchmarks/target/benchmarks.jar org.netbeans.modules.povray.file.parsing.KeywordDocsCompiler \
+ *     povray-syntax/src/main/docs/keywords.txt \
+ *     povray-syntax/src/main/resources/org/netbeans/modules/povray/file/parsing/keywords.doc
+ * </pre>
+ *
+ * @author Tim Boudreau
+ */
+public final class KeywordDocsCompiler {
+
+    private KeywordDocsCompiler() {
+        throw new AssertionError();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: KeywordDocsCompiler keywords.txt keywords.doc");
+            System.exit(1);
+        }
+        Map<String, KeywordDocs.Doc> entries = parse(args[0]);
+        List<String> missing = new ArrayList<>();
+        for (Keywords k : Keywords.values()) {
+            if (!entries.containsKey(k.toString())) {
+                missing.add(k.toString());
+            }
+        }
+        if (!missing.isEmpty()) {
+            System.err.println("No documentation for " + missing);
+        }
+        try (OutputStream out = new FileOutputStream(args[1])) {
+            KeywordDocs.write(entries, out);
+        }
+        System.out.println("Wrote " + entries.size() + " entries to " + args[1]);
+    }
+
+    /**
+     * Read entries separated by blank lines:  the keyword, a line of
+     * syntax, then the description.  Lines starting with "# " are
+     * comments.
+     */
+    static Map<String, KeywordDocs.Doc> parse(String file) throws IOException {
+        Map<String, KeywordDocs.Doc> result = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            List<String> lines = new ArrayList<>();
+            for (String line = in.readLine();; line = in.readLine()) {
+                if (line == null || line.trim().isEmpty()) {
+                    if (!lines.isEmpty()) {
+                        add(lines, result);
+                        lines.clear();
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                } else if (!line.startsWith("# ") && !line.equals("#")) {
+                    lines.add(line.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void add(List<String> lines, Map<String, KeywordDocs.Doc> into) {
+        String name = lines.get(0);
+        if (Keywords.match(name) == null) {
+            throw new IllegalArgumentException("Not a keyword: " + name);
+        }
+        if (lines.size() < 2) {
+            throw new IllegalArgumentException("No syntax for " + name);
+        }
+        if (into.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate entry for " + name);
+        }
+        into.put(name, new KeywordDocs.Doc(lines.get(1),
+                String.join(" ", lines.subList(2, lines.size()))));
+    }
+}
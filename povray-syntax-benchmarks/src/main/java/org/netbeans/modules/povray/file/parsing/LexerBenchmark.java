@@ -0,0 +1,87 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.TimeUnit;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Raw lexing throughput:  lexes a whole generated scene through a
+ * TokenHierarchy over a String.  The chars counter gives characters
+ * lexed per second, i.e. MB/s of (Latin-1) source.
+ *
+ * @author Tim Boudreau
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LexerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Scene {
+
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int lines;
+        String text;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            text = SceneCorpus.generate(lines);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long chars;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chars = 0;
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public int lexScene(Scene scene, Counters counters) {
+        TokenHierarchy<String> hierarchy = TokenHierarchy.create(scene.text, PovTokenId.getLanguage());
+        TokenSequence<PovTokenId> seq = hierarchy.tokenSequence(PovTokenId.getLanguage());
+        int count = 0;
+        while (seq.moveNext()) {
+            count++;
+        }
+        counters.chars += scene.text.length();
+        counters.tokens += count;
+        return count;
+    }
+}
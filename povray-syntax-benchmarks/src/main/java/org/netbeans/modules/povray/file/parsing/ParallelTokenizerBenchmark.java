@@ -0,0 +1,103 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Scaling of parallel tokenizing of a large scene with the number of
+ * threads in the fork-join pool;  threads=0 is the sequential tokenizer,
+ * as a baseline.  Compare the chars counter across thread counts.
+ *
+ * @author Tim Boudreau
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParallelTokenizerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Scene {
+
+        @Param({"1000000", "4000000"})
+        public int lines;
+        @Param({"0", "1", "2", "4", "8"})
+        public int threads;
+        String text;
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            text = SceneCorpus.generate(lines);
+            if (threads > 0) {
+                pool = new ForkJoinPool(threads);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters implements PovTokenizer.TokenHandler {
+
+        public long chars;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chars = 0;
+            tokens = 0;
+        }
+
+        @Override
+        public void token(PovTokenId id, long offset, int length, CharSequence text, int start) {
+            tokens++;
+        }
+    }
+
+    @Benchmark
+    public long tokenizeScene(Scene scene, Counters counters) {
+        if (scene.pool == null) {
+            PovTokenizer.tokenize(scene.text, counters);
+        } else {
+            PovTokenizer.tokenize(scene.text, scene.pool, counters);
+        }
+        counters.chars += scene.text.length();
+        return counters.tokens;
+    }
+}
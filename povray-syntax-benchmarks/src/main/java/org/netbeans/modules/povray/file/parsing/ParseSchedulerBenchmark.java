@@ -0,0 +1,86 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Typing latency in a large scene with and without a ParseScheduler
+ * attached;  each operation inserts a character and removes it again.
+ * With the scheduler attached, parsing happens in the background and
+ * should not show up here - the two variants should be close.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseSchedulerBenchmark {
+
+    @Param({"100000"})
+    public int lines;
+    @Param({"true", "false"})
+    public boolean scheduled;
+    private PlainDocument doc;
+    private ParseScheduler scheduler;
+    private int offset;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadLocationException {
+        String text = SceneCorpus.generate(lines);
+        offset = text.indexOf("color_map", text.length() / 2);
+        offset = text.indexOf('\n', offset) + 1;
+        doc = new PlainDocument();
+        doc.insertString(0, text, null);
+        if (scheduled) {
+            scheduler = ParseScheduler.forDocument(doc);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        if (scheduler != null) {
+            System.out.println(scheduler.getStatistics());
+        }
+    }
+
+    @Benchmark
+    public int type() throws BadLocationException {
+        doc.insertString(offset, "x", null);
+        doc.remove(offset, 1);
+        return doc.getLength();
+    }
+}
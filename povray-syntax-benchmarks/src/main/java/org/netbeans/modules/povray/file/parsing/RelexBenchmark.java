@@ -0,0 +1,88 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of re-lexing after a one-character edit in a large, fully lexed
+ * document - either inside a long block comment or in ordinary code.  Each
+ * operation is an insert plus the matching remove.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RelexBenchmark {
+
+    @Param({"40000"})
+    public int lines;
+    @Param({"2000"})
+    public int commentLines;
+    @Param({"comment", "code"})
+    public String where;
+    private PlainDocument doc;
+    private int offset;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadLocationException {
+        String text = SceneCorpus.generate(lines, commentLines);
+        doc = new PlainDocument();
+        doc.putProperty(Language.class, PovTokenId.getLanguage());
+        doc.insertString(0, text, null);
+        if ("comment".equals(where)) {
+            offset = text.indexOf(SceneCorpus.COMMENT_MIDDLE);
+        } else {
+            offset = text.indexOf("#declare", text.length() / 4);
+        }
+        TokenSequence<?> seq = TokenHierarchy.get(doc).tokenSequence();
+        while (seq.moveNext()) {
+            // lex everything up front
+        }
+    }
+
+    @Benchmark
+    public int editAndRelex() throws BadLocationException {
+        doc.insertString(offset, "x", null);
+        doc.remove(offset, 1);
+        TokenSequence<?> seq = TokenHierarchy.get(doc).tokenSequence();
+        seq.move(offset);
+        return seq.moveNext() ? seq.token().length() : 0;
+    }
+}
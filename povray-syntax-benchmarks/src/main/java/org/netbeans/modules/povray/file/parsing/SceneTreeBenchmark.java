@@ -0,0 +1,96 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of updating the parse tree of a 100k line scene after a
+ * one-character edit, inside a block or between top-level statements,
+ * against parsing the whole scene.  The document variant includes copying
+ * the text out of a PlainDocument;  each of its operations is an insert
+ * plus the matching remove, so two updates.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SceneTreeBenchmark {
+
+    @Param({"100000"})
+    public int lines;
+    @Param({"block", "toplevel"})
+    public String where;
+    private String text;
+    private String edited;
+    private SceneTree tree;
+    private int offset;
+    private PlainDocument doc;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadLocationException {
+        text = SceneCorpus.generate(lines);
+        if ("block".equals(where)) {
+            offset = text.indexOf("color_map", text.length() / 2);
+            offset = text.indexOf('\n', offset) + 1;
+        } else {
+            offset = text.indexOf("\n#declare", text.length() / 2) + 1;
+        }
+        edited = text.substring(0, offset) + ' ' + text.substring(offset);
+        tree = SceneTree.parse(text);
+        doc = new PlainDocument();
+        doc.insertString(0, text, null);
+        SceneTree.get(doc);
+    }
+
+    @Benchmark
+    public SceneTree incrementalUpdate() {
+        return tree.edit(edited, offset, 0, 1);
+    }
+
+    @Benchmark
+    public SceneTree fullParse() {
+        return SceneTree.parse(edited);
+    }
+
+    @Benchmark
+    public SceneTree documentEdit() throws BadLocationException {
+        doc.insertString(offset, " ", null);
+        SceneTree.get(doc);
+        doc.remove(offset, 1);
+        return SceneTree.get(doc);
+    }
+}
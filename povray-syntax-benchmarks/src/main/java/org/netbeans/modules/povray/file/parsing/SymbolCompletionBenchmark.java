@@ -0,0 +1,78 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of bringing the declared names of a large document up to date
+ * after an edit and looking them up for completion;  the lookup alone is
+ * measured by FuzzyCompletionBenchmark.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SymbolCompletionBenchmark {
+
+    @Param({"x", "Floor_1", "SPOKES_99"})
+    public String query;
+    @Param({"100000"})
+    public int lines;
+    private DocumentSymbols symbols;
+    private PlainDocument doc;
+    private int offset;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadLocationException {
+        String text = SceneCorpus.generate(lines);
+        doc = new PlainDocument();
+        doc.insertString(0, text, null);
+        symbols = new DocumentSymbols();
+        symbols.run(doc, SceneTree.get(doc));
+        offset = text.indexOf("\n#declare", text.length() / 2) + 1;
+    }
+
+    @Benchmark
+    public Map<String, Keywords> documentEdit() throws BadLocationException {
+        doc.insertString(offset, "#declare X_ = 1;\n", null);
+        symbols.run(doc, SceneTree.get(doc));
+        doc.remove(offset, 17);
+        symbols.run(doc, SceneTree.get(doc));
+        return symbols.matching(new FuzzyMatcher(query, false), 500, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,94 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Startup cost of the symbol index for a library of include files:
+ * reading the stored index and answering a lookup, against indexing every
+ * file again.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SymbolIndexBenchmark {
+
+    @Param({"5000"})
+    public int files;
+    @Param({"200"})
+    public int lines;
+    private String text;
+    private File store;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        text = SceneCorpus.generate(lines);
+        store = File.createTempFile("symbols", ".idx");
+        SymbolIndex index = new SymbolIndex(store);
+        indexAll(index);
+        index.save();
+        System.out.println(files + " files stored in " + store.length() + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.delete();
+    }
+
+    private void indexAll(SymbolIndex index) {
+        // The files do not exist, so lookups find their size and
+        // timestamp unchanged at 0
+        for (int i = 0; i < files; i++) {
+            index.put("/library/dir" + (i / 100) + "/lib" + i + ".inc", 0, 0, text);
+        }
+    }
+
+    @Benchmark
+    public List<SymbolIndex.Symbol> startup() {
+        return new SymbolIndex(store).find("Floor");
+    }
+
+    @Benchmark
+    public List<SymbolIndex.Symbol> rescan() {
+        SymbolIndex index = new SymbolIndex(null);
+        indexAll(index);
+        return index.find("Floor");
+    }
+}
@@ -0,0 +1,98 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Headless tokenizing of a generated scene written to disk, through the
+ * memory-mapped PovTokenizer path.  Allocation per operation should not
+ * grow with the number of lines.
+ *
+ * @author Tim Boudreau
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TokenizerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SceneFile {
+
+        @Param({"10000", "1000000"})
+        public int lines;
+        File file;
+        long length;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            file = File.createTempFile("scene", ".pov");
+            String text = SceneCorpus.generate(lines);
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            length = text.length();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters implements PovTokenizer.TokenHandler {
+
+        public long chars;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chars = 0;
+            tokens = 0;
+        }
+
+        @Override
+        public void token(PovTokenId id, long offset, int length, CharSequence text, int start) {
+            tokens++;
+        }
+    }
+
+    @Benchmark
+    public long tokenizeMappedFile(SceneFile scene, Counters counters) throws IOException {
+        PovTokenizer.tokenize(scene.file, StandardCharsets.UTF_8, counters);
+        counters.chars += scene.length;
+        return counters.tokens;
+    }
+}
@@ -0,0 +1,742 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Decoded images shared by all open scenes, so that showing a recently
+ * viewed render again needs no decoding.  Images are kept, least recently
+ * used first out, up to a budget in bytes - by default a quarter of the
+ * heap, at most 256MB, or the number of megabytes in the system property
+ * povray.image.cache.mb.  Images evicted from the budget are still
+ * softly referenced, and are used if the garbage collector has not
+ * claimed them.
+ * <p/>
+ * Entries are keyed by the file's path, timestamp and length, so a file
+ * which was rendered again is never served stale;  entries for older
+ * versions of a file are dropped when a newer one is added.
+ *
+ * @author Tim Boudreau
+ */
+final class ImageCache {
+
+    private static final Logger LOG = Logger.getLogger(ImageCache.class.getName());
+    private static final long DEFAULT_BUDGET = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4);
+    // Image sizes are small;  this only bounds the map
+    private static final int MAX_SIZES = 256;
+    // How much of an image composite() decodes at once
+    private static final int BAND_PIXELS = 1 << 22;
+    private static ImageCache instance;
+    private final long budget;
+    // Guarded by this
+    private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(16, 0.75F, true);
+    private final Map<Key, Soft> evicted = new HashMap<Key, Soft>();
+    private final ReferenceQueue<BufferedImage> queue = new ReferenceQueue<BufferedImage>();
+    private final Map<Key, Dimension> sizes = new LinkedHashMap<Key, Dimension>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Dimension> eldest) {
+            return size() > MAX_SIZES;
+        }
+    };
+    private long bytes;
+    private long hits;
+    private long softHits;
+    private long misses;
+    private long evictions;
+
+    ImageCache(long budget) {
+        this.budget = budget;
+    }
+
+    static synchronized ImageCache getDefault() {
+        if (instance == null) {
+            Long mb = Long.getLong("povray.image.cache.mb");
+            instance = new ImageCache(mb == null ? DEFAULT_BUDGET : mb << 20);
+        }
+        return instance;
+    }
+
+    /**
+     * Get the size of an image if the current version of the file has
+     * been seen, or null.
+     */
+    Dimension getSize(File file) {
+        Key key = new Key(file, null, 0);
+        synchronized (this) {
+            Dimension result = sizes.get(key);
+            return result == null ? null : new Dimension(result);
+        }
+    }
+
+    /**
+     * Get the size of an image, reading it only if the current version
+     * of the file has not been seen.
+     */
+    Dimension size(File file) throws IOException {
+        Dimension result = getSize(file);
+        if (result != null) {
+            return result;
+        }
+        Key key = new Key(file, null, 0);
+        result = ImageDecoder.size(file);
+        if (key.isCurrent()) {
+            synchronized (this) {
+                sizes.put(key, new Dimension(result));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a decoded image or region of one, if the current version of the
+     * file has been decoded with that region and subsampling.
+     *
+     * @param region The region, or null for the whole image
+     * @return The image, or null
+     */
+    BufferedImage get(File file, Rectangle region, int subsampling) {
+        return get(new Key(file, region, subsampling));
+    }
+
+    /**
+     * Get a decoded image or region of one from the cache, or decode it
+     * and add it.  The caller must not modify the result.
+     *
+     * @throws java.io.InterruptedIOException if the thread was interrupted
+     */
+    BufferedImage read(File file, Rectangle region, int subsampling) throws IOException {
+        Key key = new Key(file, region, subsampling);
+        BufferedImage result = get(key);
+        if (result == null) {
+            result = ImageDecoder.read(file, region, subsampling);
+            // If the file changed while it was read, the image may be a mix
+            // of both versions, and belongs to neither
+            if (key.isCurrent()) {
+                put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get tiles of an image, all with the same subsampling, from the cache
+     * or by decoding the region covering the missing ones at once - one
+     * pass over the file whatever the number of tiles.  The regions must
+     * start at multiples of the subsampling.
+     *
+     * @throws java.io.InterruptedIOException if the thread was interrupted
+     */
+    BufferedImage[] readTiles(File file, Rectangle[] regions, int subsampling) throws IOException {
+        BufferedImage[] result = new BufferedImage[regions.length];
+        Key[] keys = new Key[regions.length];
+        Rectangle missing = null;
+        for (int i = 0; i < regions.length; i++) {
+            keys[i] = new Key(file, regions[i], subsampling);
+            result[i] = get(keys[i]);
+            if (result[i] == null) {
+                missing = missing == null ? new Rectangle(regions[i]) : missing.union(regions[i]);
+            }
+        }
+        if (missing == null) {
+            return result;
+        }
+        BufferedImage all = ImageDecoder.read(file, missing, subsampling);
+        boolean current = keys[0].isCurrent();
+        for (int i = 0; i < regions.length; i++) {
+            if (result[i] == null) {
+                Rectangle r = regions[i];
+                // Copied, so that the cache does not keep all of the
+                // decoded region alive for one tile
+                WritableRaster raster = all.getRaster().createCompatibleWritableRaster(
+                        (r.width + subsampling - 1) / subsampling, (r.height + subsampling - 1) / subsampling);
+                raster.setRect(-(r.x - missing.x) / subsampling, -(r.y - missing.y) / subsampling, all.getRaster());
+                result[i] = new BufferedImage(all.getColorModel(), raster, all.isAlphaPremultiplied(), null);
+                if (current) {
+                    put(keys[i], result[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Paint a newly rendered region into a PNG image, decoding and writing
+     * the file again a band of rows at a time, and into copies of each cached image
+     * of it, which replace them so they belong to the new version of the
+     * file and need not be decoded again.  Images already handed out, which
+     * may be being painted, are never changed.  Compositing stops, leaving
+     * the file as it was, if cancelled is set before the file is replaced.
+     *
+     * @param patch The region's pixels, at full size
+     * @throws java.io.InterruptedIOException if cancelled
+     */
+    void composite(File file, Rectangle region, BufferedImage patch, AtomicBoolean cancelled) throws IOException {
+        composite(file, region, patch, BAND_PIXELS, cancelled);
+    }
+
+    /**
+     * @param bandPixels The number of pixels of the image to decode at once
+     */
+    void composite(File file, Rectangle region, BufferedImage patch, int bandPixels,
+            AtomicBoolean cancelled) throws IOException {
+        Key version = new Key(file, null, 0);
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        boolean written = false;
+        try {
+            writeComposite(file, temp, region, patch, bandPixels, cancelled);
+            if (cancelled.get()) {
+                throw new InterruptedIOException("Cancelled compositing " + file);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Map<Key, BufferedImage> patched = new LinkedHashMap<Key, BufferedImage>();
+        synchronized (this) {
+            expunge();
+            for (Iterator<Map.Entry<Key, BufferedImage>> it = images.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Key, BufferedImage> e = it.next();
+                if (e.getKey().isSameVersion(version)) {
+                    it.remove();
+                    bytes -= bytes(e.getValue());
+                    patched.put(e.getKey(), e.getValue());
+                }
+            }
+            for (Iterator<Map.Entry<Key, Soft>> it = evicted.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Key, Soft> e = it.next();
+                if (e.getKey().isSameVersion(version)) {
+                    it.remove();
+                    BufferedImage img = e.getValue().get();
+                    if (img != null) {
+                        patched.put(e.getKey(), img);
+                    }
+                }
+            }
+            Dimension size = sizes.remove(version);
+            if (size != null) {
+                sizes.put(new Key(file, null, 0), size);
+            }
+        }
+        for (Map.Entry<Key, BufferedImage> e : patched.entrySet()) {
+            Key old = e.getKey();
+            Key key = new Key(file, old.region, old.subsampling);
+            BufferedImage img = copy(e.getValue());
+            paste(img, old.region, old.subsampling, region, patch);
+            // Unless the file was rendered again meanwhile
+            if (key.isCurrent()) {
+                put(key, img);
+            }
+        }
+    }
+
+    private static void writeComposite(File file, File temp, Rectangle region, BufferedImage patch,
+            int bandPixels, AtomicBoolean cancelled) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("Cannot write " + file);
+        }
+        ImageWriter writer = writers.next();
+        temp.delete();
+        try (Bands bands = new Bands(file, bandPixels, region, patch, cancelled);
+                ImageOutputStream out = ImageIO.createImageOutputStream(temp)) {
+            writer.setOutput(out);
+            writer.write(bands);
+        } catch (BandException e) {
+            throw e.getCause();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        WritableRaster raster = img.getRaster().createCompatibleWritableRaster();
+        raster.setRect(img.getRaster());
+        return new BufferedImage(img.getColorModel(), raster, img.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Copy the pixels of a patch covering a region of an image into a
+     * decoded part of it.
+     *
+     * @param area The part of the image img is, or null for all of it
+     */
+    private static void paste(BufferedImage img, Rectangle area, int subsampling,
+            Rectangle region, BufferedImage patch) {
+        int ax = area == null ? 0 : area.x;
+        int ay = area == null ? 0 : area.y;
+        // The first pixels of img at or after the region's corner
+        int x0 = Math.max(0, (region.x - ax + subsampling - 1) / subsampling);
+        int y0 = Math.max(0, (region.y - ay + subsampling - 1) / subsampling);
+        for (int y = y0; y < img.getHeight() && ay + y * subsampling < region.y + region.height; y++) {
+            for (int x = x0; x < img.getWidth() && ax + x * subsampling < region.x + region.width; x++) {
+                img.setRGB(x, y, patch.getRGB(ax + x * subsampling - region.x, ay + y * subsampling - region.y));
+            }
+        }
+    }
+
+    private synchronized BufferedImage get(Key key) {
+        expunge();
+        BufferedImage result = images.get(key);
+        if (result != null) {
+            hits++;
+            return result;
+        }
+        Soft ref = evicted.remove(key);
+        result = ref == null ? null : ref.get();
+        if (result != null) {
+            softHits++;
+            add(key, result);
+            return result;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(Key key, BufferedImage img) {
+        expunge();
+        // Drop other, older versions of the file
+        for (Iterator<Map.Entry<Key, BufferedImage>> it = images.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, BufferedImage> e = it.next();
+            if (e.getKey().isOtherVersionOf(key)) {
+                bytes -= bytes(e.getValue());
+                it.remove();
+            }
+        }
+        for (Iterator<Key> it = evicted.keySet().iterator(); it.hasNext();) {
+            if (it.next().isOtherVersionOf(key)) {
+                it.remove();
+            }
+        }
+        for (Iterator<Key> it = sizes.keySet().iterator(); it.hasNext();) {
+            if (it.next().isOtherVersionOf(key)) {
+                it.remove();
+            }
+        }
+        evicted.remove(key);
+        BufferedImage old = images.remove(key);
+        if (old != null) {
+            bytes -= bytes(old);
+        }
+        add(key, img);
+    }
+
+    private void add(Key key, BufferedImage img) {
+        images.put(key, img);
+        bytes += bytes(img);
+        for (Iterator<Map.Entry<Key, BufferedImage>> it = images.entrySet().iterator();
+                bytes > budget && it.hasNext();) {
+            Map.Entry<Key, BufferedImage> eldest = it.next();
+            it.remove();
+            bytes -= bytes(eldest.getValue());
+            evicted.put(eldest.getKey(), new Soft(eldest.getKey(), eldest.getValue(), queue));
+            evictions++;
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} images in {1} bytes, {2}", new Object[]{images.size(), bytes, this});
+        }
+    }
+
+    /**
+     * Forget the entries whose images the garbage collector claimed.
+     */
+    private void expunge() {
+        Reference<? extends BufferedImage> ref;
+        while ((ref = queue.poll()) != null) {
+            Key key = ((Soft) ref).key;
+            if (evicted.get(key) == ref) {
+                evicted.remove(key);
+            }
+        }
+    }
+
+    static long bytes(BufferedImage img) {
+        DataBuffer buf = img.getRaster().getDataBuffer();
+        return (long) buf.getSize() * buf.getNumBanks() * DataBuffer.getDataTypeSize(buf.getDataType()) / 8;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * The number of lookups answered from the images within the budget.
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of lookups answered from evicted images the garbage
+     * collector had not yet claimed.
+     */
+    synchronized long getSoftHits() {
+        return softHits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized void clear() {
+        images.clear();
+        evicted.clear();
+        sizes.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits " + hits + ", soft hits " + softHits + ", misses " + misses
+                + ", evictions " + evictions;
+    }
+
+    private static final class Soft extends SoftReference<BufferedImage> {
+
+        final Key key;
+
+        Soft(Key key, BufferedImage img, ReferenceQueue<BufferedImage> queue) {
+            super(img, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * An image read from a file a band of rows at a time, as the writer
+     * asks for them, with a patch painted over a region of it.  Bands are
+     * the image's tiles.  PNG images as POV-Ray writes them are decoded in
+     * one pass, as the writer asks for the bands in order;  others are
+     * decoded whole, as one band.  Reading a band fails once cancelled is
+     * set.
+     */
+    private static final class Bands implements RenderedImage, Closeable {
+
+        private final File file;
+        private final int width;
+        private final int height;
+        private final int bandHeight;
+        private final Rectangle region;
+        private final BufferedImage patch;
+        private final AtomicBoolean cancelled;
+        // Null for an image decoded whole
+        private PngRows rows;
+        private BufferedImage band;
+        private int bandY;
+
+        Bands(File file, int bandPixels, Rectangle region, BufferedImage patch,
+                AtomicBoolean cancelled) throws IOException {
+            this.file = file;
+            this.region = region;
+            this.patch = patch;
+            this.cancelled = cancelled;
+            rows = PngRows.open(file);
+            if (rows == null) {
+                band = ImageDecoder.read(file, null, 1);
+                width = band.getWidth();
+                height = band.getHeight();
+                bandHeight = height;
+                paste(band, null, 1, region, patch);
+                return;
+            }
+            width = rows.width;
+            height = rows.height;
+            bandHeight = Math.max(1, Math.min(height, bandPixels / width));
+            try {
+                read(0);
+            } catch (IOException | RuntimeException ex) {
+                rows.close();
+                throw ex;
+            }
+        }
+
+        private void read(int y) throws IOException {
+            if (cancelled.get()) {
+                throw new InterruptedIOException("Cancelled compositing " + file);
+            }
+            if (y < rows.getRow()) {
+                // An earlier band again, which means decoding from the
+                // start
+                rows.close();
+                rows = PngRows.open(file);
+                if (rows == null) {
+                    throw new IOException(file + " changed while compositing");
+                }
+            }
+            rows.skipRows(y - rows.getRow());
+            int count = Math.min(bandHeight, height - y);
+            if (band == null || band.getHeight() != count) {
+                band = rows.createBand(count);
+            }
+            rows.read(band, count);
+            bandY = y;
+            paste(band, new Rectangle(0, y, width, count), 1, region, patch);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rows != null) {
+                rows.close();
+            }
+        }
+
+        private Raster band(int tileY) {
+            int y = tileY * bandHeight;
+            if (y != bandY) {
+                try {
+                    read(y);
+                } catch (IOException ex) {
+                    throw new BandException(ex);
+                }
+            }
+            return band.getRaster().createTranslatedChild(0, bandY);
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return band.getColorModel();
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return band.getSampleModel();
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + bandHeight - 1) / bandHeight;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return bandHeight;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return band(tileY);
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(width, height));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            return copyData(band.getRaster().createCompatibleWritableRaster(rect));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = band.getRaster().createCompatibleWritableRaster(width, height);
+            }
+            Rectangle bounds = raster.getBounds().intersection(new Rectangle(width, height));
+            if (!bounds.isEmpty()) {
+                int last = (bounds.y + bounds.height - 1) / bandHeight;
+                for (int tileY = bounds.y / bandHeight; tileY <= last; tileY++) {
+                    Raster tile = band(tileY);
+                    Rectangle r = tile.getBounds().intersection(bounds);
+                    raster.setDataElements(r.x, r.y, r.width, r.height,
+                            tile.getDataElements(r.x, r.y, r.width, r.height, null));
+                }
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Carries an IOException reading a band out of the writer.
+     */
+    private static final class BandException extends RuntimeException {
+
+        BandException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * A version of a file, by its timestamp and length, and the region and
+     * subsampling it was decoded with.
+     */
+    private static final class Key {
+
+        private final File file;
+        private final long modified;
+        private final long length;
+        private final Rectangle region;
+        private final int subsampling;
+
+        Key(File file, Rectangle region, int subsampling) {
+            this.file = file.getAbsoluteFile();
+            this.modified = file.lastModified();
+            this.length = file.length();
+            this.region = region == null ? null : new Rectangle(region);
+            this.subsampling = subsampling;
+        }
+
+        boolean isCurrent() {
+            return file.lastModified() == modified && file.length() == length;
+        }
+
+        boolean isSameVersion(Key other) {
+            return file.equals(other.file) && modified == other.modified && length == other.length;
+        }
+
+        boolean isOtherVersionOf(Key other) {
+            return file.equals(other.file) && (modified != other.modified || length != other.length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return file.equals(k.file) && modified == k.modified && length == k.length
+                    && subsampling == k.subsampling
+                    && (region == null ? k.region == null : region.equals(k.region));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = file.hashCode();
+            result = 31 * result + (int) (modified ^ (modified >>> 32));
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (region == null ? 0 : region.hashCode());
+            return 31 * result + subsampling;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Reads rendered images, or regions of them, subsampled so they hold no
+ * more pixels than can be shown - a 16k square render shown in a window
+ * is decoded to roughly the window's size.  Decoding stops when the
+ * reading thread is interrupted.  TGA and PPM files are decoded by
+ * RasterDecoder, anything else by ImageIO.
+ *
+ * @author Tim Boudreau
+ */
+final class ImageDecoder {
+
+    static final RequestProcessor RP = new RequestProcessor("POV-Ray images", 2, true);
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // An empty IEND chunk with its CRC, which ends every PNG file
+    private static final byte[] PNG_END = {0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82};
+
+    enum Completeness {
+        COMPLETE,
+        /**
+         * The file is still being written.
+         */
+        INCOMPLETE,
+        /**
+         * The format has no end marker;  whether the file is complete can
+         * only be guessed from it no longer changing.
+         */
+        UNKNOWN
+    }
+
+    private ImageDecoder() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the size of an image without decoding it.
+     */
+    static Dimension size(File file) throws IOException {
+        if (RasterDecoder.handles(file)) {
+            try (FileChannel ch = channel(file)) {
+                RasterDecoder decoder = RasterDecoder.open(file, ch);
+                return new Dimension(decoder.width, decoder.height);
+            }
+        }
+        try (ImageInputStream in = open(file)) {
+            ImageReader reader = reader(file, in);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Read an image or part of it, keeping every subsampling'th pixel of
+     * every subsampling'th row.
+     *
+     * @param region The part of the image to read, or null for all of it
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    static BufferedImage read(File file, Rectangle region, int subsampling) throws IOException {
+        if (RasterDecoder.handles(file)) {
+            try (FileChannel ch = channel(file)) {
+                RasterDecoder decoder = RasterDecoder.open(file, ch);
+                return decoder.read(ch, region == null
+                        ? new Rectangle(decoder.width, decoder.height)
+                        : region.intersection(new Rectangle(decoder.width, decoder.height)),
+                        subsampling);
+            } catch (ClosedByInterruptException e) {
+                Thread.interrupted();
+                InterruptedIOException ex = new InterruptedIOException("Cancelled reading " + file);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+        try (ImageInputStream in = open(file)) {
+            ImageReader reader = reader(file, in);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (region != null) {
+                    param.setSourceRegion(region);
+                }
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                reader.addIIOReadProgressListener(new AbortOnInterrupt());
+                BufferedImage result = reader.read(0, param);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Cancelled reading " + file);
+                }
+                return result;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Find out cheaply, without decoding it, whether an image a renderer
+     * may still be writing is complete.
+     */
+    static Completeness completeness(File file) throws IOException {
+        if (RasterDecoder.handles(file)) {
+            try (FileChannel ch = channel(file)) {
+                return RasterDecoder.open(file, ch).completeness(ch);
+            } catch (EOFException e) {
+                // Not even the header is there yet
+                return Completeness.INCOMPLETE;
+            }
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] start = new byte[PNG_SIGNATURE.length];
+            if (in.length() < start.length) {
+                return Completeness.INCOMPLETE;
+            }
+            in.readFully(start);
+            if (!Arrays.equals(start, PNG_SIGNATURE)) {
+                return Completeness.UNKNOWN;
+            }
+            byte[] end = new byte[PNG_END.length];
+            if (in.length() < start.length + end.length) {
+                return Completeness.INCOMPLETE;
+            }
+            in.seek(in.length() - end.length);
+            in.readFully(end);
+            return Arrays.equals(end, PNG_END) ? Completeness.COMPLETE : Completeness.INCOMPLETE;
+        }
+    }
+
+    /**
+     * Get the largest subsampling which still leaves at least as many
+     * pixels as an area, so a scaled down image shown in it is not
+     * blurred.
+     */
+    static int subsamplingToFill(int width, int height, int areaWidth, int areaHeight) {
+        if (areaWidth <= 0 || areaHeight <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(width / areaWidth, height / areaHeight));
+    }
+
+    /**
+     * Whether an image can be decoded at all, by its extension.
+     */
+    static boolean canRead(File file) {
+        return RasterDecoder.handles(file)
+                || ImageIO.getImageReadersBySuffix(RasterDecoder.extension(file)).hasNext();
+    }
+
+    private static FileChannel channel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    private static ImageInputStream open(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        return in;
+    }
+
+    private static ImageReader reader(File file, ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Not a readable image: " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    private static final class AbortOnInterrupt implements IIOReadProgressListener {
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
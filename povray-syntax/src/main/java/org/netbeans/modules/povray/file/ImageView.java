@@ -0,0 +1,420 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Shows a rendered image scaled to fit, or at a zoom, from a TilePyramid:
+ * painting draws only the visible tiles of the level matching the scale,
+ * and when zoomed in beyond the overview's resolution, the visible tiles
+ * of finer levels are loaded in the background - so both the time to
+ * paint and the memory used depend on the size of the screen, not the
+ * image.  Ctrl-mouse wheel zooms around the mouse;  double-click switches
+ * between fitting the window and full size;  dragging selects a part of
+ * the image, and fires a change of the "selection" property.
+ *
+ * @author Tim Boudreau
+ */
+final class ImageView extends JComponent implements Scrollable {
+
+    private static final Logger LOG = Logger.getLogger(ImageView.class.getName());
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MIN_ZOOM = 1 / 64D;
+    private static final double MAX_ZOOM = 32;
+    private static final Color SELECTION_FILL = new Color(255, 255, 255, 48);
+    private static final Stroke DASHED = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+            1, new float[]{4, 4}, 0);
+    // All fields are only used on the event thread
+    private TilePyramid pyramid;
+    private Dimension size;
+    private boolean fit = true;
+    private double zoom = 1;
+    // In image coordinates
+    private Rectangle selection;
+    private Point dragStart;
+    private RequestProcessor.Task tileTask;
+    private int generation;
+    private final ChangeListener viewportListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            updateTiles();
+        }
+    };
+
+    ImageView() {
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (e.isControlDown()) {
+                    zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getPoint());
+                } else {
+                    // Listening for the wheel stops it reaching the scroll pane
+                    JScrollPane pane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, ImageView.this);
+                    if (pane != null) {
+                        pane.dispatchEvent(SwingUtilities.convertMouseEvent(ImageView.this, e, pane));
+                    }
+                }
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = SwingUtilities.isLeftMouseButton(e) && size != null ? e.getPoint() : null;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragStart != null) {
+                    Rectangle r = new Rectangle(dragStart);
+                    r.add(e.getPoint());
+                    setSelection(toImage(r));
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (dragStart != null && dragStart.distance(e.getPoint()) < 3) {
+                    // A click
+                    setSelection(null);
+                }
+                dragStart = null;
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && size != null) {
+                    if (fit) {
+                        zoom(1 / scale(), e.getPoint());
+                    } else {
+                        setFit();
+                    }
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Get the file of the image shown, or null.
+     */
+    File getFile() {
+        return pyramid == null ? null : pyramid.getFile();
+    }
+
+    /**
+     * Get the selected part of the image, in its pixels, or null.
+     */
+    Rectangle getSelection() {
+        return selection == null ? null : new Rectangle(selection);
+    }
+
+    private void setSelection(Rectangle selection) {
+        if (selection != null && selection.isEmpty()) {
+            selection = null;
+        }
+        Rectangle old = this.selection;
+        this.selection = selection;
+        repaint();
+        firePropertyChange("selection", old, selection);
+    }
+
+    /**
+     * Convert a rectangle of this component to the pixels of the image it
+     * covers.
+     */
+    private Rectangle toImage(Rectangle r) {
+        double scale = scale();
+        Point origin = origin(scale);
+        int x1 = (int) Math.floor((r.x - origin.x) / scale);
+        int y1 = (int) Math.floor((r.y - origin.y) / scale);
+        int x2 = (int) Math.ceil((r.x + r.width - origin.x) / scale);
+        int y2 = (int) Math.ceil((r.y + r.height - origin.y) / scale);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1).intersection(new Rectangle(size));
+    }
+
+    /**
+     * Show an image.
+     */
+    void setImage(TilePyramid pyramid) {
+        Dimension newSize = pyramid.getSize();
+        boolean sameSize = newSize.equals(size);
+        cancelTiles();
+        this.pyramid = pyramid;
+        this.size = newSize;
+        if (!sameSize) {
+            fit = true;
+            setSelection(null);
+        }
+        revalidate();
+        repaint();
+        updateTiles();
+    }
+
+    void clear() {
+        cancelTiles();
+        pyramid = null;
+        size = null;
+        setSelection(null);
+        revalidate();
+        repaint();
+    }
+
+    private void cancelTiles() {
+        generation++;
+        if (tileTask != null) {
+            tileTask.cancel();
+            tileTask = null;
+        }
+    }
+
+    void setFit() {
+        fit = true;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Zoom by a factor, keeping the point of the image under a point of
+     * this component in place.
+     */
+    void zoom(double factor, Point around) {
+        if (size == null) {
+            return;
+        }
+        double old = scale();
+        Point origin = origin(old);
+        double x = (around.x - origin.x) / old;
+        double y = (around.y - origin.y) / old;
+        fit = false;
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, old * factor));
+        JViewport viewport = viewport();
+        if (viewport != null) {
+            Point view = viewport.getViewPosition();
+            setSize(getPreferredSize());
+            Dimension extent = viewport.getExtentSize();
+            origin = origin(zoom);
+            int vx = (int) Math.round(origin.x + x * zoom) - (around.x - view.x);
+            int vy = (int) Math.round(origin.y + y * zoom) - (around.y - view.y);
+            vx = Math.max(0, Math.min(vx, getWidth() - extent.width));
+            vy = Math.max(0, Math.min(vy, getHeight() - extent.height));
+            viewport.setViewPosition(new Point(vx, vy));
+        }
+        revalidate();
+        repaint();
+        updateTiles();
+    }
+
+    /**
+     * Get the scale the image is shown at.
+     */
+    double scale() {
+        if (!fit || size == null) {
+            return zoom;
+        }
+        double result = Math.min(getWidth() / (double) size.width, getHeight() / (double) size.height);
+        return result > 0 ? result : 1;
+    }
+
+    /**
+     * Get where the image starts, centering it if it is smaller than this
+     * component.
+     */
+    private Point origin(double scale) {
+        return new Point(Math.max(0, (getWidth() - (int) Math.round(size.width * scale)) / 2),
+                Math.max(0, (getHeight() - (int) Math.round(size.height * scale)) / 2));
+    }
+
+    private JViewport viewport() {
+        Container parent = getParent();
+        return parent instanceof JViewport ? (JViewport) parent : null;
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        JViewport viewport = viewport();
+        if (viewport != null) {
+            viewport.addChangeListener(viewportListener);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        JViewport viewport = viewport();
+        if (viewport != null) {
+            viewport.removeChangeListener(viewportListener);
+        }
+        cancelTiles();
+        super.removeNotify();
+    }
+
+    /**
+     * Load the tiles of the visible part, and a tile around it, if the
+     * overview is too coarse for the current scale.
+     */
+    private void updateTiles() {
+        if (pyramid == null) {
+            return;
+        }
+        double scale = scale();
+        int level = pyramid.levelFor(scale);
+        Point origin = origin(scale);
+        Rectangle visible = getVisibleRect();
+        Rectangle source = new Rectangle(
+                (int) Math.floor((visible.x - origin.x) / scale),
+                (int) Math.floor((visible.y - origin.y) / scale),
+                (int) Math.ceil(visible.width / scale) + 1,
+                (int) Math.ceil(visible.height / scale) + 1);
+        int margin = TilePyramid.TILE << level;
+        source.grow(margin, margin);
+        Rectangle range = pyramid.tileRange(level, source);
+        pyramid.retain(level, range);
+        final List<Long> missing = pyramid.missing(level, range);
+        if (missing.isEmpty()) {
+            return;
+        }
+        final TilePyramid p = pyramid;
+        final int gen = ++generation;
+        if (tileTask != null) {
+            tileTask.cancel();
+        }
+        tileTask = ImageDecoder.RP.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Map<Long, BufferedImage> tiles = p.load(missing);
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (gen == generation) {
+                                p.add(tiles);
+                                repaint();
+                            }
+                        }
+                    });
+                } catch (InterruptedIOException ex) {
+                    // Superseded
+                } catch (IOException ex) {
+                    LOG.log(Level.INFO, "Could not read " + p.getFile(), ex);
+                } catch (OutOfMemoryError err) {
+                    LOG.log(Level.INFO, "Not enough memory to read tiles of {0}", p.getFile());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (pyramid == null) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            double scale = scale();
+            Rectangle clip = g.getClipBounds();
+            Point origin = origin(scale);
+            pyramid.paint(g2, clip == null ? new Rectangle(getSize()) : clip, origin, scale);
+            if (selection != null) {
+                int x = origin.x + (int) Math.round(selection.x * scale);
+                int y = origin.y + (int) Math.round(selection.y * scale);
+                int w = (int) Math.round(selection.width * scale);
+                int h = (int) Math.round(selection.height * scale);
+                g2.setColor(SELECTION_FILL);
+                g2.fillRect(x, y, w, h);
+                g2.setColor(Color.WHITE);
+                g2.drawRect(x, y, w - 1, h - 1);
+                g2.setColor(Color.BLACK);
+                g2.setStroke(DASHED);
+                g2.drawRect(x, y, w - 1, h - 1);
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (size == null || fit) {
+            return pyramid == null ? new Dimension(1, 1)
+                    : new Dimension(pyramid.getOverview().getWidth(), pyramid.getOverview().getHeight());
+        }
+        return new Dimension((int) Math.round(size.width * zoom), (int) Math.round(size.height * zoom));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 16;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return fit || getPreferredSize().width < getParent().getWidth();
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return fit || getPreferredSize().height < getParent().getHeight();
+    }
+}
@@ -24,102 +24,294 @@
 package org.netbeans.modules.povray.file;
 
 import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
-import javax.swing.ImageIcon;
+import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import org.netbeans.core.spi.multiview.MultiViewElementCallback;
-import org.openide.filesystems.FileAttributeEvent;
-import org.openide.filesystems.FileChangeListener;
-import org.openide.filesystems.FileEvent;
-import org.openide.filesystems.FileRenameEvent;
-import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
 
 /**
+ * Shows the rendered image of a scene, reloading it when it changes.
+ * Renderers write images progressively, so bursts of change events are
+ * coalesced and the image is only decoded once it is complete - a PNG
+ * when it ends with its IEND chunk, other formats when their size and
+ * timestamp have settled - showing "Rendering..." until then.  The image
+ * is decoded in the background, subsampled to the size of the view.
  *
  * @author Tim Boudreau
  */
-class ImgPanel extends JPanel implements FileChangeListener {
+class ImgPanel extends JPanel implements RenderWatcher.Listener {
+
+    private static final Logger LOG = Logger.getLogger(ImgPanel.class.getName());
+    // How long after the last change event to look at the file
+    private static final int SETTLE_DELAY = 250;
+    // How often to look at a file still being written, in case change
+    // events are late or missing
+    private static final int POLL_DELAY = 1000;
+    // How long an incomplete file may stay unchanged before the renderer
+    // is assumed to have died and whatever can be read is shown
+    private static final long ABANDONED = 10000;
     private final JScrollPane pane = new JScrollPane();
     private final JLabel imgLabel = new JLabel("[no image]");
+    private final JLabel status = new JLabel();
+    private final ImageView view = new ImageView();
+    private final RequestProcessor.Task loadTask = ImageDecoder.RP.create(new Runnable() {
+        @Override
+        public void run() {
+            load();
+        }
+    });
+    // The size of the viewport, or of the screen until it is shown
+    private volatile Dimension area = screenSize();
+    private volatile boolean rendering;
+    // Only touched by load(), which does not run concurrently
+    private long length = -1;
+    private long modified = -1;
+    private long lastChange;
+    private long shownLength = -1;
+    private long shownModified = -1;
+    // Cleared by showing() so the next load() shows the image even if it
+    // has not changed
+    private volatile File shownFile;
+    // Only touched on the event thread
+    private List<File> watched;
 
     ImgPanel(PovrayDataObject dob) {
         this.dob = dob;
         setLayout(new BorderLayout());
         add(pane, BorderLayout.CENTER);
+        status.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+        status.setVisible(false);
+        add(status, BorderLayout.SOUTH);
         pane.setViewportView(imgLabel);
-        File f = dob.getImageFile();
-        FileUtil.addFileChangeListener(this, f);
-        change(f);
+        pane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                Dimension d = e.getComponent().getSize();
+                if (d.width > 0 && d.height > 0) {
+                    area = d;
+                }
+            }
+        });
+        open();
     }
     private final PovrayDataObject dob;
 
-    private void change() {
-        File f = dob.getImageFile();
-        change(f);
+    private static Dimension screenSize() {
+        return GraphicsEnvironment.isHeadless() ? new Dimension(1920, 1200)
+                : Toolkit.getDefaultToolkit().getScreenSize();
     }
 
-    private boolean init;
-    private void change(File file) {
-        if (file == null) {
-            imgLabel.setIcon(null);
-            imgLabel.setText("[no image]");
+    /**
+     * Start watching the image, and load it.
+     */
+    void open() {
+        if (watched != null) {
             return;
         }
-        if (file != null && !init) {
-            init = true;
-            if (callback != null) {
-                callback.requestVisible();
+        // Watch every format, since the next render may use another one
+        watched = dob.getImageFiles();
+        try {
+            for (File file : watched) {
+                RenderWatcher.getDefault().watch(file, this);
             }
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Cannot watch " + watched, ex);
+        }
+        loadTask.schedule(0);
+    }
+
+    void close() {
+        if (watched == null) {
+            return;
         }
         try {
-            BufferedImage img = ImageIO.read(file);
-            imgLabel.setIcon(new ImageIcon(img));
-            imgLabel.setText("");
-        } catch (OutOfMemoryError err) {
-            imgLabel.setIcon(null);
-            imgLabel.setText("[insufficient memory]");
+            for (File file : watched) {
+                RenderWatcher.getDefault().unwatch(file, this);
+            }
         } catch (IOException ex) {
-            Logger.getLogger(ImgPanel.class.getName()).log(Level.INFO, null, ex);
+            LOG.log(Level.FINE, null, ex);
         }
+        watched = null;
+        loadTask.cancel();
     }
 
-    @Override
-    public void fileFolderCreated(FileEvent fe) {
-        //do nothing
+    /**
+     * Show the image again after hidden(), from the cache if it is still
+     * there.
+     */
+    void showing() {
+        if (watched != null) {
+            shownFile = null;
+            loadTask.schedule(0);
+        }
     }
 
-    @Override
-    public void fileDataCreated(FileEvent fe) {
-        change();
+    /**
+     * Let go of the image while the panel is not visible, leaving it to
+     * the shared cache.
+     */
+    void hidden() {
+        loadTask.cancel();
+        view.clear();
     }
 
-    @Override
-    public void fileChanged(FileEvent fe) {
-        change();
+    /**
+     * Get the image shown, or null.
+     */
+    File getShownImage() {
+        return view.getFile();
     }
 
-    @Override
-    public void fileDeleted(FileEvent fe) {
-        //            change();
+    /**
+     * Get the part of the image selected by dragging, or null.
+     */
+    Rectangle getSelection() {
+        return view.getSelection();
     }
 
-    @Override
-    public void fileRenamed(FileRenameEvent fre) {
-        //do nothing
+    void addSelectionListener(PropertyChangeListener listener) {
+        view.addPropertyChangeListener("selection", listener);
     }
 
     @Override
-    public void fileAttributeChanged(FileAttributeEvent fae) {
-        //do nothing
+    public void changed(File file) {
+        if (!rendering) {
+            setRendering(true);
+        }
+        // Interrupts a decode in progress, which would show a stale image,
+        // and postpones looking at the file until the changes pause
+        loadTask.cancel();
+        loadTask.schedule(SETTLE_DELAY);
+    }
+
+    private void load() {
+        File file = dob.getImageFile();
+        if (file == null || !file.isFile()) {
+            shownLength = shownModified = -1;
+            show(null, "[no image]");
+            return;
+        }
+        if (!ImageDecoder.canRead(file)) {
+            shownLength = shownModified = -1;
+            show(null, "[cannot show ." + RasterDecoder.extension(file) + " images]");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!file.equals(shownFile)) {
+            shownLength = shownModified = -1;
+        }
+        if (file.length() != length || file.lastModified() != modified) {
+            length = file.length();
+            modified = file.lastModified();
+            lastChange = now;
+        }
+        if (length == shownLength && modified == shownModified) {
+            setRendering(false);
+            return;
+        }
+        try {
+            // A version seen before needs neither checking nor decoding
+            ImageCache cache = ImageCache.getDefault();
+            Dimension fill = area;
+            Dimension size = cache.getSize(file);
+            // The overview is one level of the pyramid, so its
+            // subsampling is a power of two
+            int level = size == null ? 0
+                    : TilePyramid.levelToFill(size.width, size.height, fill.width, fill.height);
+            BufferedImage img = size == null ? null : cache.get(file, null, 1 << level);
+            if (img == null) {
+                switch (ImageDecoder.completeness(file)) {
+                    case INCOMPLETE:
+                        if (now - lastChange < ABANDONED) {
+                            setRendering(true);
+                            loadTask.schedule(POLL_DELAY);
+                            return;
+                        }
+                        break;
+                    case UNKNOWN:
+                        if (now - lastChange < SETTLE_DELAY) {
+                            setRendering(true);
+                            loadTask.schedule(SETTLE_DELAY);
+                            return;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                size = cache.size(file);
+                level = TilePyramid.levelToFill(size.width, size.height, fill.width, fill.height);
+                img = cache.read(file, null, 1 << level);
+            }
+            shownFile = file;
+            shownLength = length;
+            shownModified = modified;
+            show(new TilePyramid(file, size, img, level), null);
+        } catch (InterruptedIOException ex) {
+            // A newer change is pending
+        } catch (OutOfMemoryError err) {
+            show(null, "[insufficient memory]");
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, null, ex);
+            setRendering(false);
+        }
+    }
+
+    private void setRendering(final boolean rendering) {
+        this.rendering = rendering;
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                status.setText(rendering ? "Rendering..." : "");
+                status.setVisible(rendering);
+            }
+        });
     }
 
+    private void show(final TilePyramid pyramid, final String message) {
+        rendering = false;
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                status.setVisible(false);
+                if (pyramid == null) {
+                    view.clear();
+                    imgLabel.setText(message);
+                    pane.setViewportView(imgLabel);
+                    return;
+                }
+                if (!init) {
+                    init = true;
+                    if (callback != null) {
+                        callback.requestVisible();
+                    }
+                }
+                view.setImage(pyramid);
+                if (pane.getViewport().getView() != view) {
+                    pane.setViewportView(view);
+                }
+            }
+        });
+    }
+
+    private boolean init;
+
     void setCallback(MultiViewElementCallback callback) {
         this.callback = callback;
     }
@@ -0,0 +1,305 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageTypeSpecifier;
+
+/**
+ * Decodes a PNG image a row at a time, in one pass over the file, so that
+ * an image too big to decode at once can be read a band of rows at a time
+ * - ImageIO's reader inflates the file from the start again for every
+ * region read.  Only images as POV-Ray writes them are decoded:  gray or
+ * RGB, with or without alpha, 8 or 16 bits per sample, not interlaced;
+ * open() returns null for others.
+ *
+ * @author Tim Boudreau
+ */
+final class PngRows implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    final int width;
+    final int height;
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater();
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private final int depth;
+    private final int channels;
+    private final int bytesPerPixel;
+    private final ImageTypeSpecifier type;
+    // The unfiltered previous row and the one being read, each after a
+    // filter type byte
+    private byte[] prev;
+    private byte[] cur;
+    // Left of the IDAT chunk being read, or -1 after the last
+    private int chunkLeft;
+    private int row;
+
+    private PngRows(DataInputStream in, int chunkLength, int width, int height, int depth, int colorType) {
+        this.in = in;
+        this.chunkLeft = chunkLength;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        boolean gray = (colorType & 2) == 0;
+        boolean alpha = (colorType & 4) != 0;
+        channels = (gray ? 1 : 3) + (alpha ? 1 : 0);
+        bytesPerPixel = channels * depth / 8;
+        int dataType = depth == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+        if (gray) {
+            type = alpha ? ImageTypeSpecifier.createGrayscale(depth, dataType, false, false)
+                    : ImageTypeSpecifier.createGrayscale(depth, dataType, false);
+        } else {
+            type = ImageTypeSpecifier.createInterleaved(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                    alpha ? new int[]{0, 1, 2, 3} : new int[]{0, 1, 2}, dataType, alpha, false);
+        }
+        prev = new byte[width * bytesPerPixel + 1];
+        cur = new byte[prev.length];
+    }
+
+    /**
+     * Read the header of a PNG file, up to its image data.
+     *
+     * @return null if the file is not a PNG image decoded here
+     */
+    static PngRows open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        boolean opened = false;
+        try {
+            byte[] signature = new byte[SIGNATURE.length];
+            in.readFully(signature);
+            if (!Arrays.equals(signature, SIGNATURE) || in.readInt() != 13 || in.readInt() != IHDR) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int depth = in.readUnsignedByte();
+            int colorType = in.readUnsignedByte();
+            int compression = in.readUnsignedByte();
+            int filter = in.readUnsignedByte();
+            int interlace = in.readUnsignedByte();
+            // CRC
+            in.readInt();
+            if (width <= 0 || height <= 0 || (depth != 8 && depth != 16) || (colorType & 1) != 0
+                    || colorType > 6 || compression != 0 || filter != 0 || interlace != 0) {
+                return null;
+            }
+            int length = in.readInt();
+            int chunk = in.readInt();
+            while (chunk != IDAT) {
+                // A palette or a transparent color changes the pixels
+                if (chunk == PLTE || chunk == TRNS) {
+                    return null;
+                }
+                skip(in, length + 4L);
+                length = in.readInt();
+                chunk = in.readInt();
+            }
+            PngRows result = new PngRows(in, length, width, height, depth, colorType);
+            opened = true;
+            return result;
+        } finally {
+            if (!opened) {
+                in.close();
+            }
+        }
+    }
+
+    private static void skip(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated PNG image");
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Get the index of the next row read() decodes.
+     */
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Create an image to decode rows into.
+     */
+    BufferedImage createBand(int rows) {
+        return type.createBufferedImage(width, rows);
+    }
+
+    /**
+     * Decode and drop rows.
+     */
+    void skipRows(int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            next();
+        }
+    }
+
+    /**
+     * Decode the next rows into the top of an image made by createBand().
+     */
+    void read(BufferedImage band, int rows) throws IOException {
+        DataBuffer buffer = band.getRaster().getDataBuffer();
+        int samples = width * channels;
+        for (int y = 0; y < rows; y++) {
+            next();
+            int offset = y * samples;
+            if (depth == 8) {
+                System.arraycopy(prev, 1, ((DataBufferByte) buffer).getData(), offset, samples);
+            } else {
+                short[] data = ((DataBufferUShort) buffer).getData();
+                for (int i = 0; i < samples; i++) {
+                    data[offset + i] = (short) ((prev[2 * i + 1] & 0xFF) << 8 | (prev[2 * i + 2] & 0xFF));
+                }
+            }
+        }
+    }
+
+    /**
+     * Inflate and unfilter the next row, which is then in prev.
+     */
+    private void next() throws IOException {
+        if (row >= height) {
+            throw new EOFException("No more rows");
+        }
+        inflate(cur);
+        int n = cur.length;
+        int bpp = bytesPerPixel;
+        switch (cur[0]) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1 + bpp; i < n; i++) {
+                    cur[i] += cur[i - bpp];
+                }
+                break;
+            case 2:
+                for (int i = 1; i < n; i++) {
+                    cur[i] += prev[i];
+                }
+                break;
+            case 3:
+                for (int i = 1; i < n; i++) {
+                    int left = i > bpp ? cur[i - bpp] & 0xFF : 0;
+                    cur[i] += (left + (prev[i] & 0xFF)) >>> 1;
+                }
+                break;
+            case 4:
+                for (int i = 1; i < n; i++) {
+                    cur[i] += paeth(i > bpp ? cur[i - bpp] & 0xFF : 0, prev[i] & 0xFF,
+                            i > bpp ? prev[i - bpp] & 0xFF : 0);
+                }
+                break;
+            default:
+                throw new IOException("Bad PNG filter " + cur[0] + " in row " + row);
+        }
+        byte[] swap = prev;
+        prev = cur;
+        cur = swap;
+        row++;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    /**
+     * Fill a buffer from the image data, feeding the inflater from the
+     * IDAT chunks in turn.
+     */
+    private void inflate(byte[] into) throws IOException {
+        int done = 0;
+        try {
+            while (done < into.length) {
+                int count = inflater.inflate(into, done, into.length - done);
+                done += count;
+                if (count == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        throw new EOFException("Truncated PNG image");
+                    }
+                    if (inflater.needsInput()) {
+                        feed();
+                    }
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt PNG image data", ex);
+        }
+    }
+
+    private void feed() throws IOException {
+        while (chunkLeft == 0) {
+            // CRC, then the next chunk
+            in.readInt();
+            int length = in.readInt();
+            if (in.readInt() != IDAT) {
+                chunkLeft = -1;
+            } else {
+                chunkLeft = length;
+            }
+        }
+        if (chunkLeft < 0) {
+            throw new EOFException("Truncated PNG image");
+        }
+        int count = in.read(input, 0, Math.min(input.length, chunkLeft));
+        if (count < 0) {
+            throw new EOFException("Truncated PNG image");
+        }
+        chunkLeft -= count;
+        inflater.setInput(input, 0, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
@@ -26,12 +26,15 @@ package org.netbeans.modules.povray.file;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.JEditorPane;
 import javax.swing.KeyStroke;
 import org.netbeans.api.templates.TemplateRegistration;
 import org.netbeans.core.spi.multiview.MultiViewElement;
 import org.netbeans.core.spi.multiview.text.MultiViewEditorElement;
 import org.netbeans.modules.povray.file.parsing.CommentOutAction;
+import org.netbeans.modules.povray.file.parsing.SymbolIndex;
 import org.openide.WizardDescriptor;
 import org.openide.awt.ActionID;
 import org.openide.awt.ActionReference;
@@ -102,9 +105,16 @@ position = 300)
 })
 public class PovrayDataObject extends MultiDataObject {
 
+    // The output formats POV-Ray writes, by extension;  the first is the
+    // default when a scene has not been rendered
+    private static final String[] IMAGE_EXTENSIONS = {"png", "tga", "ppm", "bmp", "hdr", "exr"};
+    private Renderer renderer;
+
     public PovrayDataObject(FileObject pf, MultiFileLoader loader) throws DataObjectExistsException, IOException {
         super(pf, loader);
         registerEditor("text/x-povray", true);
+        SymbolIndex.getDefault().watch(pf);
+        SymbolIndex.getDefault().setLibraryPath(RenderSettings.getLibraryPath());
     }
 
     @Override
@@ -138,9 +148,44 @@ public class PovrayDataObject extends MultiDataObject {
         return null;
     }
 
+    /**
+     * Get the scene as a file on disk, or null if it is not on disk.
+     */
+    File getSceneFile() {
+        return FileUtil.toFile(getPrimaryFile());
+    }
+
+    synchronized Renderer getRenderer() {
+        if (renderer == null) {
+            renderer = new Renderer(this);
+        }
+        return renderer;
+    }
+
+    /**
+     * Get the image the scene was last rendered to - the newest of the
+     * files it could have been rendered to, or the PNG if there are none.
+     */
     protected File getImageFile() {
+        File result = null;
+        for (File file : getImageFiles()) {
+            if (file.isFile() && (result == null || file.lastModified() > result.lastModified())) {
+                result = file;
+            }
+        }
+        return result == null ? getImageFiles().get(0) : result;
+    }
+
+    /**
+     * Get the files the scene may be rendered to, in each output format
+     * POV-Ray supports, whether or not they exist.
+     */
+    List<File> getImageFiles() {
         File dir = FileUtil.toFile(getPrimaryFile().getParent());
-        String name = getPrimaryFile().getName() + ".png"; //XXX check all types
-        return new File(dir, name);
+        List<File> result = new ArrayList<File>(IMAGE_EXTENSIONS.length);
+        for (String ext : IMAGE_EXTENSIONS) {
+            result.add(new File(dir, getPrimaryFile().getName() + '.' + ext));
+        }
+        return result;
     }
 }
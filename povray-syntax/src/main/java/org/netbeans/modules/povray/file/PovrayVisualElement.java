@@ -24,10 +24,20 @@
 package org.netbeans.modules.povray.file;
 
 import java.awt.BorderLayout;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import org.netbeans.core.spi.multiview.CloseOperationState;
 import org.netbeans.core.spi.multiview.MultiViewElement;
 import org.netbeans.core.spi.multiview.MultiViewElementCallback;
@@ -49,12 +59,96 @@ public final class PovrayVisualElement extends JPanel implements MultiViewElemen
     private JToolBar toolbar = new JToolBar();
     private transient MultiViewElementCallback callback;
     private final ImgPanel pnl;
+    private final Action render = new AbstractAction("Render") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            obj.getRenderer().render();
+        }
+    };
+    private final Action renderSelection = new AbstractAction("Render Selection") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            File image = pnl.getShownImage();
+            Rectangle selection = pnl.getSelection();
+            if (image != null && selection != null) {
+                obj.getRenderer().renderRegion(image, selection);
+            }
+        }
+    };
+    private final Action cancel = new AbstractAction("Cancel") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            obj.getRenderer().cancel();
+        }
+    };
+    private final Action settings = new AbstractAction("Render Settings...") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            RenderSettingsPanel.showDialog();
+        }
+    };
+    private final Action queue = new AbstractAction("Queue") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            RenderQueueTopComponent.showQueue();
+        }
+    };
+    private final JToggleButton renderOnSave = new JToggleButton(new AbstractAction("Render on Save") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            RenderSettings.setRenderOnSave(renderOnSave.isSelected());
+        }
+    });
+    private final JProgressBar progress = new JProgressBar(0, 100);
+    private final ChangeListener renderListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            updateToolbar();
+        }
+    };
 
     public PovrayVisualElement(Lookup lkp) {
         obj = lkp.lookup(PovrayDataObject.class);
         assert obj != null;
         initComponents();
         add (pnl = new ImgPanel(obj), BorderLayout.CENTER);
+        render.putValue(Action.SHORT_DESCRIPTION, "Render the saved scene");
+        renderSelection.putValue(Action.SHORT_DESCRIPTION,
+                "Render the part of the image selected by dragging again, and paint it into the image");
+        cancel.putValue(Action.SHORT_DESCRIPTION, "Stop rendering");
+        queue.putValue(Action.SHORT_DESCRIPTION, "Show the renders of all scenes, running and waiting for a core");
+        pnl.addSelectionListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                renderSelection.setEnabled(evt.getNewValue() != null);
+            }
+        });
+        renderSelection.setEnabled(false);
+        toolbar.setFloatable(false);
+        toolbar.add(render);
+        toolbar.add(renderSelection);
+        toolbar.add(cancel);
+        renderOnSave.setToolTipText("Render a quick preview, then the full image, when the scene is saved");
+        toolbar.add(renderOnSave);
+        toolbar.addSeparator();
+        progress.setStringPainted(true);
+        toolbar.add(progress);
+        toolbar.addSeparator();
+        toolbar.add(queue);
+        toolbar.add(settings);
+        updateToolbar();
+    }
+
+    private void updateToolbar() {
+        Renderer renderer = obj.getRenderer();
+        boolean rendering = renderer.isRendering();
+        cancel.setEnabled(rendering);
+        // Shared by all scenes, so may have changed in another's toolbar
+        renderOnSave.setSelected(RenderSettings.isRenderOnSave());
+        int percent = renderer.getPercent();
+        progress.setIndeterminate(rendering && percent < 0);
+        progress.setValue(Math.max(0, percent));
+        progress.setString(percent >= 0 ? renderer.getStatus() + " " + percent + "%" : renderer.getStatus());
     }
 
     @Override
@@ -87,7 +181,7 @@ public final class PovrayVisualElement extends JPanel implements MultiViewElemen
 
     @Override
     public Action[] getActions() {
-        return new Action[0];
+        return new Action[]{render, renderSelection, cancel, queue, settings};
     }
 
     @Override
@@ -97,18 +191,26 @@ public final class PovrayVisualElement extends JPanel implements MultiViewElemen
 
     @Override
     public void componentOpened() {
+        pnl.open();
+        obj.getRenderer().addChangeListener(renderListener);
+        updateToolbar();
     }
 
     @Override
     public void componentClosed() {
+        pnl.close();
+        obj.getRenderer().removeChangeListener(renderListener);
     }
 
     @Override
     public void componentShowing() {
+        pnl.showing();
+        updateToolbar();
     }
 
     @Override
     public void componentHidden() {
+        pnl.hidden();
     }
 
     @Override
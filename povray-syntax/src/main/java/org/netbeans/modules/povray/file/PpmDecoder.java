@@ -0,0 +1,127 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decodes binary PPM (P6) and PGM (P5) images, 8 or 16 bits per sample.
+ *
+ * @author Tim Boudreau
+ */
+final class PpmDecoder extends RasterDecoder {
+
+    private final boolean gray;
+    private final boolean wide;
+    private final int maxval;
+
+    private PpmDecoder(int width, int height, long dataOffset, boolean gray, int maxval) {
+        super(width, height, dataOffset, (gray ? 1 : 3) * (maxval > 255 ? 2 : 1), true);
+        this.gray = gray;
+        this.wide = maxval > 255;
+        this.maxval = maxval;
+    }
+
+    static PpmDecoder open(FileChannel ch) throws IOException {
+        Input in = new Input(ch, 0);
+        int p = in.readByte();
+        int kind = in.readByte();
+        if (p != 'P' || (kind != '5' && kind != '6')) {
+            throw new IOException("Not a binary PPM or PGM image");
+        }
+        int width = number(in);
+        int height = number(in);
+        int maxval = number(in);
+        if (width <= 0 || height <= 0 || maxval <= 0 || maxval > 65535) {
+            throw new IOException("Bad PPM header " + width + "x" + height + " maxval " + maxval);
+        }
+        return new PpmDecoder(width, height, in.offset(), kind == '5', maxval);
+    }
+
+    /**
+     * Read a number, skipping whitespace and comments before it, and the
+     * single whitespace character after it.
+     */
+    private static int number(Input in) throws IOException {
+        int c = in.readByte();
+        while (Character.isWhitespace(c) || c == '#') {
+            if (c == '#') {
+                while (c != '\n' && c != '\r') {
+                    c = in.readByte();
+                }
+            }
+            c = in.readByte();
+        }
+        int result = 0;
+        while (c >= '0' && c <= '9') {
+            result = result * 10 + (c - '0');
+            if (result > 1 << 24) {
+                throw new IOException("Number too large in PPM header");
+            }
+            c = in.readByte();
+        }
+        if (!Character.isWhitespace(c)) {
+            throw new IOException("Bad character in PPM header: " + (char) c);
+        }
+        return result;
+    }
+
+    @Override
+    void decode(ByteBuffer src, int[] dst, int dstOffset, int count, int step) {
+        int base = src.position();
+        int stride = step * bytesPerPixel;
+        if (!wide && maxval == 255) {
+            if (gray) {
+                for (int i = 0; i < count; i++) {
+                    dst[dstOffset + i] = (src.get(base + i * stride) & 0xFF) * 0x010101;
+                }
+            } else {
+                for (int i = 0, p = base; i < count; i++, p += stride) {
+                    dst[dstOffset + i] = (src.get(p) & 0xFF) << 16
+                            | (src.get(p + 1) & 0xFF) << 8 | (src.get(p + 2) & 0xFF);
+                }
+            }
+            return;
+        }
+        int sampleBytes = wide ? 2 : 1;
+        for (int i = 0, p = base; i < count; i++, p += stride) {
+            if (gray) {
+                dst[dstOffset + i] = sample(src, p) * 0x010101;
+            } else {
+                dst[dstOffset + i] = sample(src, p) << 16 | sample(src, p + sampleBytes) << 8
+                        | sample(src, p + 2 * sampleBytes);
+            }
+        }
+    }
+
+    /**
+     * Get a sample scaled to 0-255.
+     */
+    private int sample(ByteBuffer src, int at) {
+        int value = wide ? (src.getShort(at) & 0xFFFF) : (src.get(at) & 0xFF);
+        return (value * 255 + maxval / 2) / maxval;
+    }
+}
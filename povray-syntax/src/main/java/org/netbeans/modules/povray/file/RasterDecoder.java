@@ -0,0 +1,183 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Decodes the formats renderers write for speed, PPM and TGA - which
+ * ImageIO cannot read at all - from a FileChannel straight into the int[]
+ * pixels of a BufferedImage.  Rows of uncompressed images which a
+ * subsampled or partial read does not need are never read.
+ *
+ * @author Tim Boudreau
+ */
+abstract class RasterDecoder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    final int width;
+    final int height;
+    // Where the pixels start
+    final long dataOffset;
+    final int bytesPerPixel;
+    // Whether the first row in the file is the top of the image
+    final boolean topDown;
+
+    RasterDecoder(int width, int height, long dataOffset, int bytesPerPixel, boolean topDown) {
+        this.width = width;
+        this.height = height;
+        this.dataOffset = dataOffset;
+        this.bytesPerPixel = bytesPerPixel;
+        this.topDown = topDown;
+    }
+
+    /**
+     * Whether a file is in a format decoded here, by its extension.
+     */
+    static boolean handles(File file) {
+        String ext = extension(file);
+        return "tga".equals(ext) || "ppm".equals(ext) || "pgm".equals(ext) || "pnm".equals(ext);
+    }
+
+    static String extension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.US);
+    }
+
+    /**
+     * Read the header of a file.
+     *
+     * @throws EOFException if the file ends within the header
+     */
+    static RasterDecoder open(File file, FileChannel ch) throws IOException {
+        return "tga".equals(extension(file)) ? TgaDecoder.open(ch) : PpmDecoder.open(ch);
+    }
+
+    /**
+     * Find out whether the whole image has been written, from the length
+     * of the file.
+     */
+    ImageDecoder.Completeness completeness(FileChannel ch) throws IOException {
+        return ch.size() >= dataOffset + (long) width * height * bytesPerPixel
+                ? ImageDecoder.Completeness.COMPLETE : ImageDecoder.Completeness.INCOMPLETE;
+    }
+
+    boolean hasAlpha() {
+        return false;
+    }
+
+    /**
+     * Decode pixels from src, starting at its position and step pixels
+     * apart, into dst.
+     */
+    abstract void decode(ByteBuffer src, int[] dst, int dstOffset, int count, int step);
+
+    /**
+     * Read a region of the image, keeping every subsampling'th pixel of
+     * every subsampling'th row.
+     */
+    BufferedImage read(FileChannel ch, Rectangle region, int subsampling) throws IOException {
+        int outWidth = (region.width + subsampling - 1) / subsampling;
+        int outHeight = (region.height + subsampling - 1) / subsampling;
+        BufferedImage result = new BufferedImage(outWidth, outHeight,
+                hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int rowBytes = ((outWidth - 1) * subsampling + 1) * bytesPerPixel;
+        ByteBuffer row = ByteBuffer.allocateDirect(rowBytes);
+        for (int y = 0; y < outHeight; y++) {
+            int sourceRow = region.y + y * subsampling;
+            int fileRow = topDown ? sourceRow : height - 1 - sourceRow;
+            long position = dataOffset + ((long) fileRow * width + region.x) * bytesPerPixel;
+            row.clear().limit(rowBytes);
+            readFully(ch, row, position);
+            row.flip();
+            decode(row, pixels, y * outWidth, outWidth, subsampling);
+        }
+        return result;
+    }
+
+    static void readFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = ch.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Truncated image");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads a channel sequentially through a buffer.
+     */
+    static final class Input {
+
+        private final FileChannel ch;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long position;
+
+        Input(FileChannel ch, long position) {
+            this.ch = ch;
+            this.position = position;
+            buffer.flip();
+        }
+
+        /**
+         * Get a buffer with at least count bytes remaining.
+         */
+        ByteBuffer require(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                buffer.compact();
+                while (buffer.position() < count) {
+                    int read = ch.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("Truncated image");
+                    }
+                    position += read;
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+
+        int readByte() throws IOException {
+            return require(1).get() & 0xFF;
+        }
+
+        /**
+         * Get the offset in the file of the next byte.
+         */
+        long offset() {
+            return position - buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+
+/**
+ * A render running in the background, of one or more renderer processes,
+ * writing an image.
+ *
+ * @author Tim Boudreau
+ */
+interface RenderJob {
+
+    void start();
+
+    /**
+     * Stop the render, or keep it from starting.
+     */
+    void cancel();
+
+    File getOutput();
+
+    interface Listener {
+
+        /**
+         * Called on a render thread when the renderer reports progress.
+         *
+         * @param percent The percentage of pixels rendered, or -1 while
+         * parsing or in other phases before rendering
+         */
+        void progress(RenderJob render, String status, int percent);
+
+        /**
+         * Called on a render thread when the render ends, could not be
+         * started, or was cancelled.
+         *
+         * @param message Why the render failed, or null
+         */
+        void finished(RenderJob render, boolean success, String message);
+    }
+}
@@ -0,0 +1,329 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openide.util.RequestProcessor;
+
+/**
+ * One run of the renderer as an external process, read on a background
+ * thread once the RenderQueue has a core for it, with POV-Ray's +WT
+ * option for the threads the queue gives it:  the progress it writes
+ * is parsed and passed to a listener, and it can be cancelled at any time
+ * by killing the process or taking it out of the queue.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderProcess implements RenderJob {
+
+    private static final Logger LOG = Logger.getLogger(RenderProcess.class.getName());
+    // The queue limits how many run
+    static final RequestProcessor RP = new RequestProcessor("POV-Ray renders",
+            RenderSettings.MAX_CORES, true);
+    // POV-Ray 3.7 and 3.6 progress lines
+    private static final Pattern PIXELS = Pattern.compile("Rendered (\\d+) of (\\d+) pixels");
+    private static final Pattern LINES = Pattern.compile("[Ll]ine (\\d+) of (\\d+)");
+    private static final Pattern PHASE = Pattern.compile("^==== \\[(.*)\\] =+$");
+    // Lines kept to explain a failure
+    private static final int TAIL = 20;
+    private final List<String> command;
+    private final File scene;
+    private final String description;
+    private final File dir;
+    private final File output;
+    private final RenderJob.Listener listener;
+    private final Deque<String> tail = new ArrayDeque<String>(TAIL);
+    private volatile Process process;
+    private volatile boolean cancelled;
+    private volatile long started;
+    private volatile long ended;
+    private volatile int percent = -1;
+    // 0 for as many as are free
+    private volatile int requestedThreads;
+    // Guarded by this
+    private boolean queued;
+    private RequestProcessor.Task task;
+
+    RenderProcess(String executable, List<String> options, File scene, File output, RenderJob.Listener listener) {
+        this(executable, options, scene, output, "Render", listener);
+    }
+
+    /**
+     * Create a render of a scene;  the options for the scene and output
+     * are added to the executable and options passed.
+     *
+     * @param description What is rendered, for the queue
+     */
+    RenderProcess(String executable, List<String> options, File scene, File output, String description,
+            RenderJob.Listener listener) {
+        command = new ArrayList<String>(options.size() + 5);
+        command.add(executable);
+        command.addAll(options);
+        command.add("+I" + scene.getName());
+        command.add("+O" + output.getAbsolutePath());
+        command.add("+FN");
+        // No preview window
+        command.add("-D");
+        this.scene = scene;
+        this.description = description;
+        this.dir = scene.getParentFile();
+        this.output = output;
+        this.listener = listener;
+        requestedThreads = RenderSettings.threads(options);
+    }
+
+    @Override
+    public File getOutput() {
+        return output;
+    }
+
+    List<String> getCommand() {
+        return command;
+    }
+
+    File getScene() {
+        return scene;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * Ask the queue for no more than a number of renderer threads.
+     */
+    void limitThreads(int max) {
+        int requested = requestedThreads;
+        requestedThreads = requested == 0 ? max : Math.min(requested, max);
+    }
+
+    /**
+     * Get the number of renderer threads to ask the queue for:  by
+     * default, as many as a +WT option in the options asks for, or 0 for as
+     * many as are free.
+     */
+    int getRequestedThreads() {
+        return requestedThreads;
+    }
+
+    /**
+     * Get the percentage of pixels rendered, or -1 before rendering.
+     */
+    int getPercent() {
+        return percent;
+    }
+
+    /**
+     * Queue the render, to run when a core is free.
+     */
+    @Override
+    public void start() {
+        synchronized (this) {
+            if (queued) {
+                return;
+            }
+            queued = true;
+        }
+        RenderQueue.getDefault().add(this);
+    }
+
+    /**
+     * Called by the queue when the render has to wait for a core.
+     */
+    void queued() {
+        listener.progress(this, "Waiting for a free core", -1);
+    }
+
+    /**
+     * Called by the queue to run the render with a number of threads.
+     */
+    synchronized void execute(int threads) {
+        // After the options, so it overrides any +WT there
+        command.add("+WT" + threads);
+        task = RP.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RenderProcess.this.run();
+                } finally {
+                    RenderQueue.getDefault().finished(RenderProcess.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Kill the renderer, or keep it from starting.
+     */
+    @Override
+    public void cancel() {
+        cancelled = true;
+        Process p = process;
+        if (p != null) {
+            p.destroy();
+        }
+        if (RenderQueue.getDefault().remove(this)) {
+            finish(false, null);
+            return;
+        }
+        RequestProcessor.Task t;
+        synchronized (this) {
+            t = task;
+        }
+        if (t != null && t.cancel()) {
+            // Never started
+            finish(false, null);
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get how long the renderer ran, or has been running, in milliseconds,
+     * or 0 if it has not started.
+     */
+    long getMillis() {
+        long start = started;
+        long end = ended;
+        return start == 0 ? 0 : (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    private void run() {
+        if (cancelled) {
+            finish(false, null);
+            return;
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Running {0} in {1}", new Object[]{command, dir});
+        }
+        ProcessBuilder pb = new ProcessBuilder(command).directory(dir).redirectErrorStream(true);
+        int exit;
+        started = System.currentTimeMillis();
+        try {
+            process = pb.start();
+            if (cancelled) {
+                process.destroy();
+            }
+            read(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()));
+            exit = process.waitFor();
+        } catch (IOException ex) {
+            ended = System.currentTimeMillis();
+            LOG.log(Level.FINE, null, ex);
+            finish(false, cancelled ? null : "Could not run " + command.get(0)
+                    + ": " + ex.getMessage());
+            return;
+        } catch (InterruptedException ex) {
+            ended = System.currentTimeMillis();
+            process.destroy();
+            finish(false, null);
+            return;
+        }
+        ended = System.currentTimeMillis();
+        finish(exit == 0 && !cancelled, cancelled ? null
+                : exit == 0 ? null : failure(exit));
+    }
+
+    /**
+     * Free the process's core before the listener starts another.
+     */
+    private void finish(boolean success, String message) {
+        RenderQueue.getDefault().finished(this);
+        listener.finished(this, success, message);
+    }
+
+    /**
+     * Read the renderer's output, which overwrites progress lines with
+     * carriage returns.
+     */
+    private void read(Reader in) throws IOException {
+        StringBuilder line = new StringBuilder(120);
+        char[] buf = new char[4096];
+        for (int count; (count = in.read(buf)) > 0;) {
+            for (int i = 0; i < count; i++) {
+                if (buf[i] == '\r' || buf[i] == '\n') {
+                    if (line.length() > 0) {
+                        line(line.toString());
+                        line.setLength(0);
+                    }
+                } else {
+                    line.append(buf[i]);
+                }
+            }
+        }
+        if (line.length() > 0) {
+            line(line.toString());
+        }
+    }
+
+    private void line(String line) {
+        if (tail.size() == TAIL) {
+            tail.removeFirst();
+        }
+        tail.add(line);
+        Matcher m = PIXELS.matcher(line);
+        if (!m.find()) {
+            m = LINES.matcher(line);
+            if (!m.find()) {
+                m = null;
+            }
+        }
+        if (m != null) {
+            long done = Long.parseLong(m.group(1));
+            long of = Long.parseLong(m.group(2));
+            percent = of == 0 ? 0 : (int) Math.min(100, done * 100 / of);
+            listener.progress(this, "Rendering", percent);
+            return;
+        }
+        m = PHASE.matcher(line.trim());
+        if (m.find()) {
+            listener.progress(this, m.group(1).trim(), -1);
+        }
+    }
+
+    /**
+     * Describe why the renderer failed, from the last of its output.
+     */
+    private String failure(int exit) {
+        for (String line : tail) {
+            if (line.contains("Error")) {
+                return line.trim();
+            }
+        }
+        return tail.isEmpty() ? "Renderer exited with " + exit : tail.getLast().trim();
+    }
+}
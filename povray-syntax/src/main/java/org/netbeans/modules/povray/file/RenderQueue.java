@@ -0,0 +1,266 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.EventQueue;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.openide.windows.TopComponent;
+
+/**
+ * The one queue renderer processes for all open scenes wait in, so that
+ * their threads together use no more than the cores the settings allow.
+ * A process starts when a core is free, and is given POV-Ray's +WT option
+ * for the threads it asked for, or as many of them as are free.  Processes
+ * for the scene last activated in the editor go ahead of others';  the
+ * waiting processes can be reordered, and any can be cancelled.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderQueue {
+
+    private static RenderQueue instance;
+    // Guarded by this
+    private final List<RenderProcess> waiting = new ArrayList<RenderProcess>();
+    // The running processes and the threads each was started with
+    private final Map<RenderProcess, Integer> running = new LinkedHashMap<RenderProcess, Integer>();
+    private int threads;
+    private File focused;
+    private boolean trackingFocus;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    static synchronized RenderQueue getDefault() {
+        if (instance == null) {
+            instance = new RenderQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Give the scene of the window activated priority from now on.
+     */
+    synchronized void trackFocus() {
+        if (trackingFocus) {
+            return;
+        }
+        trackingFocus = true;
+        final TopComponent.Registry registry = TopComponent.getRegistry();
+        registry.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (TopComponent.Registry.PROP_ACTIVATED.equals(evt.getPropertyName())) {
+                    TopComponent tc = registry.getActivated();
+                    PovrayDataObject dob = tc == null ? null : tc.getLookup().lookup(PovrayDataObject.class);
+                    // Activating the queue or other windows keeps the
+                    // last scene first
+                    if (dob != null) {
+                        setFocused(dob.getSceneFile());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Put a process in the queue, after others of the focused scene if it
+     * is one of its, otherwise last, and start it if a core is free.
+     */
+    void add(RenderProcess render) {
+        boolean full;
+        synchronized (this) {
+            full = threads >= RenderSettings.getCores();
+        }
+        if (full) {
+            render.queued();
+        }
+        synchronized (this) {
+            int index = waiting.size();
+            if (render.getScene().equals(focused)) {
+                index = 0;
+                while (index < waiting.size() && focused.equals(waiting.get(index).getScene())) {
+                    index++;
+                }
+            }
+            waiting.add(index, render);
+        }
+        fire();
+        schedule();
+    }
+
+    /**
+     * Take a process which has not started out of the queue.
+     *
+     * @return Whether it was waiting
+     */
+    boolean remove(RenderProcess render) {
+        boolean result;
+        synchronized (this) {
+            result = waiting.remove(render);
+        }
+        if (result) {
+            fire();
+        }
+        return result;
+    }
+
+    /**
+     * Called when a process which was started ends, to start the next.
+     */
+    void finished(RenderProcess render) {
+        boolean result;
+        synchronized (this) {
+            Integer used = running.remove(render);
+            result = used != null;
+            if (result) {
+                threads -= used;
+            }
+        }
+        if (result) {
+            fire();
+            schedule();
+        }
+    }
+
+    /**
+     * Move a waiting process by a number of places, negative numbers
+     * towards the front.
+     *
+     * @return Whether it was waiting
+     */
+    boolean move(RenderProcess render, int by) {
+        synchronized (this) {
+            int index = waiting.indexOf(render);
+            if (index < 0) {
+                return false;
+            }
+            waiting.remove(index);
+            waiting.add(Math.max(0, Math.min(waiting.size(), index + by)), render);
+        }
+        fire();
+        return true;
+    }
+
+    /**
+     * Move the waiting processes for a scene ahead of others, and put
+     * ones added later ahead too.
+     */
+    void setFocused(File scene) {
+        synchronized (this) {
+            if (scene == null ? focused == null : scene.equals(focused)) {
+                return;
+            }
+            focused = scene;
+            List<RenderProcess> first = new ArrayList<RenderProcess>(waiting.size());
+            List<RenderProcess> others = new ArrayList<RenderProcess>(waiting.size());
+            for (RenderProcess r : waiting) {
+                (r.getScene().equals(scene) ? first : others).add(r);
+            }
+            waiting.clear();
+            waiting.addAll(first);
+            waiting.addAll(others);
+        }
+        fire();
+    }
+
+    synchronized File getFocused() {
+        return focused;
+    }
+
+    /**
+     * Start waiting processes while cores are free, as when more are
+     * allowed.
+     */
+    void schedule() {
+        List<RenderProcess> start = new ArrayList<RenderProcess>(2);
+        List<Integer> counts = new ArrayList<Integer>(2);
+        synchronized (this) {
+            int cores = RenderSettings.getCores();
+            while (threads < cores && !waiting.isEmpty()) {
+                RenderProcess r = waiting.remove(0);
+                int free = cores - threads;
+                int n = r.getRequestedThreads() == 0 ? free : Math.min(r.getRequestedThreads(), free);
+                threads += n;
+                running.put(r, n);
+                start.add(r);
+                counts.add(n);
+            }
+        }
+        for (int i = 0; i < start.size(); i++) {
+            start.get(i).execute(counts.get(i));
+        }
+        if (!start.isEmpty()) {
+            fire();
+        }
+    }
+
+    synchronized List<RenderProcess> getRunning() {
+        return new ArrayList<RenderProcess>(running.keySet());
+    }
+
+    /**
+     * Get the renderer threads the running processes were started with.
+     */
+    synchronized int getThreads() {
+        return threads;
+    }
+
+    synchronized List<RenderProcess> getWaiting() {
+        return new ArrayList<RenderProcess>(waiting);
+    }
+
+    /**
+     * Listen for processes being added, started, finishing or moved;
+     * listeners are called on the event thread.
+     */
+    void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fire() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                ChangeEvent e = new ChangeEvent(RenderQueue.this);
+                for (ChangeListener l : listeners) {
+                    l.stateChanged(e);
+                }
+            }
+        });
+    }
+}
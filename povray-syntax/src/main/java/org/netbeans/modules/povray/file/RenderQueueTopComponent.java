@@ -0,0 +1,214 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JToolBar;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.windows.TopComponent;
+import org.openide.windows.WindowManager;
+
+/**
+ * Shows the renderer processes of all scenes, running and waiting in the
+ * RenderQueue, and moves and cancels them.
+ *
+ * @author Tim Boudreau
+ */
+@TopComponent.Description(preferredID = RenderQueueTopComponent.ID,
+persistenceType = TopComponent.PERSISTENCE_NEVER)
+@TopComponent.Registration(mode = "output", openAtStartup = false)
+@ActionID(category = "Window", id = "org.netbeans.modules.povray.file.RenderQueueTopComponent")
+@ActionReference(path = "Menu/Window", position = 950)
+@TopComponent.OpenActionRegistration(displayName = "Render Queue",
+preferredID = RenderQueueTopComponent.ID)
+public final class RenderQueueTopComponent extends TopComponent {
+
+    static final String ID = "RenderQueueTopComponent";
+    private final DefaultListModel<RenderProcess> model = new DefaultListModel<RenderProcess>();
+    private final JList<RenderProcess> list = new JList<RenderProcess>(model);
+    private final JLabel summary = new JLabel();
+    private final Action moveUp = new AbstractAction("Move Up") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            move(-1);
+        }
+    };
+    private final Action moveDown = new AbstractAction("Move Down") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            move(1);
+        }
+    };
+    private final Action cancel = new AbstractAction("Cancel") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            RenderProcess selected = list.getSelectedValue();
+            if (selected != null) {
+                // A strip's render cancels the rest of the strips
+                selected.cancel();
+            }
+        }
+    };
+    private final ChangeListener queueListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            refresh();
+        }
+    };
+    // Progress of running renders is not fired by the queue
+    private final Timer timer = new Timer(1000, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            list.repaint();
+        }
+    });
+
+    public RenderQueueTopComponent() {
+        setLayout(new BorderLayout());
+        setDisplayName("Render Queue");
+        setToolTipText("Renders running and waiting for a core, for all scenes");
+        moveUp.putValue(Action.SHORT_DESCRIPTION, "Start the selected render sooner");
+        moveDown.putValue(Action.SHORT_DESCRIPTION, "Start the selected render later");
+        cancel.putValue(Action.SHORT_DESCRIPTION, "Stop the selected render, or take it out of the queue");
+        JToolBar toolbar = new JToolBar();
+        toolbar.setFloatable(false);
+        toolbar.add(moveUp);
+        toolbar.add(moveDown);
+        toolbar.add(cancel);
+        add(toolbar, BorderLayout.NORTH);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, describe((RenderProcess) value),
+                        index, isSelected, cellHasFocus);
+            }
+        });
+        list.addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                updateActions();
+            }
+        });
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        summary.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+        add(summary, BorderLayout.SOUTH);
+        updateActions();
+    }
+
+    /**
+     * Open the queue, or bring it to the front.
+     */
+    static void showQueue() {
+        TopComponent tc = WindowManager.getDefault().findTopComponent(ID);
+        if (tc == null) {
+            tc = new RenderQueueTopComponent();
+        }
+        tc.open();
+        tc.requestActive();
+    }
+
+    private String describe(RenderProcess render) {
+        String state;
+        if (RenderQueue.getDefault().getWaiting().contains(render)) {
+            state = "waiting";
+        } else {
+            int percent = render.getPercent();
+            state = percent < 0 ? "starting" : percent + "%";
+        }
+        return render.getScene().getName() + ": " + render.getDescription() + " - " + state;
+    }
+
+    private void refresh() {
+        RenderQueue queue = RenderQueue.getDefault();
+        RenderProcess selected = list.getSelectedValue();
+        model.clear();
+        int running = 0;
+        for (RenderProcess r : queue.getRunning()) {
+            model.addElement(r);
+            running++;
+        }
+        int waiting = 0;
+        for (RenderProcess r : queue.getWaiting()) {
+            model.addElement(r);
+            waiting++;
+        }
+        if (selected != null && model.contains(selected)) {
+            list.setSelectedValue(selected, true);
+        }
+        summary.setText(running + " running on " + queue.getThreads() + " of "
+                + RenderSettings.getCores() + " cores, " + waiting + " waiting");
+        updateActions();
+    }
+
+    private void updateActions() {
+        RenderProcess selected = list.getSelectedValue();
+        List<RenderProcess> waiting = RenderQueue.getDefault().getWaiting();
+        int index = selected == null ? -1 : waiting.indexOf(selected);
+        moveUp.setEnabled(index > 0);
+        moveDown.setEnabled(index >= 0 && index < waiting.size() - 1);
+        cancel.setEnabled(selected != null);
+    }
+
+    private void move(int by) {
+        RenderProcess selected = list.getSelectedValue();
+        if (selected != null) {
+            RenderQueue.getDefault().move(selected, by);
+        }
+    }
+
+    @Override
+    protected void componentOpened() {
+        RenderQueue.getDefault().addChangeListener(queueListener);
+        timer.start();
+        refresh();
+    }
+
+    @Override
+    protected void componentClosed() {
+        RenderQueue.getDefault().removeChangeListener(queueListener);
+        timer.stop();
+        model.clear();
+    }
+}
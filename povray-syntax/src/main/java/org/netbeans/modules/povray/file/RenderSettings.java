@@ -0,0 +1,205 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.prefs.Preferences;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.netbeans.modules.povray.file.parsing.SymbolIndex;
+import org.openide.util.NbPreferences;
+
+/**
+ * How scenes are rendered.  Settings are the renderer to run and the
+ * options passed to it before those for the scene and its output.  Include
+ * files are also looked up in the library directories those options name.
+ * Further settings are whether saving a scene renders it, how many strips
+ * full renders are split into to run at once, and how many renderer
+ * threads may run at once for all scenes.  The system property
+ * povray.executable overrides the configured renderer, so that a stub can
+ * stand in for POV-Ray.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderSettings {
+
+    private static final String EXECUTABLE = "executable";
+    private static final String OPTIONS = "options";
+    private static final String RENDER_ON_SAVE = "renderOnSave";
+    private static final String STRIPS = "strips";
+    private static final String CORES = "cores";
+    static final int MAX_CORES = 64;
+    private static final String DEFAULT_EXECUTABLE = "povray";
+    private static final String DEFAULT_OPTIONS = "+W800 +H600 +A0.3";
+    // POV-Ray's own defaults
+    private static final int DEFAULT_WIDTH = 320;
+    private static final int DEFAULT_HEIGHT = 240;
+    // Previews have a sixteenth of the pixels
+    private static final int PREVIEW_SCALE = 4;
+    private static final Pattern WIDTH = Pattern.compile("[+-]?[Ww](\\d+)");
+    private static final Pattern HEIGHT = Pattern.compile("[+-]?[Hh](\\d+)");
+    private static final Pattern THREADS = Pattern.compile("[+-]?[Ww][Tt](\\d+)");
+    private static final Pattern LIBRARY = Pattern.compile("(?i)(?:[+-]L|Library_Path=)(.+)");
+
+    private RenderSettings() {
+        throw new AssertionError();
+    }
+
+    private static Preferences preferences() {
+        return NbPreferences.forModule(RenderSettings.class);
+    }
+
+    static String getExecutable() {
+        String result = System.getProperty("povray.executable");
+        return result != null ? result : preferences().get(EXECUTABLE, DEFAULT_EXECUTABLE);
+    }
+
+    static void setExecutable(String executable) {
+        preferences().put(EXECUTABLE, executable.trim());
+    }
+
+    static String getOptions() {
+        return preferences().get(OPTIONS, DEFAULT_OPTIONS);
+    }
+
+    static void setOptions(String options) {
+        preferences().put(OPTIONS, options.trim());
+        SymbolIndex.getDefault().setLibraryPath(getLibraryPath());
+    }
+
+    static boolean isRenderOnSave() {
+        return preferences().getBoolean(RENDER_ON_SAVE, false);
+    }
+
+    static void setRenderOnSave(boolean renderOnSave) {
+        preferences().putBoolean(RENDER_ON_SAVE, renderOnSave);
+    }
+
+    /**
+     * Get the number of strips full renders are split into, each rendered
+     * by its own process;  1 renders the frame as a whole.
+     */
+    static int getStrips() {
+        return Math.max(1, preferences().getInt(STRIPS, 1));
+    }
+
+    static void setStrips(int strips) {
+        preferences().putInt(STRIPS, Math.max(1, strips));
+    }
+
+    /**
+     * Get the number of renderer threads which may run at once, for all
+     * scenes;  by default, one per core.  RenderQueue splits them between
+     * processes with POV-Ray's +WT option.
+     */
+    static int getCores() {
+        int cores = preferences().getInt(CORES, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(MAX_CORES, cores));
+    }
+
+    static void setCores(int cores) {
+        preferences().putInt(CORES, Math.max(1, Math.min(MAX_CORES, cores)));
+    }
+
+    /**
+     * Get the size of the frame the options render, by the last width and
+     * height options, or POV-Ray's defaults.
+     */
+    static Dimension size(List<String> options) {
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        for (String option : options) {
+            Matcher m = WIDTH.matcher(option);
+            if (m.matches()) {
+                width = Integer.parseInt(m.group(1));
+            }
+            m = HEIGHT.matcher(option);
+            if (m.matches()) {
+                height = Integer.parseInt(m.group(1));
+            }
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Get the number of render threads the last +WT option asks for, or 0
+     * if there is none.
+     */
+    static int threads(List<String> options) {
+        int result = 0;
+        for (String option : options) {
+            Matcher m = THREADS.matcher(option);
+            if (m.matches()) {
+                result = Integer.parseInt(m.group(1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get options for a quick preview:  the options, followed by ones
+     * overriding them for a quarter of the width and height, low quality
+     * and no anti-aliasing.
+     */
+    static List<String> previewOptions(List<String> options) {
+        Dimension size = size(options);
+        List<String> result = new ArrayList<String>(options);
+        result.add("+W" + Math.max(1, size.width / PREVIEW_SCALE));
+        result.add("+H" + Math.max(1, size.height / PREVIEW_SCALE));
+        // Keeps shadows, which matter when adjusting lights, but skips
+        // area lights, reflection, refraction and textures
+        result.add("+Q4");
+        result.add("-A");
+        return result;
+    }
+
+    /**
+     * Get the options split into arguments.
+     */
+    static List<String> getOptionList() {
+        String options = getOptions().trim();
+        return options.isEmpty() ? new ArrayList<String>()
+                : new ArrayList<String>(Arrays.asList(options.split("\\s+")));
+    }
+
+    /**
+     * Get the library directories POV-Ray looks for include files in, by
+     * the +L options, in order.  Relative ones are relative to the scene's
+     * directory, which the renderer runs in.
+     */
+    static List<File> getLibraryPath() {
+        List<File> result = new ArrayList<File>();
+        for (String option : getOptionList()) {
+            Matcher m = LIBRARY.matcher(option);
+            if (m.matches()) {
+                result.add(new File(m.group(1)));
+            }
+        }
+        return result;
+    }
+}
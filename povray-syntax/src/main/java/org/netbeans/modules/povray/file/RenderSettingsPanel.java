@@ -0,0 +1,94 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import org.openide.DialogDescriptor;
+import org.openide.DialogDisplayer;
+
+/**
+ * Edits the RenderSettings.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderSettingsPanel extends JPanel {
+
+    private final JTextField executable = new JTextField(RenderSettings.getExecutable(), 30);
+    private final JTextField options = new JTextField(RenderSettings.getOptions(), 30);
+    private final JSpinner strips = new JSpinner(new SpinnerNumberModel(RenderSettings.getStrips(),
+            1, RenderSettings.MAX_CORES, 1));
+    private final JSpinner cores = new JSpinner(new SpinnerNumberModel(RenderSettings.getCores(),
+            1, RenderSettings.MAX_CORES, 1));
+
+    RenderSettingsPanel() {
+        super(new GridBagLayout());
+        setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        add("Renderer:", executable, 0);
+        add("Options:", options, 1);
+        add("Parallel strips:", strips, 2);
+        add("Cores for all renders:", cores, 3);
+        cores.setToolTipText("Renderer threads for all running renders, shared out with +WT");
+    }
+
+    private void add(String label, JComponent field, int row) {
+        JLabel lbl = new JLabel(label);
+        lbl.setLabelFor(field);
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridy = row;
+        c.anchor = GridBagConstraints.LINE_START;
+        c.insets = new Insets(0, 0, 5, 5);
+        add(lbl, c);
+        c.gridx = 1;
+        c.weightx = 1;
+        c.fill = field instanceof JTextField ? GridBagConstraints.HORIZONTAL : GridBagConstraints.NONE;
+        c.insets = new Insets(0, 0, 5, 0);
+        add(field, c);
+    }
+
+    /**
+     * Show the settings in a dialog, and save them if it is closed with
+     * OK.
+     */
+    static void showDialog() {
+        RenderSettingsPanel pnl = new RenderSettingsPanel();
+        DialogDescriptor dd = new DialogDescriptor(pnl, "Render Settings");
+        if (DialogDisplayer.getDefault().notify(dd) == DialogDescriptor.OK_OPTION) {
+            RenderSettings.setExecutable(pnl.executable.getText());
+            RenderSettings.setOptions(pnl.options.getText());
+            RenderSettings.setStrips((Integer) pnl.strips.getValue());
+            RenderSettings.setCores((Integer) pnl.cores.getValue());
+            // Start renders waiting for cores now allowed
+            RenderQueue.getDefault().schedule();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Watches rendered images for all open scenes with one WatchService, and
+ * one thread, registering each directory once however many files in it
+ * are watched.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderWatcher implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(RenderWatcher.class.getName());
+    private static RenderWatcher instance;
+    private final WatchService service;
+    // Guarded by this
+    private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+    private final Map<Path, List<Listener>> listeners = new HashMap<Path, List<Listener>>();
+
+    interface Listener {
+
+        /**
+         * Called on the watcher's thread when a watched file is created,
+         * changed or deleted;  should return quickly.
+         */
+        void changed(File file);
+    }
+
+    private RenderWatcher(WatchService service) {
+        this.service = service;
+    }
+
+    static synchronized RenderWatcher getDefault() throws IOException {
+        if (instance == null) {
+            instance = new RenderWatcher(FileSystems.getDefault().newWatchService());
+            new RequestProcessor("POV-Ray render watcher", 1).post(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Watch a file, which need not exist yet, in an existing directory.
+     */
+    synchronized void watch(File file, Listener listener) throws IOException {
+        Path path = file.getAbsoluteFile().toPath();
+        Path dir = path.getParent();
+        if (!keys.containsKey(dir)) {
+            keys.put(dir, dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+        }
+        List<Listener> l = listeners.get(path);
+        if (l == null) {
+            listeners.put(path, l = new ArrayList<Listener>(1));
+        }
+        l.add(listener);
+    }
+
+    synchronized void unwatch(File file, Listener listener) {
+        Path path = file.getAbsoluteFile().toPath();
+        List<Listener> l = listeners.get(path);
+        if (l == null || !l.remove(listener)) {
+            return;
+        }
+        if (l.isEmpty()) {
+            listeners.remove(path);
+            Path dir = path.getParent();
+            for (Path p : listeners.keySet()) {
+                if (dir.equals(p.getParent())) {
+                    return;
+                }
+            }
+            keys.remove(dir).cancel();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            List<Path> changed = new ArrayList<Path>();
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                } else {
+                    changed.add(dir.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+            Map<Path, List<Listener>> notify = new HashMap<Path, List<Listener>>();
+            synchronized (this) {
+                // After an overflow, events were lost, so everyone watching
+                // the directory is told
+                for (Map.Entry<Path, List<Listener>> e : listeners.entrySet()) {
+                    if (changed.contains(e.getKey()) || (overflow && dir.equals(e.getKey().getParent()))) {
+                        notify.put(e.getKey(), new ArrayList<Listener>(e.getValue()));
+                    }
+                }
+            }
+            for (Map.Entry<Path, List<Listener>> e : notify.entrySet()) {
+                for (Listener l : e.getValue()) {
+                    try {
+                        l.changed(e.getKey().toFile());
+                    } catch (RuntimeException ex) {
+                        LOG.log(Level.WARNING, "Exception notifying " + l, ex);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Renders a scene in the background, through the RenderQueue shared by
+ * all scenes, one render at a time - starting a render kills the one in
+ * progress - and keeps the state of the current or last render for the
+ * Rendered tab's toolbar.  When render on save is on, saving the scene
+ * renders a quick preview, and once it is shown, the full image.  Full
+ * renders are split into strips rendered at once when the settings ask
+ * for more than one.  A region of the image can be rendered again on its
+ * own and painted into it;  renders started meanwhile wait until it is.
+ *
+ * @author Tim Boudreau
+ */
+final class Renderer implements RenderJob.Listener {
+
+    private static final Logger LOG = Logger.getLogger(Renderer.class.getName());
+    private final PovrayDataObject dob;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+    // Guarded by this
+    private RenderJob current;
+    private boolean preview;
+    // The image a region is rendered for, and the region, or null
+    private File regionImage;
+    private Rectangle region;
+    private long started;
+    // Set while a rendered region is painted into its image, to stop it
+    private AtomicBoolean compositing;
+    // A render started while compositing, which waits for it, as both
+    // write the image
+    private RenderJob held;
+    // Held so the weak listener lives as long as this
+    private final FileChangeListener saveListener = new FileChangeAdapter() {
+        @Override
+        public void fileChanged(FileEvent fe) {
+            if (RenderSettings.isRenderOnSave()) {
+                renderWithPreview();
+            }
+        }
+    };
+    private volatile String status = "";
+    private volatile int percent = -1;
+
+    Renderer(PovrayDataObject dob) {
+        this.dob = dob;
+        dob.getPrimaryFile().addFileChangeListener(
+                FileUtil.weakFileChangeListener(saveListener, dob.getPrimaryFile()));
+        RenderQueue.getDefault().trackFocus();
+    }
+
+    /**
+     * Render the scene as it is saved, to its PNG image.
+     */
+    void render() {
+        start(false, false);
+    }
+
+    /**
+     * Render a quick preview of the scene as it is saved, to its PNG
+     * image, and when it is done, the full image.
+     */
+    void renderWithPreview() {
+        start(true, false);
+    }
+
+    /**
+     * @param chained Whether this follows a render which just finished,
+     * and should not start if another was started since
+     */
+    private void start(boolean preview, boolean chained) {
+        File scene = dob.getSceneFile();
+        if (scene == null) {
+            return;
+        }
+        List<String> options = RenderSettings.getOptionList();
+        File output = dob.getImageFiles().get(0);
+        int strips = RenderSettings.getStrips();
+        RenderJob render;
+        if (preview || strips < 2) {
+            render = new RenderProcess(RenderSettings.getExecutable(),
+                    preview ? RenderSettings.previewOptions(options) : options, scene, output,
+                    preview ? "Preview" : "Render", this);
+        } else {
+            Dimension size = RenderSettings.size(options);
+            try {
+                render = new StripRender(RenderSettings.getExecutable(), options, scene, output,
+                        size.width, size.height, strips, this);
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, null, ex);
+                update("Cannot render strips: " + ex.getMessage(), -1);
+                return;
+            }
+        }
+        start(render, preview, null, null, chained);
+    }
+
+    /**
+     * Render a region of an image of the scene again, with POV-Ray's
+     * start and end row and column options, and paint it into the image
+     * and the cached copies of it.
+     *
+     * @param image A PNG image, whose size the region is rendered at
+     */
+    void renderRegion(File image, Rectangle region) {
+        if (!"png".equals(RasterDecoder.extension(image))) {
+            update("Only PNG images can be rendered again in part", -1);
+            return;
+        }
+        File scene = dob.getSceneFile();
+        if (scene == null) {
+            return;
+        }
+        Dimension size;
+        File output;
+        try {
+            size = ImageCache.getDefault().size(image);
+            output = File.createTempFile("povray-region", ".png");
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, null, ex);
+            update("Cannot render region: " + ex.getMessage(), -1);
+            return;
+        }
+        // One based and inclusive
+        List<String> options = RenderSettings.getOptionList();
+        options.add("+W" + size.width);
+        options.add("+H" + size.height);
+        options.add("+SC" + (region.x + 1));
+        options.add("+EC" + (region.x + region.width));
+        options.add("+SR" + (region.y + 1));
+        options.add("+ER" + (region.y + region.height));
+        String description = "Region " + region.width + "x" + region.height + " at "
+                + region.x + "," + region.y;
+        start(new RenderProcess(RenderSettings.getExecutable(), options, scene, output, description, this),
+                false, image, new Rectangle(region), false);
+    }
+
+    private void start(RenderJob render, boolean preview, File regionImage, Rectangle region,
+            boolean chained) {
+        RenderJob old;
+        boolean wasHeld;
+        boolean hold;
+        synchronized (this) {
+            if (chained && current != null) {
+                render.cancel();
+                return;
+            }
+            old = current;
+            wasHeld = old != null && old == held;
+            current = render;
+            this.preview = preview;
+            this.regionImage = regionImage;
+            this.region = region;
+            started = System.currentTimeMillis();
+            hold = compositing != null;
+            if (hold) {
+                compositing.set(true);
+                held = render;
+            }
+        }
+        if (old != null) {
+            old.cancel();
+            if (wasHeld) {
+                discard(old);
+            }
+        }
+        update(hold ? "Waiting for compositing to stop" : "Starting", -1);
+        if (!hold) {
+            render.start();
+        }
+    }
+
+    void cancel() {
+        RenderJob old;
+        boolean wasHeld;
+        synchronized (this) {
+            old = current;
+            wasHeld = old != null && old == held;
+            if (compositing != null) {
+                compositing.set(true);
+            }
+            if (wasHeld) {
+                // Never started, so nothing will report it finished
+                held = null;
+                current = null;
+            }
+        }
+        if (old != null) {
+            old.cancel();
+        }
+        if (wasHeld) {
+            discard(old);
+            update("Cancelled", -1);
+        }
+    }
+
+    /**
+     * Delete the output of a render which never started, if it is a
+     * region's temporary file.
+     */
+    private void discard(RenderJob render) {
+        if (!render.getOutput().equals(dob.getImageFiles().get(0))) {
+            render.getOutput().delete();
+        }
+    }
+
+    synchronized boolean isRendering() {
+        return current != null;
+    }
+
+    /**
+     * Get what the current render is doing, or how the last one ended.
+     */
+    String getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the percentage of the current render done, or -1 if unknown.
+     */
+    int getPercent() {
+        return percent;
+    }
+
+    void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void progress(RenderJob render, String status, int percent) {
+        boolean isPreview;
+        synchronized (this) {
+            if (render != current) {
+                return;
+            }
+            isPreview = preview;
+        }
+        update(isPreview ? "Preview: " + status : status, percent);
+    }
+
+    @Override
+    public void finished(RenderJob render, boolean success, String message) {
+        long elapsed;
+        boolean wasPreview;
+        File image;
+        Rectangle r;
+        AtomicBoolean cancelled = null;
+        synchronized (this) {
+            if (render != current) {
+                // Region renders write to temporary files
+                if (!render.getOutput().equals(dob.getImageFiles().get(0))) {
+                    render.getOutput().delete();
+                }
+                return;
+            }
+            wasPreview = preview;
+            image = regionImage;
+            r = region;
+            if (image == null) {
+                current = null;
+            } else if (success) {
+                cancelled = compositing = new AtomicBoolean();
+            }
+            elapsed = System.currentTimeMillis() - started;
+        }
+        if (image != null) {
+            // Still the current render while compositing, so the toolbar
+            // shows it as running
+            if (success) {
+                update("Compositing", -1);
+                message = composite(render.getOutput(), image, r, cancelled);
+                success = message == null;
+            }
+            render.getOutput().delete();
+            RenderJob next;
+            boolean superseded;
+            synchronized (this) {
+                compositing = null;
+                next = held;
+                held = null;
+                superseded = current != render;
+                if (!superseded) {
+                    current = null;
+                    elapsed = System.currentTimeMillis() - started;
+                }
+            }
+            if (next != null) {
+                update("Starting", -1);
+                next.start();
+                return;
+            }
+            if (superseded) {
+                return;
+            }
+        }
+        if (wasPreview && success) {
+            // The watcher shows the preview while the full render runs
+            start(false, true);
+            return;
+        }
+        update(success ? String.format(image != null ? "Rendered region in %.1fs"
+                : "Rendered in %.1fs", elapsed / 1000D) + strips(render)
+                : message != null ? message : "Cancelled", -1);
+    }
+
+    /**
+     * Describe how long each strip of a render in strips took, so uneven
+     * strips - such as sky above a detailed floor - can be seen.
+     */
+    private static String strips(RenderJob render) {
+        if (!(render instanceof StripRender)) {
+            return "";
+        }
+        StringBuilder times = new StringBuilder();
+        for (long millis : ((StripRender) render).getStripMillis()) {
+            times.append(String.format(" %.1fs", millis / 1000D));
+        }
+        LOG.log(Level.INFO, "Strips of {0} rendered in{1}", new Object[]{render.getOutput(), times});
+        return " (strips:" + times + ")";
+    }
+
+    /**
+     * Paint a rendered region into an image, unless cancelled is set
+     * first.
+     *
+     * @return Why it could not be, or null
+     */
+    private static String composite(File output, File image, Rectangle region, AtomicBoolean cancelled) {
+        try {
+            BufferedImage patch = ImageIO.read(output);
+            if (patch == null) {
+                return "Cannot read the rendered region";
+            }
+            // POV-Ray 3.7 writes only the region, earlier versions the
+            // whole image
+            if (patch.getWidth() != region.width || patch.getHeight() != region.height) {
+                Dimension size = ImageCache.getDefault().size(image);
+                if (patch.getWidth() != size.width || patch.getHeight() != size.height) {
+                    return "The rendered region is " + patch.getWidth() + "x" + patch.getHeight()
+                            + ", not " + region.width + "x" + region.height;
+                }
+                patch = patch.getSubimage(region.x, region.y, region.width, region.height);
+            }
+            ImageCache.getDefault().composite(image, region, patch, cancelled);
+            return null;
+        } catch (InterruptedIOException ex) {
+            return "Cancelled";
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, null, ex);
+            return "Cannot composite region: " + ex.getMessage();
+        } catch (OutOfMemoryError err) {
+            return "Not enough memory to composite region";
+        }
+    }
+
+    private void update(String status, int percent) {
+        this.status = status;
+        this.percent = percent;
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                ChangeEvent e = new ChangeEvent(Renderer.this);
+                for (ChangeListener l : listeners) {
+                    l.stateChanged(e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,308 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders a frame as several processes at once, each rendering a strip of
+ * its rows with POV-Ray's start and end row options, and stitches the
+ * strips into the output when all of them are done.  Each renderer is
+ * limited to its own rows, so scenes which POV-Ray renders on one thread -
+ * or versions without threads - use as many cores as there are strips.
+ *
+ * @author Tim Boudreau
+ */
+final class StripRender implements RenderJob, RenderJob.Listener {
+
+    private static final Logger LOG = Logger.getLogger(StripRender.class.getName());
+    private final File output;
+    private final int width;
+    private final int height;
+    private final RenderJob.Listener listener;
+    private final RenderProcess[] strips;
+    // Strip i is rows rows[i] to rows[i + 1] - 1
+    private final int[] rows;
+    // Guarded by this
+    private final int[] percents;
+    private int running;
+    private boolean started;
+    private boolean failed;
+    private String failure;
+
+    /**
+     * Create a render of a scene in strips;  options for each strip's rows
+     * and output are added to the options passed.
+     *
+     * @param width The width of the frame the options give
+     * @param height The height of the frame the options give
+     * @param count The number of strips, which is limited to the height
+     * @throws IOException if temporary files for the strips cannot be
+     * created
+     */
+    StripRender(String executable, List<String> options, File scene, File output,
+            int width, int height, int count, RenderJob.Listener listener) throws IOException {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.listener = listener;
+        rows = split(height, count);
+        strips = new RenderProcess[rows.length - 1];
+        percents = new int[strips.length];
+        // Each strip's share of the cores, so all can run at once
+        int threads = Math.max(1, RenderSettings.getCores() / strips.length);
+        for (int i = 0; i < strips.length; i++) {
+            List<String> stripOptions = new ArrayList<String>(options);
+            stripOptions.add("+W" + width);
+            stripOptions.add("+H" + height);
+            // One based and inclusive
+            stripOptions.add("+SR" + (rows[i] + 1));
+            stripOptions.add("+ER" + rows[i + 1]);
+            File strip;
+            try {
+                strip = File.createTempFile("povray-strip", ".png");
+            } catch (IOException ex) {
+                deleteStrips();
+                throw ex;
+            }
+            strips[i] = new RenderProcess(executable, stripOptions, scene, strip,
+                    "Rows " + (rows[i] + 1) + "-" + rows[i + 1] + " of " + height, this);
+            strips[i].limitThreads(threads);
+        }
+        running = strips.length;
+    }
+
+    /**
+     * Divide rows into strips as even as possible.
+     *
+     * @return The first row of each strip, followed by the height
+     */
+    static int[] split(int height, int count) {
+        count = Math.max(1, Math.min(count, height));
+        int[] result = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            result[i] = (int) ((long) height * i / count);
+        }
+        return result;
+    }
+
+    @Override
+    public File getOutput() {
+        return output;
+    }
+
+    int getStripCount() {
+        return strips.length;
+    }
+
+    /**
+     * Get the temporary files the strips are rendered to, which are
+     * deleted when the render ends.
+     */
+    File[] getStripFiles() {
+        File[] result = new File[strips.length];
+        for (int i = 0; i < strips.length; i++) {
+            result[i] = strips[i].getOutput();
+        }
+        return result;
+    }
+
+    /**
+     * Get how long each strip's renderer ran, in milliseconds, or 0 for
+     * strips which did not run.
+     */
+    long[] getStripMillis() {
+        long[] result = new long[strips.length];
+        for (int i = 0; i < strips.length; i++) {
+            result[i] = strips[i].getMillis();
+        }
+        return result;
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            started = true;
+        }
+        for (RenderProcess strip : strips) {
+            strip.start();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        boolean wasStarted;
+        synchronized (this) {
+            wasStarted = started;
+        }
+        for (RenderProcess strip : strips) {
+            strip.cancel();
+        }
+        if (!wasStarted) {
+            deleteStrips();
+        }
+    }
+
+    @Override
+    public void progress(RenderJob render, String status, int percent) {
+        int done;
+        synchronized (this) {
+            if (failed) {
+                return;
+            }
+            if (percent < 0) {
+                // Every strip parses the scene;  report phases until
+                // pixels are being rendered
+                for (int p : percents) {
+                    if (p > 0) {
+                        return;
+                    }
+                }
+                done = -1;
+            } else {
+                percents[indexOf(render)] = percent;
+                long pixels = 0;
+                for (int i = 0; i < strips.length; i++) {
+                    pixels += (long) percents[i] * (rows[i + 1] - rows[i]);
+                }
+                done = (int) (pixels / height);
+            }
+        }
+        listener.progress(this, done < 0 ? status
+                : "Rendering " + strips.length + " strips", done);
+    }
+
+    @Override
+    public void finished(RenderJob render, boolean success, String message) {
+        boolean cancelOthers;
+        synchronized (this) {
+            cancelOthers = !success && !failed;
+            if (!success) {
+                failed = true;
+                if (failure == null) {
+                    failure = message;
+                }
+            }
+            if (--running > 0) {
+                render = null;
+            }
+        }
+        if (cancelOthers) {
+            // One strip is no use without the others
+            cancel();
+        }
+        if (render == null) {
+            return;
+        }
+        String result = failed ? failure : null;
+        if (!failed) {
+            listener.progress(this, "Stitching", -1);
+            result = stitch();
+        }
+        deleteStrips();
+        listener.finished(this, result == null && !failed, result);
+    }
+
+    /**
+     * Write the strips into the output.
+     *
+     * @return Why they could not be, or null
+     */
+    private String stitch() {
+        try {
+            BufferedImage full = null;
+            int[] pixels = null;
+            for (int i = 0; i < strips.length; i++) {
+                // Decoded one at a time, so only one strip is in memory
+                // beside the full image
+                BufferedImage strip = ImageIO.read(strips[i].getOutput());
+                if (strip == null) {
+                    return "Cannot read strip " + (i + 1);
+                }
+                if (full == null) {
+                    // The strips are rendered with the same options, so the
+                    // first tells whether the image has alpha
+                    full = new BufferedImage(width, height, strip.getColorModel().hasAlpha()
+                            ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                }
+                int stripHeight = rows[i + 1] - rows[i];
+                // POV-Ray 3.7 writes only the strip, earlier versions the
+                // whole image
+                int top;
+                if (strip.getWidth() == width && strip.getHeight() == stripHeight) {
+                    top = 0;
+                } else if (strip.getWidth() == width && strip.getHeight() == height) {
+                    top = rows[i];
+                } else {
+                    return "Strip " + (i + 1) + " is " + strip.getWidth() + "x"
+                            + strip.getHeight() + ", not " + width + "x" + stripHeight;
+                }
+                if (pixels == null || pixels.length < width * stripHeight) {
+                    pixels = new int[width * stripHeight];
+                }
+                strip.getRGB(0, top, width, stripHeight, pixels, 0, width);
+                full.setRGB(0, rows[i], width, stripHeight, pixels, 0, width);
+            }
+            File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+            if (!ImageIO.write(full, "png", temp)) {
+                temp.delete();
+                return "Cannot write " + output;
+            }
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, null, ex);
+            return "Cannot stitch strips: " + ex.getMessage();
+        } catch (OutOfMemoryError err) {
+            return "Not enough memory to stitch strips";
+        }
+    }
+
+    private int indexOf(RenderJob render) {
+        for (int i = 0; i < strips.length; i++) {
+            if (strips[i] == render) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.valueOf(render));
+    }
+
+    private void deleteStrips() {
+        for (RenderProcess strip : strips) {
+            if (strip != null) {
+                strip.getOutput().delete();
+            }
+        }
+    }
+}
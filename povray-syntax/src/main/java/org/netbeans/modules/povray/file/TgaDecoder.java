@@ -0,0 +1,185 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decodes true-color and grayscale TGA images, uncompressed or run-length
+ * encoded, with or without alpha.
+ *
+ * @author Tim Boudreau
+ */
+final class TgaDecoder extends RasterDecoder {
+
+    private static final int HEADER_LENGTH = 18;
+    // The end of the optional TGA 2.0 footer
+    private static final byte[] FOOTER = "TRUEVISION-XFILE.\0".getBytes(Charset.forName("US-ASCII"));
+    private final boolean rle;
+    private final boolean alpha;
+
+    private TgaDecoder(int width, int height, long dataOffset, int bytesPerPixel,
+            boolean topDown, boolean rle, boolean alpha) {
+        super(width, height, dataOffset, bytesPerPixel, topDown);
+        this.rle = rle;
+        this.alpha = alpha;
+    }
+
+    static TgaDecoder open(FileChannel ch) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, h, 0);
+        int idLength = h.get(0) & 0xFF;
+        int colorMapType = h.get(1) & 0xFF;
+        int type = h.get(2) & 0xFF;
+        int colorMapLength = h.getShort(5) & 0xFFFF;
+        int colorMapBits = h.get(7) & 0xFF;
+        int width = h.getShort(12) & 0xFFFF;
+        int height = h.getShort(14) & 0xFFFF;
+        int depth = h.get(16) & 0xFF;
+        int descriptor = h.get(17) & 0xFF;
+        boolean gray = type == 3 || type == 11;
+        boolean color = type == 2 || type == 10;
+        if ((!gray && !color) || (gray && depth != 8) || (color && depth != 24 && depth != 32)) {
+            throw new IOException("Unsupported TGA image type " + type + " depth " + depth);
+        }
+        if (width == 0 || height == 0) {
+            throw new IOException("Empty TGA image");
+        }
+        // Color-mapped images are rejected above, but true-color images
+        // may still carry a map, which is skipped
+        long offset = HEADER_LENGTH + idLength
+                + (colorMapType == 1 ? colorMapLength * ((colorMapBits + 7) / 8) : 0);
+        return new TgaDecoder(width, height, offset, depth / 8, (descriptor & 0x20) != 0,
+                type >= 9, depth == 32 && (descriptor & 0x0F) != 0);
+    }
+
+    @Override
+    boolean hasAlpha() {
+        return alpha;
+    }
+
+    @Override
+    ImageDecoder.Completeness completeness(FileChannel ch) throws IOException {
+        if (!rle) {
+            return super.completeness(ch);
+        }
+        // Without decoding, only a footer shows a compressed image is done
+        if (ch.size() < dataOffset + FOOTER.length) {
+            return ImageDecoder.Completeness.INCOMPLETE;
+        }
+        ByteBuffer end = ByteBuffer.allocate(FOOTER.length);
+        readFully(ch, end, ch.size() - FOOTER.length);
+        return Arrays.equals(end.array(), FOOTER)
+                ? ImageDecoder.Completeness.COMPLETE : ImageDecoder.Completeness.UNKNOWN;
+    }
+
+    @Override
+    void decode(ByteBuffer src, int[] dst, int dstOffset, int count, int step) {
+        int stride = step * bytesPerPixel;
+        for (int i = 0, p = src.position(); i < count; i++, p += stride) {
+            dst[dstOffset + i] = pixel(src, p);
+        }
+    }
+
+    private int pixel(ByteBuffer src, int p) {
+        switch (bytesPerPixel) {
+            case 1:
+                return (src.get(p) & 0xFF) * 0x010101;
+            case 3:
+                return (src.get(p + 2) & 0xFF) << 16 | (src.get(p + 1) & 0xFF) << 8 | (src.get(p) & 0xFF);
+            default:
+                return (alpha ? (src.get(p + 3) & 0xFF) << 24 : 0)
+                        | (src.get(p + 2) & 0xFF) << 16 | (src.get(p + 1) & 0xFF) << 8 | (src.get(p) & 0xFF);
+        }
+    }
+
+    @Override
+    BufferedImage read(FileChannel ch, Rectangle region, int subsampling) throws IOException {
+        if (!rle) {
+            return super.read(ch, region, subsampling);
+        }
+        int outWidth = (region.width + subsampling - 1) / subsampling;
+        int outHeight = (region.height + subsampling - 1) / subsampling;
+        BufferedImage result = new BufferedImage(outWidth, outHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        // Rows must be decoded in file order up to the last one needed
+        int lastRow = region.y + (outHeight - 1) * subsampling;
+        int lastFileRow = topDown ? lastRow : height - 1 - region.y;
+        Input in = new Input(ch, dataOffset);
+        int x = 0;
+        int fileRow = 0;
+        int outRow = outRow(fileRow, region, subsampling);
+        while (fileRow <= lastFileRow) {
+            int header = in.readByte();
+            int count = (header & 0x7F) + 1;
+            boolean repeat = (header & 0x80) != 0;
+            int value = 0;
+            if (repeat) {
+                ByteBuffer buf = in.require(bytesPerPixel);
+                value = pixel(buf, buf.position());
+                buf.position(buf.position() + bytesPerPixel);
+            }
+            for (int i = 0; i < count; i++) {
+                if (!repeat) {
+                    ByteBuffer buf = in.require(bytesPerPixel);
+                    if (outRow >= 0) {
+                        value = pixel(buf, buf.position());
+                    }
+                    buf.position(buf.position() + bytesPerPixel);
+                }
+                if (outRow >= 0) {
+                    int dx = x - region.x;
+                    if (dx >= 0 && dx < region.width && dx % subsampling == 0) {
+                        pixels[outRow * outWidth + dx / subsampling] = value;
+                    }
+                }
+                if (++x == width) {
+                    x = 0;
+                    if (++fileRow > lastFileRow) {
+                        break;
+                    }
+                    outRow = outRow(fileRow, region, subsampling);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the row of the output a row of the file goes to, or -1.
+     */
+    private int outRow(int fileRow, Rectangle region, int subsampling) {
+        int dy = (topDown ? fileRow : height - 1 - fileRow) - region.y;
+        return dy >= 0 && dy < region.height && dy % subsampling == 0 ? dy / subsampling : -1;
+    }
+}
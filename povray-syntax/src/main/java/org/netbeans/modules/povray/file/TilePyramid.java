@@ -0,0 +1,322 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A rendered image as a pyramid of levels, each half the size of the one
+ * below, cut into tiles of TILE pixels square, so that painting draws only
+ * the tiles of one level which are visible - at most a screenful of
+ * pixels however large the image.
+ * <p/>
+ * Level n holds every 2<sup>n</sup>th pixel of the image.  The overview,
+ * decoded at about the size of the screen, is one level;  the coarser
+ * levels are made from it by averaging when the pyramid is created, and
+ * tiles of the finer ones are decoded as they come into view, through the
+ * ImageCache, and released when they leave it.  Until a tile is loaded the
+ * part of the nearest coarser level covering it is painted instead.
+ * <p/>
+ * Except for the constructor and load(), only used on the event thread.
+ *
+ * @author Tim Boudreau
+ */
+final class TilePyramid {
+
+    static final int TILE = 256;
+    private final File file;
+    private final Dimension size;
+    private final int overviewLevel;
+    // The whole image at the overview level and each coarser one
+    private final BufferedImage[] levels;
+    // Decoded tiles of levels finer than the overview, by id()
+    private final Map<Long, BufferedImage> tiles = new HashMap<Long, BufferedImage>();
+
+    /**
+     * Create a pyramid, building the coarse levels, which takes time in
+     * proportion to the size of the overview.
+     *
+     * @param overview The image with every 2<sup>overviewLevel</sup>th
+     * pixel of the image
+     */
+    TilePyramid(File file, Dimension size, BufferedImage overview, int overviewLevel) {
+        this.file = file;
+        this.size = new Dimension(size);
+        this.overviewLevel = overviewLevel;
+        int top = overviewLevel;
+        while (levelSize(top, size.width) > TILE || levelSize(top, size.height) > TILE) {
+            top++;
+        }
+        levels = new BufferedImage[top + 1];
+        levels[overviewLevel] = overview;
+        for (int level = overviewLevel + 1; level <= top; level++) {
+            levels[level] = half(levels[level - 1]);
+        }
+    }
+
+    /**
+     * Get the level whose subsampling is the largest power of two which
+     * still leaves at least as many pixels as an area.
+     */
+    static int levelToFill(int width, int height, int areaWidth, int areaHeight) {
+        return 31 - Integer.numberOfLeadingZeros(
+                ImageDecoder.subsamplingToFill(width, height, areaWidth, areaHeight));
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Dimension getSize() {
+        return new Dimension(size);
+    }
+
+    BufferedImage getOverview() {
+        return levels[overviewLevel];
+    }
+
+    /**
+     * Get the coarsest level with at least one pixel per pixel of the
+     * screen at a scale.
+     */
+    int levelFor(double scale) {
+        int level = scale >= 1 ? 0 : 31 - Integer.numberOfLeadingZeros((int) Math.min(1 << 30, 1 / scale));
+        return Math.min(level, levels.length - 1);
+    }
+
+    /**
+     * Get the columns and rows of the tiles of a level which cover part of
+     * the image.
+     */
+    Rectangle tileRange(int level, Rectangle source) {
+        Rectangle r = source.intersection(new Rectangle(size));
+        if (r.isEmpty()) {
+            return new Rectangle();
+        }
+        int span = TILE << level;
+        int col = r.x / span;
+        int row = r.y / span;
+        return new Rectangle(col, row, (r.x + r.width - 1) / span - col + 1,
+                (r.y + r.height - 1) / span - row + 1);
+    }
+
+    /**
+     * Let go of the tiles of levels finer than the overview, except those
+     * of one level within a range.
+     */
+    void retain(int level, Rectangle range) {
+        for (Iterator<Long> it = tiles.keySet().iterator(); it.hasNext();) {
+            long id = it.next();
+            if (level(id) != level || !range.contains(col(id), row(id))) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the tiles in a range which need to be loaded.
+     */
+    List<Long> missing(int level, Rectangle range) {
+        List<Long> result = new ArrayList<Long>();
+        if (level >= overviewLevel) {
+            return result;
+        }
+        for (int row = range.y; row < range.y + range.height; row++) {
+            for (int col = range.x; col < range.x + range.width; col++) {
+                long id = id(level, col, row);
+                if (!tiles.containsKey(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode tiles, from the ImageCache if it has them;  may be called on
+     * any thread.
+     *
+     * @throws java.io.InterruptedIOException if the thread was interrupted
+     */
+    Map<Long, BufferedImage> load(List<Long> ids) throws IOException {
+        Map<Long, BufferedImage> result = new HashMap<Long, BufferedImage>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+        // All tiles of a call are from one level
+        int level = level(ids.get(0));
+        Rectangle[] regions = new Rectangle[ids.size()];
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] = region(ids.get(i));
+        }
+        BufferedImage[] images = ImageCache.getDefault().readTiles(file, regions, 1 << level);
+        for (int i = 0; i < images.length; i++) {
+            result.put(ids.get(i), images[i]);
+        }
+        return result;
+    }
+
+    void add(Map<Long, BufferedImage> loaded) {
+        tiles.putAll(loaded);
+    }
+
+    /**
+     * Paint the tiles of the level for a scale which intersect a clip.
+     *
+     * @param origin Where the image's top left corner is painted
+     */
+    void paint(Graphics2D g, Rectangle clip, Point origin, double scale) {
+        int level = levelFor(scale);
+        Rectangle source = new Rectangle(
+                (int) Math.floor((clip.x - origin.x) / scale),
+                (int) Math.floor((clip.y - origin.y) / scale),
+                (int) Math.ceil(clip.width / scale) + 1,
+                (int) Math.ceil(clip.height / scale) + 1);
+        Rectangle range = tileRange(level, source);
+        for (int row = range.y; row < range.y + range.height; row++) {
+            for (int col = range.x; col < range.x + range.width; col++) {
+                paintTile(g, region(id(level, col, row)), level, origin, scale);
+            }
+        }
+    }
+
+    /**
+     * Paint part of the image from the finest level available at or above
+     * a level.
+     */
+    private void paintTile(Graphics2D g, Rectangle region, int level, Point origin, double scale) {
+        for (int l = level; l < levels.length; l++) {
+            BufferedImage img;
+            int x;
+            int y;
+            if (l >= overviewLevel) {
+                img = levels[l];
+                x = region.x >> l;
+                y = region.y >> l;
+            } else {
+                int span = TILE << l;
+                img = tiles.get(id(l, region.x / span, region.y / span));
+                x = (region.x % span) >> l;
+                y = (region.y % span) >> l;
+            }
+            if (img == null) {
+                continue;
+            }
+            // Pixels only show as squares when they are real ones
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, l == 0 && scale > 1
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            // Corners computed from image coordinates, so tiles abut
+            g.drawImage(img,
+                    origin.x + (int) Math.round(region.x * scale),
+                    origin.y + (int) Math.round(region.y * scale),
+                    origin.x + (int) Math.round((region.x + region.width) * scale),
+                    origin.y + (int) Math.round((region.y + region.height) * scale),
+                    x, y, Math.min(img.getWidth(), x + levelSize(l, region.width)),
+                    Math.min(img.getHeight(), y + levelSize(l, region.height)), null);
+            return;
+        }
+    }
+
+    /**
+     * Get the part of the image a tile covers.
+     */
+    private Rectangle region(long id) {
+        int span = TILE << level(id);
+        Rectangle result = new Rectangle(col(id) * span, row(id) * span, span, span);
+        return result.intersection(new Rectangle(size));
+    }
+
+    private static int levelSize(int level, int length) {
+        return (length + (1 << level) - 1) >> level;
+    }
+
+    private static long id(int level, int col, int row) {
+        return (long) level << 48 | (long) row << 24 | col;
+    }
+
+    private static int level(long id) {
+        return (int) (id >>> 48);
+    }
+
+    private static int row(long id) {
+        return (int) (id >>> 24) & 0xFFFFFF;
+    }
+
+    private static int col(long id) {
+        return (int) id & 0xFFFFFF;
+    }
+
+    /**
+     * Make the next coarser level by averaging each two by two pixels.
+     */
+    private static BufferedImage half(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int hw = (w + 1) / 2;
+        int hh = (h + 1) / 2;
+        boolean alpha = img.getColorModel().hasAlpha();
+        BufferedImage result = new BufferedImage(hw, hh,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] above = new int[w];
+        int[] below = new int[w];
+        int[] out = new int[hw];
+        for (int y = 0; y < hh; y++) {
+            img.getRGB(0, y * 2, w, 1, above, 0, w);
+            if (y * 2 + 1 < h) {
+                img.getRGB(0, y * 2 + 1, w, 1, below, 0, w);
+            } else {
+                System.arraycopy(above, 0, below, 0, w);
+            }
+            for (int x = 0; x < hw; x++) {
+                int x1 = Math.min(x * 2 + 1, w - 1);
+                out[x] = average(above[x * 2], above[x1], below[x * 2], below[x1]);
+            }
+            result.setRGB(0, y, hw, 1, out, 0, hw);
+        }
+        return result;
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF)
+                    + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,226 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.text.Document;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+
+/**
+ * Which keywords can appear directly inside each kind of block, read from
+ * blocks.txt.  Each set is kept as a bit set of positions in the
+ * alphabetical order of KeywordTrie, so completion can intersect it with
+ * the range of keywords matching a prefix without looking at any others.
+ *
+ * @author Tim Boudreau
+ */
+final class BlockGrammar {
+
+    private static final String RESOURCE = "blocks.txt";
+    private static final String SCENE = "scene";
+    // How far back to look for the enclosing block before giving up
+    private static final int MAX_TOKENS = 50000;
+    private static final BlockGrammar INSTANCE = new BlockGrammar();
+    private final Map<Keywords, BitSet> blocks = new EnumMap<Keywords, BitSet>(Keywords.class);
+    private BitSet scene;
+    // Every keyword listed anywhere
+    private final BitSet listed = new BitSet();
+
+    private BlockGrammar() {
+        try (InputStream in = BlockGrammar.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("No " + RESOURCE);
+            }
+            read(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static BlockGrammar getDefault() {
+        return INSTANCE;
+    }
+
+    private void read(BufferedReader reader) throws IOException {
+        KeywordTrie trie = KeywordTrie.getDefault();
+        Map<String, BitSet> groups = new HashMap<String, BitSet>();
+        int lineNumber = 0;
+        for (String line; (line = reader.readLine()) != null;) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalStateException(RESOURCE + ":" + lineNumber + ": no colon");
+            }
+            BitSet allowed = new BitSet();
+            for (String word : line.substring(colon + 1).trim().split("\\s+")) {
+                if (word.startsWith("@")) {
+                    BitSet group = groups.get(word);
+                    if (group == null) {
+                        throw new IllegalStateException(RESOURCE + ":" + lineNumber + ": undefined " + word);
+                    }
+                    allowed.or(group);
+                } else {
+                    allowed.set(trie.position(keyword(word, lineNumber)));
+                }
+            }
+            listed.or(allowed);
+            for (String name : line.substring(0, colon).trim().split("\\s+")) {
+                if (name.startsWith("@")) {
+                    groups.put(name, allowed);
+                } else if (SCENE.equals(name)) {
+                    scene = allowed;
+                } else {
+                    blocks.put(keyword(name, lineNumber), allowed);
+                }
+            }
+        }
+        if (scene == null) {
+            throw new IllegalStateException(RESOURCE + ": no " + SCENE);
+        }
+        assert unlisted().isEmpty() : RESOURCE + " does not list " + unlisted();
+    }
+
+    /**
+     * Get the keywords which are not directives but are not allowed
+     * anywhere, and so would never be offered inside described blocks.
+     */
+    List<Keywords> unlisted() {
+        KeywordTrie trie = KeywordTrie.getDefault();
+        List<Keywords> result = new ArrayList<Keywords>();
+        for (Keywords k : Keywords.values()) {
+            if (!k.occursAfterHash() && !listed.get(trie.position(k))) {
+                result.add(k);
+            }
+        }
+        return result;
+    }
+
+    private static Keywords keyword(String word, int lineNumber) {
+        Keywords result = Keywords.match((CharSequence) word);
+        if (result == null) {
+            throw new IllegalStateException(RESOURCE + ":" + lineNumber + ": unknown keyword " + word);
+        }
+        return result;
+    }
+
+    /**
+     * Get the keywords allowed at the top level of a file.
+     */
+    BitSet scene() {
+        return scene;
+    }
+
+    /**
+     * Get the keywords allowed directly inside a block.
+     *
+     * @return The keywords, or null if the block is not described
+     */
+    BitSet block(Keywords keyword) {
+        return blocks.get(keyword);
+    }
+
+    /**
+     * Find the keywords allowed at an offset in a document, from the block
+     * whose braces enclose it.
+     *
+     * @return The keywords, or null if any may appear - the block is not
+     * described, is not preceded by a keyword or is too far away
+     */
+    BitSet allowedAt(final Document doc, final int offset) {
+        final BitSet[] result = new BitSet[1];
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+                TokenSequence<PovTokenId> seq = hierarchy == null ? null
+                        : hierarchy.tokenSequence(PovTokenId.getLanguage());
+                if (seq != null) {
+                    seq.move(offset);
+                    result[0] = allowed(seq);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    private BitSet allowed(TokenSequence<PovTokenId> seq) {
+        int depth = 0;
+        for (int i = 0; i < MAX_TOKENS; i++) {
+            if (!seq.movePrevious()) {
+                return scene;
+            }
+            switch (seq.token().id()) {
+                case block_close:
+                    depth++;
+                    break;
+                case block_open:
+                    if (depth == 0) {
+                        return enclosing(seq);
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the keywords allowed in the block whose opening brace is the
+     * current token.
+     */
+    private BitSet enclosing(TokenSequence<PovTokenId> seq) {
+        while (seq.movePrevious()) {
+            Token<PovTokenId> token = seq.token();
+            switch (token.id()) {
+                case whitespace:
+                case comment:
+                    continue;
+                case keyword:
+                    Keywords keyword = Keywords.match(token.text());
+                    return keyword == null ? null : blocks.get(keyword);
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.concurrent.CancellationException;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import org.openide.util.Exceptions;
+
+/**
+ * Keeps the SceneTree of a document.  Edits are only recorded as they
+ * happen, merged into a single changed region;  the tree is brought up to
+ * date when requested, so a burst of typing costs one incremental
+ * re-parse.
+ *
+ * @author Tim Boudreau
+ */
+final class DocumentSceneTree implements DocumentListener {
+
+    private final Document doc;
+    private final Object dirtyLock = new Object();
+    private SceneTree tree;
+    // The changed region:  it starts at dirtyStart in both the text the
+    // tree was parsed from and the current text, and ends at dirtyOldEnd
+    // and dirtyNewEnd respectively;  dirtyStart is -1 if nothing changed
+    private int dirtyStart = -1;
+    private int dirtyOldEnd;
+    private int dirtyNewEnd;
+
+    private DocumentSceneTree(Document doc) {
+        this.doc = doc;
+    }
+
+    static DocumentSceneTree forDocument(Document doc) {
+        synchronized (DocumentSceneTree.class) {
+            DocumentSceneTree result = (DocumentSceneTree) doc.getProperty(DocumentSceneTree.class);
+            if (result == null) {
+                result = new DocumentSceneTree(doc);
+                doc.putProperty(DocumentSceneTree.class, result);
+                doc.addDocumentListener(result);
+            }
+            return result;
+        }
+    }
+
+    synchronized SceneTree getTree() {
+        final String[] text = new String[1];
+        final int[] dirty = new int[3];
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    text[0] = doc.getText(0, doc.getLength());
+                } catch (BadLocationException ex) {
+                    Exceptions.printStackTrace(ex);
+                }
+                synchronized (dirtyLock) {
+                    dirty[0] = dirtyStart;
+                    dirty[1] = dirtyOldEnd;
+                    dirty[2] = dirtyNewEnd;
+                    dirtyStart = -1;
+                }
+            }
+        });
+        if (text[0] == null) {
+            return tree;
+        }
+        try {
+            if (tree == null) {
+                tree = SceneTree.parse(text[0]);
+            } else if (dirty[0] >= 0) {
+                tree = tree.edit(text[0], dirty[0], dirty[1] - dirty[0], dirty[2] - dirty[0]);
+            }
+        } catch (CancellationException ex) {
+            if (dirty[0] >= 0) {
+                restore(dirty[0], dirty[1], dirty[2]);
+            }
+            throw ex;
+        }
+        return tree;
+    }
+
+    /**
+     * Put back the changed region of a cancelled update, merging any edits
+     * made since into it.
+     */
+    private void restore(int start, int oldEnd, int newEnd) {
+        synchronized (dirtyLock) {
+            int laterStart = dirtyStart;
+            int laterOldEnd = dirtyOldEnd;
+            int laterNewEnd = dirtyNewEnd;
+            dirtyStart = start;
+            dirtyOldEnd = oldEnd;
+            dirtyNewEnd = newEnd;
+            if (laterStart >= 0) {
+                edited(laterStart, laterOldEnd - laterStart, laterNewEnd - laterStart);
+            }
+        }
+    }
+
+    private void edited(int offset, int removed, int inserted) {
+        synchronized (dirtyLock) {
+            if (dirtyStart < 0) {
+                dirtyStart = offset;
+                dirtyOldEnd = offset + removed;
+                dirtyNewEnd = offset + inserted;
+                return;
+            }
+            int end = offset + removed;
+            // Text removed past the changed region was unchanged before
+            dirtyOldEnd += Math.max(0, end - dirtyNewEnd);
+            dirtyNewEnd = Math.max(dirtyNewEnd, end) - removed + inserted;
+            dirtyStart = Math.min(dirtyStart, offset);
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e.getOffset(), 0, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e.getOffset(), e.getLength(), 0);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attribute changes do not affect the tree
+    }
+}
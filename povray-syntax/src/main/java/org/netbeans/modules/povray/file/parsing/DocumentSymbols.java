@@ -0,0 +1,338 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.text.Document;
+import org.netbeans.modules.povray.file.parsing.SceneNode.Kind;
+import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataObject;
+
+/**
+ * The names declared in a document and in the files it includes, for
+ * completion.  The document's own names are indexed by the characters
+ * their segments start with, and are updated after each background parse
+ * from the top-level nodes which changed - nodes the parse reused are not
+ * looked at again;  names from included files are looked up in their
+ * SymbolIndex entries.  The included files are found again only when the
+ * include directives, the library path or one of the files changed, or a
+ * name which was not found before now is.
+ *
+ * @author Tim Boudreau
+ */
+final class DocumentSymbols implements ParseScheduler.Task {
+
+    // Name to kind and number of definitions, guarded by this
+    private final Map<String, Definition> names = new HashMap<String, Definition>();
+    // The names by the characters their segments start with, for fuzzy
+    // matching;  guarded by this
+    private final List<Set<String>> initials = new ArrayList<Set<String>>(FuzzyMatcher.BUCKETS);
+    // Only touched by run(), which does not run concurrently
+    private Map<SceneNode, NodeSymbols> nodes = new IdentityHashMap<SceneNode, NodeSymbols>();
+    private volatile List<File> includes = Collections.emptyList();
+    // What the included files were last found from;  only touched by run()
+    private File resolvedDir;
+    private List<String> resolvedNames = Collections.emptyList();
+    private List<File> resolvedPath = Collections.emptyList();
+    private long resolvedStamp;
+    private List<Unresolved> unresolved = Collections.emptyList();
+
+    DocumentSymbols() {
+        for (int i = 0; i < FuzzyMatcher.BUCKETS; i++) {
+            initials.add(new HashSet<String>());
+        }
+    }
+
+    static DocumentSymbols forDocument(Document doc) {
+        DocumentSymbols result;
+        synchronized (DocumentSymbols.class) {
+            result = (DocumentSymbols) doc.getProperty(DocumentSymbols.class);
+            if (result != null) {
+                return result;
+            }
+            result = new DocumentSymbols();
+            doc.putProperty(DocumentSymbols.class, result);
+        }
+        ParseScheduler.forDocument(doc).addTask(result);
+        return result;
+    }
+
+    /**
+     * Find the names which fuzzily match a query, best first, skipping the
+     * remaining included files once System.nanoTime() passes a deadline;
+     * if a name is defined more than once, the document's own or the first
+     * included definition wins.
+     *
+     * @param max The maximum number of names
+     */
+    Map<String, Keywords> matching(FuzzyMatcher matcher, int max, long deadline) {
+        final Map<String, Integer> scores = new HashMap<String, Integer>();
+        Map<String, Keywords> kinds = new HashMap<String, Keywords>();
+        synchronized (this) {
+            for (String name : initials.get(matcher.bucket())) {
+                int score = matcher.score(name);
+                if (score != FuzzyMatcher.NO_MATCH) {
+                    scores.put(name, score);
+                    kinds.put(name, names.get(name).kind);
+                }
+            }
+        }
+        SymbolIndex index = SymbolIndex.getDefault();
+        for (File file : includes) {
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+            for (SymbolIndex.Symbol sym : index.matching(file, matcher, max)) {
+                if (!kinds.containsKey(sym.getName())) {
+                    scores.put(sym.getName(), matcher.score(sym.getName()));
+                    kinds.put(sym.getName(), sym.getKind());
+                }
+            }
+        }
+        List<String> sorted = new ArrayList<String>(scores.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int result = scores.get(b).compareTo(scores.get(a));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        Map<String, Keywords> result = new LinkedHashMap<String, Keywords>();
+        for (int i = 0; i < sorted.size() && i < max; i++) {
+            result.put(sorted.get(i), kinds.get(sorted.get(i)));
+        }
+        return result;
+    }
+
+    private void index(String name, boolean add) {
+        boolean[] buckets = FuzzyMatcher.initials(name);
+        for (int b = 0; b < buckets.length; b++) {
+            if (buckets[b]) {
+                if (add) {
+                    initials.get(b).add(name);
+                } else {
+                    initials.get(b).remove(name);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run(Document doc, SceneTree tree) {
+        Map<SceneNode, NodeSymbols> old = nodes;
+        Map<SceneNode, NodeSymbols> current = new IdentityHashMap<SceneNode, NodeSymbols>();
+        List<NodeSymbols> added = new ArrayList<NodeSymbols>();
+        List<String> includeNames = new ArrayList<String>();
+        for (SceneNode node : tree.getRoot().getChildren()) {
+            NodeSymbols syms = old.remove(node);
+            if (syms == null) {
+                syms = new NodeSymbols(node);
+                added.add(syms);
+            }
+            current.put(node, syms);
+            includeNames.addAll(syms.includes);
+        }
+        synchronized (this) {
+            for (NodeSymbols gone : old.values()) {
+                for (int i = 0; i < gone.names.size(); i++) {
+                    Definition def = names.get(gone.names.get(i));
+                    if (def != null && --def.count == 0) {
+                        names.remove(gone.names.get(i));
+                        index(gone.names.get(i), false);
+                    }
+                }
+            }
+            for (NodeSymbols syms : added) {
+                for (int i = 0; i < syms.names.size(); i++) {
+                    Definition def = names.get(syms.names.get(i));
+                    if (def == null) {
+                        names.put(syms.names.get(i), new Definition(syms.kinds.get(i)));
+                        index(syms.names.get(i), true);
+                    } else {
+                        def.count++;
+                    }
+                }
+            }
+        }
+        nodes = current;
+        File file = file(doc);
+        if (file != null && includesChanged(file.getParentFile(), includeNames)) {
+            resolveIncludes(file.getParentFile(), includeNames);
+        }
+    }
+
+    /**
+     * Find whether the included files may differ from those found last
+     * time.
+     */
+    private boolean includesChanged(File dir, List<String> includeNames) {
+        SymbolIndex index = SymbolIndex.getDefault();
+        List<File> libraryPath = index.getLibraryPath();
+        if (!dir.equals(resolvedDir) || !includeNames.equals(resolvedNames)
+                || !libraryPath.equals(resolvedPath) || index.changedSince(resolvedStamp, includes)) {
+            return true;
+        }
+        Deque<File> found = new ArrayDeque<File>(1);
+        for (Unresolved u : unresolved) {
+            if (resolve(u.name, u.dir, dir, libraryPath, found)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the files included by the document and, recursively, by the
+     * files it includes.  Names are resolved against the directory of the
+     * including file, then that of the document, then the library path.
+     */
+    private void resolveIncludes(File dir, List<String> includeNames) {
+        SymbolIndex index = SymbolIndex.getDefault();
+        List<File> libraryPath = index.getLibraryPath();
+        // Files indexed while resolving count as changed next time
+        long stamp = index.stamp();
+        List<Unresolved> missing = new ArrayList<Unresolved>();
+        Set<File> found = new LinkedHashSet<File>();
+        Deque<File> queue = new ArrayDeque<File>();
+        for (String name : includeNames) {
+            if (!resolve(name, dir, dir, libraryPath, queue)) {
+                missing.add(new Unresolved(name, dir));
+            }
+        }
+        while (!queue.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Keep the old list;  the next run will finish the job
+                return;
+            }
+            File file = queue.poll();
+            if (found.add(file)) {
+                for (String name : index.getIncludes(file)) {
+                    if (!resolve(name, file.getParentFile(), dir, libraryPath, queue)) {
+                        missing.add(new Unresolved(name, file.getParentFile()));
+                    }
+                }
+            }
+        }
+        includes = new ArrayList<File>(found);
+        resolvedDir = dir;
+        resolvedNames = includeNames;
+        resolvedPath = libraryPath;
+        resolvedStamp = stamp;
+        unresolved = missing;
+    }
+
+    /**
+     * Look up an included file.
+     *
+     * @return Whether it was found
+     */
+    private static boolean resolve(String name, File dir, File documentDir, List<File> libraryPath, Deque<File> into) {
+        File file = new File(name);
+        if (!file.isAbsolute()) {
+            file = new File(dir, name);
+            if (!file.isFile()) {
+                file = new File(documentDir, name);
+            }
+            for (int i = 0; i < libraryPath.size() && !file.isFile(); i++) {
+                File lib = libraryPath.get(i);
+                file = new File(lib.isAbsolute() ? lib : new File(documentDir, lib.getPath()), name);
+            }
+        }
+        if (file.isFile()) {
+            into.add(FileUtil.normalizeFile(file));
+            return true;
+        }
+        return false;
+    }
+
+    private static File file(Document doc) {
+        Object o = doc.getProperty(Document.StreamDescriptionProperty);
+        if (o instanceof DataObject) {
+            return FileUtil.toFile(((DataObject) o).getPrimaryFile());
+        }
+        return null;
+    }
+
+    private static final class Unresolved {
+
+        final String name;
+        final File dir;
+
+        Unresolved(String name, File dir) {
+            this.name = name;
+            this.dir = dir;
+        }
+    }
+
+    private static final class Definition {
+
+        final Keywords kind;
+        int count = 1;
+
+        Definition(Keywords kind) {
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * The names defined and files included by a top-level node.
+     */
+    private static final class NodeSymbols {
+
+        final List<String> names = new ArrayList<String>(2);
+        final List<Keywords> kinds = new ArrayList<Keywords>(2);
+        final List<String> includes = new ArrayList<String>(1);
+
+        NodeSymbols(SceneNode node) {
+            add(node);
+        }
+
+        private void add(SceneNode node) {
+            if (node.getKind() == Kind.DIRECTIVE && node.getName() != null) {
+                if (node.getKeyword() == Keywords.include) {
+                    includes.add(node.getName());
+                } else {
+                    names.add(node.getName());
+                    kinds.add(node.getKeyword());
+                }
+            }
+            for (SceneNode kid : node.children) {
+                add(kid);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Arrays;
+
+/**
+ * Scores names against an abbreviation.  The characters of the query must
+ * appear in the name in order, the first of them at the start of a segment - the name itself, a part after an underscore or a
+ * capital after a lowercase letter.  Matches at segment starts and runs
+ * of consecutive matches score higher, gaps and unmatched characters
+ * lower, so mtl finds max_trace_level, ph_s finds phong_size and a plain
+ * prefix scores best of all.  Case is ignored for keywords;  declared names
+ * match case-sensitively, as POV-Ray does.
+ * <p>
+ * Candidates are found through an index of the characters segments start
+ * with, ignoring case, computed by index();  a matcher reuses its scratch space and is
+ * not thread-safe.
+ *
+ * @author Tim Boudreau
+ */
+final class FuzzyMatcher {
+
+    static final int NO_MATCH = Integer.MIN_VALUE;
+    static final int BUCKETS = 128;
+    private static final int START = 16;
+    private static final int SEGMENT = 12;
+    private static final int CONSECUTIVE = 8;
+    private static final int GAP = 2;
+    private static final int[] NONE = new int[0];
+    private final char[] query;
+    private final boolean ignoreCase;
+    private int[] prev = new int[32];
+    private int[] cur = new int[32];
+
+    FuzzyMatcher(CharSequence query) {
+        this(query, true);
+    }
+
+    /**
+     * @param ignoreCase False to match the case of the query exactly
+     */
+    FuzzyMatcher(CharSequence query, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.query = new char[query.length()];
+        for (int i = 0; i < this.query.length; i++) {
+            this.query[i] = key(query.charAt(i));
+        }
+    }
+
+    /**
+     * Get the index bucket a candidate must be in:  that of the first
+     * character of the query.
+     */
+    int bucket() {
+        return query.length == 0 ? 0 : bucket(query[0]);
+    }
+
+    static int bucket(char c) {
+        c = fold(c);
+        return c < BUCKETS ? c : 0;
+    }
+
+    private static char fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c < 128 ? c : Character.toLowerCase(c);
+    }
+
+    private char key(char c) {
+        return ignoreCase ? fold(c) : c;
+    }
+
+    static boolean isSegmentStart(CharSequence name, int i) {
+        if (i == 0) {
+            return true;
+        }
+        char prev = name.charAt(i - 1);
+        char c = name.charAt(i);
+        return prev == '_' || (Character.isUpperCase(c) && Character.isLowerCase(prev))
+                || (Character.isDigit(c) && !Character.isDigit(prev));
+    }
+
+    /**
+     * Index names by the buckets of the characters their segments start
+     * with.
+     *
+     * @return For each bucket, the indices of the names in it, ascending
+     */
+    static int[][] index(CharSequence[] names) {
+        int[] counts = new int[BUCKETS];
+        boolean[] seen = new boolean[BUCKETS];
+        for (CharSequence name : names) {
+            Arrays.fill(seen, false);
+            for (int i = 0; i < name.length(); i++) {
+                if (isSegmentStart(name, i)) {
+                    int b = bucket(name.charAt(i));
+                    if (!seen[b]) {
+                        seen[b] = true;
+                        counts[b]++;
+                    }
+                }
+            }
+        }
+        int[][] result = new int[BUCKETS][];
+        for (int b = 0; b < BUCKETS; b++) {
+            result[b] = counts[b] == 0 ? NONE : new int[counts[b]];
+            counts[b] = 0;
+        }
+        for (int n = 0; n < names.length; n++) {
+            Arrays.fill(seen, false);
+            CharSequence name = names[n];
+            for (int i = 0; i < name.length(); i++) {
+                if (isSegmentStart(name, i)) {
+                    int b = bucket(name.charAt(i));
+                    if (!seen[b]) {
+                        seen[b] = true;
+                        result[b][counts[b]++] = n;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the buckets of the characters a name's segments start with.
+     */
+    static boolean[] initials(CharSequence name) {
+        boolean[] result = new boolean[BUCKETS];
+        for (int i = 0; i < name.length(); i++) {
+            if (isSegmentStart(name, i)) {
+                result[bucket(name.charAt(i))] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Score a name.
+     *
+     * @return The score, higher for better matches, or NO_MATCH
+     */
+    int score(CharSequence name) {
+        int n = name.length();
+        int m = query.length;
+        if (m == 0) {
+            return 0;
+        }
+        if (m > n) {
+            return NO_MATCH;
+        }
+        if (cur.length < n) {
+            prev = new int[n];
+            cur = new int[n];
+        }
+        // cur[j] is the best score with the current query character
+        // matched at j
+        for (int j = 0; j < n; j++) {
+            cur[j] = key(name.charAt(j)) == query[0] && isSegmentStart(name, j)
+                    ? bonus(name, j) : NO_MATCH;
+        }
+        for (int i = 1; i < m; i++) {
+            int[] swap = prev;
+            prev = cur;
+            cur = swap;
+            char q = query[i];
+            // Best score with the previous character matched before j - 1
+            int best = NO_MATCH;
+            boolean any = false;
+            for (int j = 0; j < n; j++) {
+                if (j >= 2 && prev[j - 2] > best) {
+                    best = prev[j - 2];
+                }
+                int s = NO_MATCH;
+                if (key(name.charAt(j)) == q) {
+                    if (j >= 1 && prev[j - 1] != NO_MATCH) {
+                        s = prev[j - 1] + CONSECUTIVE;
+                    }
+                    if (best != NO_MATCH && best - GAP > s) {
+                        s = best - GAP;
+                    }
+                    if (s != NO_MATCH) {
+                        s += bonus(name, j);
+                        any = true;
+                    }
+                }
+                cur[j] = s;
+            }
+            if (!any) {
+                return NO_MATCH;
+            }
+        }
+        int result = NO_MATCH;
+        for (int j = 0; j < n; j++) {
+            result = Math.max(result, cur[j]);
+        }
+        return result == NO_MATCH ? NO_MATCH : result - (n - m);
+    }
+
+    private static int bonus(CharSequence name, int j) {
+        return j == 0 ? START : isSegmentStart(name, j) ? SEGMENT : 0;
+    }
+}
@@ -0,0 +1,337 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Documentation of keywords, for completion popups and tooltips.  It is
+ * bundled as keywords.doc, compiled from src/main/docs/keywords.txt:  a
+ * table of the keywords with the lengths of their entries, followed by
+ * the entries, each deflated on its own against a dictionary of words
+ * common to all of them.  Nothing is read until
+ * documentation is first asked for;  then the table is read once, and
+ * each entry when it is shown, through a small cache of the most
+ * recently shown ones.
+ *
+ * @author Tim Boudreau
+ */
+final class KeywordDocs {
+
+    static final String RESOURCE = "keywords.doc";
+    private static final int MAGIC = 0x504f5644;
+    private static final int VERSION = 1;
+    private static final int CACHE_SIZE = 32;
+    private static final int DICTIONARY_SIZE = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Logger LOG = Logger.getLogger(KeywordDocs.class.getName());
+    private static KeywordDocs instance;
+    // Per keyword ordinal, the offset of its entry from the start of the
+    // entries, or -1, and the entry's deflated and inflated lengths
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] sizes;
+    // Words common to many entries, preset for deflating each of them
+    private final byte[] dictionary;
+    private final int start;
+    // Guarded by itself
+    private final Map<Keywords, Doc> cache = new LinkedHashMap<Keywords, Doc>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Keywords, Doc> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private KeywordDocs(int[] offsets, int[] lengths, int[] sizes, byte[] dictionary, int start) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.sizes = sizes;
+        this.dictionary = dictionary;
+        this.start = start;
+    }
+
+    static synchronized KeywordDocs getDefault() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static KeywordDocs load() {
+        int count = Keywords.values().length;
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int[] sizes = new int[count];
+        Arrays.fill(offsets, -1);
+        byte[] dictionary = new byte[0];
+        int start = 0;
+        InputStream stream = KeywordDocs.class.getResourceAsStream(RESOURCE);
+        if (stream == null) {
+            LOG.log(Level.WARNING, "Missing {0}", RESOURCE);
+        } else {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a keyword documentation file");
+                }
+                int tableLength = in.readInt();
+                int entries = SymbolIndex.readVarInt(in);
+                dictionary = new byte[SymbolIndex.readVarInt(in)];
+                in.readFully(dictionary);
+                int offset = 0;
+                String name = "";
+                for (int i = 0; i < entries; i++) {
+                    name = name.substring(0, SymbolIndex.readVarInt(in)) + in.readUTF();
+                    // Keywords the enum no longer has are skipped
+                    Keywords keyword = Keywords.match(name);
+                    int length = SymbolIndex.readVarInt(in);
+                    int size = SymbolIndex.readVarInt(in);
+                    if (keyword != null) {
+                        offsets[keyword.ordinal()] = offset;
+                        lengths[keyword.ordinal()] = length;
+                        sizes[keyword.ordinal()] = size;
+                    }
+                    offset += length;
+                }
+                start = 12 + tableLength;
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Could not read " + RESOURCE, ex);
+                Arrays.fill(offsets, -1);
+            }
+        }
+        return new KeywordDocs(offsets, lengths, sizes, dictionary, start);
+    }
+
+    /**
+     * Get the documentation of a keyword.
+     *
+     * @return The documentation, or null if there is none
+     */
+    Doc get(Keywords keyword) {
+        int ix = keyword.ordinal();
+        if (offsets[ix] < 0) {
+            return null;
+        }
+        synchronized (cache) {
+            Doc result = cache.get(keyword);
+            if (result == null) {
+                try {
+                    result = read(ix);
+                } catch (IOException | DataFormatException ex) {
+                    LOG.log(Level.WARNING, "Could not read documentation of " + keyword, ex);
+                    return null;
+                }
+                cache.put(keyword, result);
+            }
+            return result;
+        }
+    }
+
+    private Doc read(int ix) throws IOException, DataFormatException {
+        byte[] deflated = new byte[lengths[ix]];
+        try (DataInputStream in = new DataInputStream(KeywordDocs.class.getResourceAsStream(RESOURCE))) {
+            long skip = (long) start + offsets[ix];
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new IOException("Truncated " + RESOURCE);
+                }
+                skip -= skipped;
+            }
+            in.readFully(deflated);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            byte[] bytes = new byte[sizes[ix]];
+            int read = 0;
+            while (read < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, read, bytes.length - read);
+                if (n == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated entry");
+                }
+                read += n;
+            }
+            String text = new String(bytes, 0, read, UTF_8);
+            int nl = text.indexOf('\n');
+            return nl < 0 ? new Doc(text, "") : new Doc(text.substring(0, nl), text.substring(nl + 1));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Write the documentation resource.
+     *
+     * @param docs Keyword spellings to a line of syntax and a
+     * description
+     */
+    static void write(Map<String, Doc> docs, OutputStream out) throws IOException {
+        // Sorted, consecutive keywords often share a prefix, which is
+        // written once
+        Map<String, Doc> entries = new TreeMap<String, Doc>(docs);
+        List<byte[]> texts = new ArrayList<byte[]>(entries.size());
+        for (Doc doc : entries.values()) {
+            texts.add((doc.getSyntax() + '\n' + doc.getText()).getBytes(UTF_8));
+        }
+        byte[] dictionary = dictionary(entries.values());
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ByteArrayOutputStream bodies = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        SymbolIndex.writeVarInt(tableOut, entries.size());
+        SymbolIndex.writeVarInt(tableOut, dictionary.length);
+        tableOut.write(dictionary);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] buffer = new byte[4096];
+        try {
+            int i = 0;
+            String prev = "";
+            for (String keyword : entries.keySet()) {
+                byte[] bytes = texts.get(i++);
+                deflater.reset();
+                deflater.setDictionary(dictionary);
+                deflater.setInput(bytes);
+                deflater.finish();
+                int offset = bodies.size();
+                while (!deflater.finished()) {
+                    bodies.write(buffer, 0, deflater.deflate(buffer));
+                }
+                int common = 0;
+                int max = Math.min(prev.length(), keyword.length());
+                while (common < max && prev.charAt(common) == keyword.charAt(common)) {
+                    common++;
+                }
+                SymbolIndex.writeVarInt(tableOut, common);
+                tableOut.writeUTF(keyword.substring(common));
+                prev = keyword;
+                SymbolIndex.writeVarInt(tableOut, bodies.size() - offset);
+                SymbolIndex.writeVarInt(tableOut, bytes.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        tableOut.flush();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(table.size());
+        table.writeTo(dataOut);
+        bodies.writeTo(dataOut);
+        dataOut.flush();
+    }
+
+    /**
+     * Pick the words which save the most when every entry can refer to
+     * them, up to DICTIONARY_SIZE bytes;  the most useful go last, where
+     * deflate reaches them most cheaply.
+     */
+    private static byte[] dictionary(Collection<Doc> docs) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Doc doc : docs) {
+            for (String word : (doc.getSyntax() + ' ' + doc.getText()).split(" ")) {
+                if (word.length() > 2) {
+                    Integer count = counts.get(word);
+                    counts.put(word, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<String> words = new ArrayList<String>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 1) {
+                words.add(e.getKey());
+            }
+        }
+        Collections.sort(words, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(counts.get(b) * b.length(), counts.get(a) * a.length());
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        for (String word : words) {
+            if (sb.length() + word.length() + 1 > DICTIONARY_SIZE) {
+                break;
+            }
+            sb.insert(0, word + ' ');
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * The documentation of one keyword.
+     */
+    static final class Doc {
+
+        private final String syntax;
+        private final String text;
+
+        Doc(String syntax, String text) {
+            this.syntax = syntax;
+            this.text = text;
+        }
+
+        /**
+         * Get a line showing how the keyword is used, such as
+         * sphere { &lt;CENTER&gt;, RADIUS }.
+         */
+        String getSyntax() {
+            return syntax;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        String toHtml() {
+            return "<pre><b>" + escape(syntax) + "</b></pre><p>" + escape(text) + "</p>";
+        }
+
+        private static String escape(String s) {
+            return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable array-based trie over the spellings of all Keywords, shared by
+ * the lexer and code completion.  Lookups walk one node per character and
+ * do not allocate;  each node also knows the range of keywords (in sorted
+ * order) which start with the prefix it represents, so prefix queries do
+ * not scan the whole enum.
+ *
+ * @author Tim Boudreau
+ */
+final class KeywordTrie {
+
+    private static final KeywordTrie INSTANCE = new KeywordTrie(Keywords.values());
+    private final Keywords[] sorted;
+    private final List<Keywords> sortedList;
+    // Position of each keyword in sorted, by ordinal
+    private final int[] positions;
+    // Positions of the keywords by the characters their segments start
+    // with, for fuzzy matching
+    private final int[][] initials;
+    // Per node:  keyword ordinal ending here or -1, the range of sorted
+    // keywords below this node, and the node's outgoing edges
+    private final int[] keyword;
+    private final int[] first;
+    private final int[] last;
+    private final int[] edgeStart;
+    private final int[] edgeCount;
+    // Per edge, sorted by label within a node
+    private final char[] labels;
+    private final int[] targets;
+    private int nodeCount;
+    private int edgeTotal;
+
+    private KeywordTrie(Keywords[] keywords) {
+        sorted = keywords.clone();
+        Arrays.sort(sorted, new Comparator<Keywords>() {
+            @Override
+            public int compare(Keywords a, Keywords b) {
+                return a.toString().compareTo(b.toString());
+            }
+        });
+        sortedList = Collections.unmodifiableList(Arrays.asList(sorted));
+        positions = new int[sorted.length];
+        String[] spellings = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            positions[sorted[i].ordinal()] = i;
+            spellings[i] = sorted[i].toString();
+        }
+        initials = FuzzyMatcher.index(spellings);
+        int maxNodes = 1;
+        for (Keywords k : keywords) {
+            maxNodes += k.toString().length();
+        }
+        keyword = new int[maxNodes];
+        first = new int[maxNodes];
+        last = new int[maxNodes];
+        edgeStart = new int[maxNodes];
+        edgeCount = new int[maxNodes];
+        labels = new char[maxNodes];
+        targets = new int[maxNodes];
+        build(0, sorted.length, 0);
+    }
+
+    static KeywordTrie getDefault() {
+        return INSTANCE;
+    }
+
+    private int build(int lo, int hi, int depth) {
+        int node = nodeCount++;
+        first[node] = lo;
+        last[node] = hi;
+        keyword[node] = -1;
+        if (lo < hi && sorted[lo].toString().length() == depth) {
+            // sorts before any longer keyword sharing the prefix
+            keyword[node] = sorted[lo].ordinal();
+            lo++;
+        }
+        int count = 0;
+        for (int i = lo; i < hi; i = groupEnd(i, hi, depth)) {
+            count++;
+        }
+        int e = edgeTotal;
+        edgeStart[node] = e;
+        edgeCount[node] = count;
+        edgeTotal += count;
+        for (int i = lo; i < hi;) {
+            int j = groupEnd(i, hi, depth);
+            labels[e] = sorted[i].toString().charAt(depth);
+            targets[e++] = build(i, j, depth + 1);
+            i = j;
+        }
+        return node;
+    }
+
+    private int groupEnd(int i, int hi, int depth) {
+        char c = sorted[i].toString().charAt(depth);
+        int j = i + 1;
+        while (j < hi && sorted[j].toString().charAt(depth) == c) {
+            j++;
+        }
+        return j;
+    }
+
+    private static char fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c < 128 ? c : Character.toLowerCase(c);
+    }
+
+    private int child(int node, char c) {
+        for (int e = edgeStart[node], max = e + edgeCount[node]; e < max; e++) {
+            char label = labels[e];
+            if (label == c) {
+                return targets[e];
+            } else if (label > c) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private int node(CharSequence s, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end && node >= 0; i++) {
+            node = child(node, fold(s.charAt(i)));
+        }
+        return node;
+    }
+
+    /**
+     * Find the ordinal of the keyword spelled by a range of characters,
+     * ignoring case.
+     *
+     * @return The ordinal, or -1
+     */
+    int ordinal(CharSequence s, int start, int end) {
+        int node = node(s, start, end);
+        return node < 0 ? -1 : keyword[node];
+    }
+
+    /**
+     * Get the keywords starting with a prefix, ignoring case, in
+     * alphabetical order.  The result is a view, not a copy.
+     */
+    List<Keywords> withPrefix(CharSequence prefix) {
+        int node = node(prefix, 0, prefix.length());
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return sortedList.subList(first[node], last[node]);
+    }
+
+    /**
+     * Get the position of a keyword in alphabetical order, for sets of
+     * keywords passed to withPrefix(CharSequence, BitSet).
+     */
+    int position(Keywords keyword) {
+        return positions[keyword.ordinal()];
+    }
+
+    /**
+     * Get the keywords starting with a prefix, ignoring case, which are in
+     * a set, in alphabetical order.
+     *
+     * @param allowed The positions of the keywords in the set
+     */
+    List<Keywords> withPrefix(CharSequence prefix, BitSet allowed) {
+        int node = node(prefix, 0, prefix.length());
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        List<Keywords> result = new ArrayList<Keywords>();
+        for (int i = allowed.nextSetBit(first[node]); i >= 0 && i < last[node]; i = allowed.nextSetBit(i + 1)) {
+            result.add(sorted[i]);
+        }
+        return result;
+    }
+
+    Keywords keyword(int position) {
+        return sorted[position];
+    }
+
+    /**
+     * Get the positions of the keywords which may match a fuzzy query.
+     *
+     * @param bucket The query's FuzzyMatcher.bucket()
+     */
+    int[] withInitial(int bucket) {
+        return initials[bucket];
+    }
+}
@@ -23,6 +23,8 @@
  */
 package org.netbeans.modules.povray.file.parsing;
 
+import java.util.List;
+
 /**
  *
  * @author tim
@@ -45,12 +47,13 @@ public enum Keywords implements TokenType {
     declare, $default, defined, degrees, density, density_file, density_map,
     dents, df3, difference, diffuse, dimension_size, dimensions, direction,
     disc, dispersion, dispersion_samples, dist_exp, distance, div,
-    double_illuminate, eccentricity, $else, emission, end, error, error_bound,
-    evaluate, exp, expand_thresholds, exponent, exterior, extinction,
+    double_illuminate, eccentricity, $else, elseif, emission, end, error,
+    error_bound, evaluate, exp, expand_thresholds, exponent, exterior,
+    extinction,
     face_indices, facets, fade_color, fade_colour, fade_distance, fade_power,
     falloff, falloff_angle, $false, fclose, file_exists, filter, final_clock,
     final_frame, finish, fisheye, flatness, flip, floor, focal_point, fog,
-    fog_alt, fog_offset, fog_type, fopen, form, frame_number, frequency,
+    fog_alt, fog_offset, fog_type, fopen, $for, form, frame_number, frequency,
     fresnel, function, gather, gif, global_lights, global_settings, gradient,
     granite, gray, gray_threshold, green, height_field, hexagon, hf_gray_16,
     hierarchy, hypercomplex, hollow, $if, ifdef, iff, ifndef, image_height,
@@ -92,27 +95,66 @@ public enum Keywords implements TokenType {
     vertex_vectors, vlength, vnormalize, vrotate, vstr, vturbulence, warning,
     warp, water_level, waves, $while, width, wood, wrinkles, write;
 
+    private static final Keywords[] VALUES = values();
+    private final String spelling;
+
+    Keywords() {
+        String name = name();
+        spelling = name.startsWith("$") ? name.substring(1) : name;
+    }
+
     @Override
     public String toString() {
-        if (name().startsWith("$")) {
-            return name().substring(1);
-        }
-        return name();
+        return spelling;
     }
 
     public boolean matches(String s) {
-        s = s.toLowerCase();
-        return toString().equals(s);
+        return matches((CharSequence) s);
     }
 
-    public static Keywords match(String s) {
-        s = s.trim();
-        for (Keywords k : values()) {
-            if (k.matches(s)) {
-                return k;
+    /**
+     * Case-insensitive comparison which does not copy the passed text.
+     */
+    boolean matches(CharSequence s) {
+        int len = spelling.length();
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (Character.toLowerCase(s.charAt(i)) != spelling.charAt(i)) {
+                return false;
             }
         }
-        return null;
+        return true;
+    }
+
+    public static Keywords match(String s) {
+        return match((CharSequence) s.trim());
+    }
+
+    /**
+     * Find the keyword for some text without allocating, for use on the
+     * lexer's hot path.  Unlike match(String), the text is not trimmed.
+     */
+    public static Keywords match(CharSequence s) {
+        return match(s, 0, s.length());
+    }
+
+    /**
+     * Find the keyword spelled by a range of characters, in time
+     * proportional to the length of the range.
+     */
+    public static Keywords match(CharSequence s, int start, int end) {
+        int ordinal = KeywordTrie.getDefault().ordinal(s, start, end);
+        return ordinal < 0 ? null : VALUES[ordinal];
+    }
+
+    /**
+     * Get all keywords starting with the passed prefix, ignoring case, in
+     * alphabetical order.
+     */
+    public static List<Keywords> withPrefix(CharSequence prefix) {
+        return KeywordTrie.getDefault().withPrefix(prefix);
     }
 
     public boolean isVisualAttribute() {
@@ -153,6 +195,7 @@ public enum Keywords implements TokenType {
             case end:
             case $if:
             case $while:
+            case $for:
             case declare:
             case macro:
             case local:
@@ -160,6 +203,23 @@ public enum Keywords implements TokenType {
             case ifndef:
             case $switch:
             case $default:
+            case $case:
+            case $break:
+            case $else:
+            case elseif:
+            case range:
+            case include:
+            case undef:
+            case version:
+            case debug:
+            case warning:
+            case error:
+            case render:
+            case statistics:
+            case fopen:
+            case fclose:
+            case read:
+            case write:
                 return true;
             default :
                 return false;
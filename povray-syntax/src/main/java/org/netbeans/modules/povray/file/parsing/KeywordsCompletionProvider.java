@@ -27,12 +27,26 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.event.KeyEvent;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.Action;
 import javax.swing.ImageIcon;
+import javax.swing.JToolTip;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import org.netbeans.api.editor.completion.Completion;
 import org.netbeans.api.editor.mimelookup.MimeRegistration;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.netbeans.spi.editor.completion.CompletionDocumentation;
 import org.netbeans.spi.editor.completion.CompletionItem;
 import org.netbeans.spi.editor.completion.CompletionProvider;
 import org.netbeans.spi.editor.completion.CompletionResultSet;
@@ -44,134 +58,422 @@ import org.openide.util.Exceptions;
 import org.openide.util.ImageUtilities;
 
 /**
+ * Completes keywords and declared names.  The word being completed is the
+ * part of the token at the caret before it, matched fuzzily by FuzzyMatcher
+ * with the best matches first - keywords ignoring case, declared names
+ * not;  once a query has run, typing more of the word narrows its results
+ * instead of querying again.
  *
  * @author Tim Boudreau
  */
 @MimeRegistration(mimeType = "text/x-povray", service = CompletionProvider.class)
 public class KeywordsCompletionProvider implements CompletionProvider {
 
-    private static String findCurrentWord(JTextComponent jtc) {
-        int pos = jtc.getCaretPosition() - 1;
-        Document d = jtc.getDocument();
-        StringBuilder sb = new StringBuilder();
-        for (;;) {
-            try {
-                String s = d.getText(pos, 1);
-                if (Character.isWhitespace(s.charAt(0))) {
-                    break;
+    private static final Logger LOG = Logger.getLogger(KeywordsCompletionProvider.class.getName());
+    private static final int MAX_SYMBOLS = 500;
+    // Queries stop looking for more names after this long
+    static final long BUDGET_MILLIS = 50;
+    private static final ImageIcon ICON = ImageUtilities.loadImageIcon("org/netbeans/modules/povray/file/favicon.png", true);
+
+    /**
+     * Find the word before the caret.
+     *
+     * @return The word, or null if the caret is not at or in a keyword,
+     * name or directive
+     */
+    static Word findCurrentWord(final Document doc, final int caret) {
+        final Word[] result = new Word[1];
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+                if (hierarchy == null || caret <= 0) {
+                    return;
+                }
+                TokenSequence<PovTokenId> seq = hierarchy.tokenSequence(PovTokenId.getLanguage());
+                seq.move(caret - 1);
+                if (!seq.moveNext()) {
+                    return;
+                }
+                Token<PovTokenId> token = seq.token();
+                switch (token.id()) {
+                    case keyword:
+                    case identifier:
+                    case pound:
+                        CharSequence text = token.text();
+                        result[0] = new Word(seq.offset(), text.subSequence(0, caret - seq.offset()).toString());
+                        break;
+                    default:
+                        break;
                 }
-                sb.insert(0, s);
-                pos--;
-            } catch (BadLocationException ex) {
-                return null;
             }
-        }
-        if (sb.length() == 0) {
-            return null;
-        }
-        return sb.toString();
+        });
+        return result[0];
     }
 
     @Override
     public CompletionTask createTask(int completionType, JTextComponent jtc) {
         switch (completionType) {
             case COMPLETION_QUERY_TYPE:
-                final String test = findCurrentWord(jtc);
-                if (test == null) {
-                    return createTask(completionType + 1, jtc);
+            case COMPLETION_ALL_QUERY_TYPE:
+                return new AsyncCompletionTask(new Query(), jtc);
+            case DOCUMENTATION_QUERY_TYPE:
+                return new AsyncCompletionTask(new DocumentationQuery(null, false), jtc);
+            case TOOLTIP_QUERY_TYPE:
+                return new AsyncCompletionTask(new DocumentationQuery(null, true), jtc);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Find the keyword or directive the caret is in or just after.
+     *
+     * @return The keyword, or null
+     */
+    static Keywords findKeyword(final Document doc, final int caret) {
+        final Keywords[] result = new Keywords[1];
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+                if (hierarchy == null) {
+                    return;
                 }
-                return new AsyncCompletionTask(new AsyncCompletionQuery() {
-                    @Override
-                    protected void query(CompletionResultSet crs, Document dcmnt, int i) {
-                        boolean onlyHash = "#".equals(test);
-                        boolean isHash = test.startsWith("#");
-                        for (Keywords keyword : Keywords.values()) {
-                            String s = keyword.toString();
-                            if (onlyHash) {
-                                if (keyword.occursAfterHash()) {
-                                    crs.addItem(new KeywordCompletionItem(keyword));
-                                }
-                            } else {
-                                String tst = test;
-                                if (isHash) {
-                                    tst = test.substring(1);
-                                }
-                                if (s.startsWith(tst)) {
-                                    crs.addItem(new KeywordCompletionItem(keyword));
-                                }
-                            }
-                        }
-                        crs.finish();
-                    }
-                });
+                TokenSequence<PovTokenId> seq = hierarchy.tokenSequence(PovTokenId.getLanguage());
+                seq.move(caret);
+                if (seq.moveNext()) {
+                    result[0] = keyword(seq.token());
+                }
+                // At the end of a word, the token at the caret is the next one
+                seq.move(caret);
+                if (result[0] == null && seq.movePrevious() && seq.offset() + seq.token().length() == caret) {
+                    result[0] = keyword(seq.token());
+                }
+            }
+        });
+        return result[0];
+    }
+
+    private static Keywords keyword(Token<PovTokenId> token) {
+        CharSequence text = token.text();
+        switch (token.id()) {
+            case keyword:
+                return Keywords.match(text);
+            case pound:
+                // A directive's token runs to whitespace, as in #if(
+                int end = 1;
+                while (end < text.length() && (Character.isLetter(text.charAt(end)) || text.charAt(end) == '_')) {
+                    end++;
+                }
+                return Keywords.match(text, 1, end);
             default:
-                return new AsyncCompletionTask(new AsyncCompletionQuery() {
-                    @Override
-                    protected void query(CompletionResultSet crs, Document dcmnt, int i) {
-                        for (Keywords keyword : Keywords.values()) {
-                            crs.addItem(new KeywordCompletionItem(keyword));
-                        }
-                        crs.finish();
+                return null;
+        }
+    }
+
+    static List<CompletionItem> keywordItems(String test) {
+        return keywordItems(test, null);
+    }
+
+    /**
+     * Find the keywords which can complete a word.  A directive or an
+     * empty word is completed by prefix, anything else fuzzily.
+     *
+     * @param test The word before the caret, possibly starting with #
+     * @param allowed The keywords which can appear at the caret, from
+     * BlockGrammar, or null for all;  not applied to directives
+     * @return The completion items
+     */
+    static List<CompletionItem> keywordItems(String test, BitSet allowed) {
+        List<CompletionItem> result = new ArrayList<CompletionItem>();
+        boolean onlyHash = "#".equals(test);
+        boolean isHash = test.startsWith("#");
+        if (onlyHash) {
+            for (Keywords keyword : Keywords.values()) {
+                if (keyword.occursAfterHash()) {
+                    result.add(new KeywordCompletionItem(keyword, 0));
+                }
+            }
+        } else if (isHash || test.isEmpty()) {
+            String tst = isHash ? test.substring(1) : test;
+            List<Keywords> keywords = isHash || allowed == null ? Keywords.withPrefix(tst)
+                    : KeywordTrie.getDefault().withPrefix(tst, allowed);
+            for (Keywords keyword : keywords) {
+                result.add(new KeywordCompletionItem(keyword, 0));
+            }
+        } else {
+            FuzzyMatcher matcher = new FuzzyMatcher(test);
+            KeywordTrie trie = KeywordTrie.getDefault();
+            for (int position : trie.withInitial(matcher.bucket())) {
+                if (allowed == null || allowed.get(position)) {
+                    Keywords keyword = trie.keyword(position);
+                    int score = matcher.score(keyword.toString());
+                    if (score != FuzzyMatcher.NO_MATCH) {
+                        result.add(new KeywordCompletionItem(keyword, score));
                     }
-                });
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the names declared in a document or the files it includes which
+     * fuzzily match a word.
+     *
+     * @param deadline The System.nanoTime() after which to stop looking in
+     * included files
+     */
+    static List<CompletionItem> symbolItems(Document doc, String test, long deadline) {
+        List<CompletionItem> result = new ArrayList<CompletionItem>();
+        if (!test.startsWith("#")) {
+            FuzzyMatcher matcher = new FuzzyMatcher(test, false);
+            for (Map.Entry<String, Keywords> e : DocumentSymbols.forDocument(doc).matching(matcher, MAX_SYMBOLS, deadline).entrySet()) {
+                result.add(new SymbolCompletionItem(e.getKey(), e.getValue(), matcher.score(e.getKey())));
+            }
         }
+        return result;
     }
 
+    /**
+     * Open completion automatically when typing a directive, or the second
+     * character of a word, outside comments and strings.
+     */
     @Override
-    public int getAutoQueryTypes(JTextComponent jtc, String string) {
-        return 0;
+    public int getAutoQueryTypes(JTextComponent jtc, String typedText) {
+        if (typedText.length() != 1) {
+            return 0;
+        }
+        char c = typedText.charAt(0);
+        if (c != '#' && c != '_' && !Character.isLetter(c)) {
+            return 0;
+        }
+        Word word = findCurrentWord(jtc.getDocument(), jtc.getCaretPosition());
+        if (word == null || !word.text.endsWith(typedText)) {
+            return 0;
+        }
+        return word.text.startsWith("#") || word.text.length() >= 2 ? COMPLETION_QUERY_TYPE : 0;
     }
 
-    private static final class KeywordCompletionItem implements CompletionItem {
+    /**
+     * The word before the caret, and where it starts.
+     */
+    static final class Word {
 
-        private final Keywords keyword;
+        final int start;
+        final String text;
 
-        public KeywordCompletionItem(Keywords keyword) {
-            this.keyword = keyword;
+        Word(int start, String text) {
+            this.start = start;
+            this.text = text;
+        }
+
+        /**
+         * Get the offset of the text completion replaces - after the # of
+         * a directive.
+         */
+        int anchor() {
+            return text.startsWith("#") ? start + 1 : start;
+        }
+
+        /**
+         * Get the word without the # of a directive.
+         */
+        String prefix() {
+            return text.startsWith("#") ? text.substring(1) : text;
         }
+    }
+
+    private static final class Query extends AsyncCompletionQuery {
+
+        private Word word;
+        private List<PovCompletionItem> items;
+        private boolean complete;
+        private Word filterWord;
 
         @Override
-        public void defaultAction(JTextComponent jtc) {
-            try {
-                String w = findCurrentWord(jtc);
-                String toInsert = keyword.toString();
-                if (w != null && w.length() > 0) {
-                    int off = w.length();
-                    if (off < toInsert.length()) {
-                        int start = w.startsWith("#") ? off - 1 : off;
-                        toInsert = toInsert.substring(start);
-                    }
+        protected void query(CompletionResultSet crs, Document dcmnt, int caret) {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(BUDGET_MILLIS);
+            Word w = findCurrentWord(dcmnt, caret);
+            String test = w == null ? "" : w.text;
+            List<PovCompletionItem> found = new ArrayList<PovCompletionItem>();
+            for (CompletionItem item : keywordItems(test, BlockGrammar.getDefault().allowedAt(dcmnt, caret))) {
+                found.add((PovCompletionItem) item);
+            }
+            // Narrowing a capped list could miss names ranked below the cap
+            boolean capped = false;
+            if (!test.isEmpty()) {
+                List<CompletionItem> symbols = symbolItems(dcmnt, test, deadline);
+                for (CompletionItem item : symbols) {
+                    found.add((PovCompletionItem) item);
                 }
-                if (keyword.isVisualAttribute()) {
-                    //XXX get current indent
-                    toInsert += " {\n}";
+                capped = symbols.size() >= MAX_SYMBOLS;
+            }
+            long elapsed = System.nanoTime() - start;
+            word = w;
+            items = found;
+            complete = !capped && elapsed <= TimeUnit.MILLISECONDS.toNanos(BUDGET_MILLIS);
+            if (!complete) {
+                LOG.log(Level.FINE, "Completion of {0} took {1} ms, results may be incomplete",
+                        new Object[]{test, TimeUnit.NANOSECONDS.toMillis(elapsed)});
+            }
+            crs.addAllItems(found);
+            crs.setAnchorOffset(w == null ? caret : w.anchor());
+            crs.finish();
+        }
+
+        /**
+         * The previous results can be narrowed if the caret is still in
+         * the same word and the word has only grown.
+         */
+        @Override
+        protected boolean canFilter(JTextComponent component) {
+            if (items == null || !complete) {
+                return false;
+            }
+            Word w = findCurrentWord(component.getDocument(), component.getCaretPosition());
+            if (w == null || word == null || w.start != word.start || !w.text.startsWith(word.text)) {
+                return false;
+            }
+            filterWord = w;
+            return true;
+        }
+
+        /**
+         * Narrow the previous results the way they were found - directives
+         * by prefix, ignoring case as KeywordTrie does, anything else
+         * fuzzily.
+         */
+        @Override
+        protected void filter(CompletionResultSet crs) {
+            String prefix = filterWord.prefix();
+            List<PovCompletionItem> narrowed = new ArrayList<PovCompletionItem>();
+            if (filterWord.text.startsWith("#")) {
+                for (PovCompletionItem item : items) {
+                    if (item.text().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                        narrowed.add(item);
+                    }
                 }
-                if (toInsert.length() >= 0) {
-                    jtc.getDocument().insertString(jtc.getCaretPosition(), toInsert + " ", null);
+            } else {
+                FuzzyMatcher keywords = new FuzzyMatcher(prefix);
+                FuzzyMatcher names = new FuzzyMatcher(prefix, false);
+                for (PovCompletionItem item : items) {
+                    FuzzyMatcher matcher = item instanceof SymbolCompletionItem ? names : keywords;
+                    int score = matcher.score(item.text());
+                    if (score != FuzzyMatcher.NO_MATCH) {
+                        narrowed.add(item.withScore(score));
+                    }
                 }
-                Completion.get().hideAll();
-            } catch (BadLocationException ex) {
-                Exceptions.printStackTrace(ex);
             }
+            word = filterWord;
+            items = narrowed;
+            crs.addAllItems(narrowed);
+            crs.setAnchorOffset(filterWord.anchor());
+            crs.finish();
+        }
+    }
+
+    /**
+     * Shows the documentation of a keyword, or of the keyword at the caret,
+     * from KeywordDocs.
+     */
+    private static final class DocumentationQuery extends AsyncCompletionQuery {
+
+        private final Keywords keyword;
+        private final boolean toolTip;
+
+        DocumentationQuery(Keywords keyword, boolean toolTip) {
+            this.keyword = keyword;
+            this.toolTip = toolTip;
         }
 
         @Override
-        public void processKeyEvent(KeyEvent ke) {
-            //do nothing
+        protected void query(CompletionResultSet crs, Document dcmnt, int caret) {
+            Keywords k = keyword == null ? findKeyword(dcmnt, caret) : keyword;
+            KeywordDocs.Doc doc = k == null ? null : KeywordDocs.getDefault().get(k);
+            if (doc != null && toolTip) {
+                JToolTip tip = new JToolTip();
+                tip.setTipText(doc.getSyntax());
+                crs.setToolTip(tip);
+            } else if (doc != null) {
+                crs.setDocumentation(new KeywordDocumentation(doc));
+            }
+            crs.finish();
+        }
+    }
+
+    private static final class KeywordDocumentation implements CompletionDocumentation {
+
+        private final KeywordDocs.Doc doc;
+
+        KeywordDocumentation(KeywordDocs.Doc doc) {
+            this.doc = doc;
         }
 
         @Override
-        public int getPreferredWidth(Graphics grphcs, Font font) {
-            return CompletionUtilities.getPreferredWidth(keyword.toString(), null, grphcs, font);
+        public String getText() {
+            return doc.toHtml();
         }
-        private final Color fieldColor = Color.BLACK;
-        private final ImageIcon fieldIcon = ImageUtilities.loadImageIcon("org/netbeans/modules/povray/file/favicon.png", true);
 
         @Override
-        public void render(Graphics g, Font defaultFont, Color defaultColor,
-                Color backgroundColor, int width, int height, boolean selected) {
-            CompletionUtilities.renderHtml(fieldIcon, keyword.toString(), null, g, defaultFont,
-                    (selected ? Color.white : fieldColor), width, height, selected);
+        public URL getURL() {
+            return null;
+        }
+
+        @Override
+        public CompletionDocumentation resolveLink(String link) {
+            return null;
+        }
+
+        @Override
+        public Action getGotoSourceAction() {
+            return null;
+        }
+    }
+
+    /**
+     * An item which replaces the word before the caret, ranked by how well
+     * it matches the word.
+     */
+    private abstract static class PovCompletionItem implements CompletionItem {
+
+        final int score;
+
+        PovCompletionItem(int score) {
+            this.score = score;
+        }
+
+        /**
+         * Get a copy of this item for a different match of a longer word.
+         */
+        abstract PovCompletionItem withScore(int score);
+
+        abstract String text();
+
+        String suffix() {
+            return "";
+        }
+
+        @Override
+        public void defaultAction(JTextComponent jtc) {
+            try {
+                Document doc = jtc.getDocument();
+                int caret = jtc.getCaretPosition();
+                Word w = findCurrentWord(doc, caret);
+                int start = w == null ? caret : w.anchor();
+                doc.remove(start, caret - start);
+                doc.insertString(start, text() + suffix(), null);
+                Completion.get().hideAll();
+            } catch (BadLocationException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        }
+
+        @Override
+        public void processKeyEvent(KeyEvent ke) {
+            //do nothing
         }
 
         @Override
@@ -191,17 +493,103 @@ public class KeywordsCompletionProvider implements CompletionProvider {
 
         @Override
         public int getSortPriority() {
-            return 0;
+            // Lower sorts first
+            return -score;
         }
 
         @Override
         public CharSequence getSortText() {
-            return keyword.toString();
+            return text();
         }
 
         @Override
         public CharSequence getInsertPrefix() {
-            return getSortText();
+            return text();
+        }
+    }
+
+    private static final class KeywordCompletionItem extends PovCompletionItem {
+
+        private final Keywords keyword;
+
+        KeywordCompletionItem(Keywords keyword, int score) {
+            super(score);
+            this.keyword = keyword;
+        }
+
+        @Override
+        PovCompletionItem withScore(int score) {
+            return new KeywordCompletionItem(keyword, score);
+        }
+
+        @Override
+        String text() {
+            return keyword.toString();
+        }
+
+        @Override
+        public CompletionTask createDocumentationTask() {
+            return new AsyncCompletionTask(new DocumentationQuery(keyword, false));
+        }
+
+        @Override
+        public CompletionTask createToolTipTask() {
+            return new AsyncCompletionTask(new DocumentationQuery(keyword, true));
+        }
+
+        @Override
+        String suffix() {
+            if (keyword.isVisualAttribute()) {
+                //XXX get current indent
+                return " {\n} ";
+            }
+            return " ";
+        }
+
+        @Override
+        public int getPreferredWidth(Graphics grphcs, Font font) {
+            return CompletionUtilities.getPreferredWidth(keyword.toString(), null, grphcs, font);
+        }
+
+        @Override
+        public void render(Graphics g, Font defaultFont, Color defaultColor,
+                Color backgroundColor, int width, int height, boolean selected) {
+            CompletionUtilities.renderHtml(ICON, keyword.toString(), null, g, defaultFont,
+                    (selected ? Color.white : Color.BLACK), width, height, selected);
+        }
+    }
+
+    private static final class SymbolCompletionItem extends PovCompletionItem {
+
+        private final String name;
+        private final Keywords kind;
+
+        SymbolCompletionItem(String name, Keywords kind, int score) {
+            super(score);
+            this.name = name;
+            this.kind = kind;
+        }
+
+        @Override
+        PovCompletionItem withScore(int score) {
+            return new SymbolCompletionItem(name, kind, score);
+        }
+
+        @Override
+        String text() {
+            return name;
+        }
+
+        @Override
+        public int getPreferredWidth(Graphics grphcs, Font font) {
+            return CompletionUtilities.getPreferredWidth(name, "#" + kind, grphcs, font);
+        }
+
+        @Override
+        public void render(Graphics g, Font defaultFont, Color defaultColor,
+                Color backgroundColor, int width, int height, boolean selected) {
+            CompletionUtilities.renderHtml(ICON, "<b>" + name + "</b>", "#" + kind, g, defaultFont,
+                    (selected ? Color.white : Color.BLACK), width, height, selected);
         }
     }
 }
@@ -0,0 +1,220 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.netbeans.modules.povray.file.parsing.PovScanner.State;
+import org.netbeans.modules.povray.file.parsing.PovTokenizer.TokenHandler;
+
+/**
+ * Tokenizes large in-memory sources in parallel.  The text is cut into
+ * chunks at line starts which are probably at top level - preferably lines
+ * beginning with a directive - and each chunk is lexed on the pool as if
+ * nothing were open at its start.
+ * <p>
+ * Chunks are stitched together in order.  Where the true lexer state at a
+ * chunk's start turns out to be inside a comment, string, vector or
+ * argument list, that chunk is re-lexed sequentially from the true state
+ * until it reaches a top-level token boundary the speculative lex also
+ * had;  from there on the two lexes are identical, so the rest of the
+ * chunk's tokens are used as-is.  The result is always exactly what a
+ * sequential lex produces.
+ *
+ * @author Tim Boudreau
+ */
+final class ParallelTokenizer {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    // How far past a chunk boundary to look for a line starting with #
+    private static final int SEEK_LIMIT = 4096;
+    private static final PovTokenId[] IDS = PovTokenId.values();
+    // Set in a token's code if the lexer state after it is top level
+    private static final byte TOP_LEVEL = (byte) 0x80;
+
+    private ParallelTokenizer() {
+        throw new AssertionError();
+    }
+
+    static void tokenize(CharSequence text, ForkJoinPool pool, TokenHandler handler, int chunkSize) {
+        List<Chunk> chunks = split(text, chunkSize);
+        if (chunks.size() < 2) {
+            PovTokenizer.tokenize(text, handler);
+            return;
+        }
+        for (Chunk chunk : chunks) {
+            pool.execute(chunk);
+        }
+        int offset = 0;
+        State state = null;
+        RangeScanner scanner = null;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            chunks.set(i, null);
+            chunk.join();
+            int first = 0;
+            if (offset != chunk.from || state != null) {
+                // The speculative lex of this chunk started from the wrong
+                // place or state;  relex until the two agree
+                if (scanner == null) {
+                    scanner = new RangeScanner(text);
+                }
+                scanner.reset(offset, state);
+                first = chunk.count;
+                while (offset < chunk.end) {
+                    PovTokenId id = scanner.next();
+                    if (id == null) {
+                        break;
+                    }
+                    handler.token(id, offset, scanner.pos - offset, text, offset);
+                    offset = scanner.pos;
+                    state = scanner.state();
+                    if (state == null) {
+                        int ix = chunk.indexOfEnd(offset);
+                        if (ix >= 0 && chunk.isTopLevelAfter(ix)) {
+                            first = ix + 1;
+                            break;
+                        }
+                    }
+                }
+                if (first == chunk.count) {
+                    continue;
+                }
+            }
+            chunk.emit(first, text, handler);
+            offset = chunk.end;
+            state = chunk.endState;
+        }
+    }
+
+    /**
+     * Cut the text into chunks of roughly the given size, at line starts.
+     */
+    static List<Chunk> split(CharSequence text, int chunkSize) {
+        List<Chunk> result = new ArrayList<Chunk>();
+        int length = text.length();
+        int from = 0;
+        while (from < length) {
+            int to = splitPoint(text, from + chunkSize);
+            result.add(new Chunk(text, from, to));
+            from = to;
+        }
+        return result;
+    }
+
+    private static int splitPoint(CharSequence text, int nominal) {
+        int length = text.length();
+        int lineStart = -1;
+        int limit = Math.min(length, nominal + SEEK_LIMIT);
+        for (int i = nominal; i < limit; i++) {
+            if (text.charAt(i - 1) == '\n') {
+                if (text.charAt(i) == '#') {
+                    return i;
+                }
+                if (lineStart < 0) {
+                    lineStart = i;
+                }
+            }
+        }
+        if (lineStart >= 0) {
+            return lineStart;
+        }
+        for (int i = limit; i < length; i++) {
+            if (text.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Lexes the text from a chunk's start, as if at top level, until the
+     * first token starting at or after the next chunk's start.  Tokens are
+     * recorded as their end offsets and id ordinals.
+     */
+    static final class Chunk extends RecursiveAction {
+
+        private final CharSequence text;
+        final int from;
+        private final int to;
+        private int[] ends;
+        private byte[] codes;
+        int count;
+        int end;
+        State endState;
+
+        Chunk(CharSequence text, int from, int to) {
+            this.text = text;
+            this.from = from;
+            this.to = to;
+            int estimate = Math.max(16, (to - from) / 4);
+            ends = new int[estimate];
+            codes = new byte[estimate];
+        }
+
+        @Override
+        protected void compute() {
+            RangeScanner scanner = new RangeScanner(text);
+            scanner.reset(from, null);
+            end = from;
+            while (end < to) {
+                PovTokenId id = scanner.next();
+                if (id == null) {
+                    break;
+                }
+                if (count == ends.length) {
+                    ends = Arrays.copyOf(ends, count * 2);
+                    codes = Arrays.copyOf(codes, count * 2);
+                }
+                end = scanner.pos;
+                ends[count] = end;
+                byte code = (byte) id.ordinal();
+                codes[count++] = scanner.state() == null ? (byte) (code | TOP_LEVEL) : code;
+            }
+            endState = scanner.state();
+        }
+
+        int indexOfEnd(int offset) {
+            return Arrays.binarySearch(ends, 0, count, offset);
+        }
+
+        boolean isTopLevelAfter(int index) {
+            return (codes[index] & TOP_LEVEL) != 0;
+        }
+
+        void emit(int first, CharSequence text, TokenHandler handler) {
+            int start = first == 0 ? from : ends[first - 1];
+            for (int i = first; i < count; i++) {
+                PovTokenId id = IDS[codes[i] & ~TOP_LEVEL];
+                handler.token(id, start, ends[i] - start, text, start);
+                start = ends[i];
+            }
+            ends = null;
+            codes = null;
+        }
+    }
+}
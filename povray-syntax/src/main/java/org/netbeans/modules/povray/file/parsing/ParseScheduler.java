@@ -0,0 +1,276 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs semantic tasks for a document in the background.  Each edit
+ * restarts a short delay, so a burst of typing results in one run;  an
+ * edit made while a run is in progress interrupts it, and the parser and
+ * well-behaved tasks give up as soon as they notice.  Runs for all
+ * documents share a small thread pool, and the document listener does no
+ * more than record the edit and reschedule, so typing is never slowed
+ * down by parsing.
+ *
+ * @author Tim Boudreau
+ */
+public final class ParseScheduler {
+
+    private static final Logger LOG = Logger.getLogger(ParseScheduler.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor("POV-Ray parsing", 2, true);
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    static final int DELAY = 300;
+    private final Document doc;
+    private final List<Task> tasks = new CopyOnWriteArrayList<Task>();
+    private final RequestProcessor.Task task;
+    private volatile SceneTree lastTree;
+    private volatile boolean running;
+    private boolean queued;
+    private int runs;
+    private int cancelled;
+    private long lastNanos;
+    private long maxNanos;
+    private long totalNanos;
+
+    private ParseScheduler(Document doc) {
+        this.doc = doc;
+        task = RP.create(new Runnable() {
+            @Override
+            public void run() {
+                parse();
+            }
+        });
+    }
+
+    /**
+     * Get the scheduler for a document, starting a first parse if there
+     * was none yet.
+     */
+    public static ParseScheduler forDocument(Document doc) {
+        ParseScheduler result;
+        synchronized (ParseScheduler.class) {
+            result = (ParseScheduler) doc.getProperty(ParseScheduler.class);
+            if (result != null) {
+                return result;
+            }
+            result = new ParseScheduler(doc);
+            doc.putProperty(ParseScheduler.class, result);
+        }
+        // Record edits in the tree before rescheduling
+        DocumentSceneTree.forDocument(doc);
+        doc.addDocumentListener(result.new Listener());
+        result.schedule(0);
+        return result;
+    }
+
+    /**
+     * Work done after each parse.
+     */
+    public interface Task {
+
+        /**
+         * Called on a background thread after the document has changed,
+         * with the tree for its current text.  Long-running tasks should
+         * check Thread.currentThread().isInterrupted() periodically and
+         * return early if it is set - the document has changed again.
+         */
+        void run(Document doc, SceneTree tree);
+    }
+
+    public void addTask(Task task) {
+        tasks.add(task);
+        schedule(0);
+    }
+
+    public void removeTask(Task task) {
+        tasks.remove(task);
+    }
+
+    /**
+     * Get the tree from the last completed run, without waiting.  It may
+     * be out of date;  use SceneTree.get() for an up-to-date tree.
+     *
+     * @return A tree, or null if no run has completed yet
+     */
+    public SceneTree getLastTree() {
+        return lastTree;
+    }
+
+    private void changed() {
+        if (running) {
+            // Interrupts the thread, so the stale run stops
+            task.cancel();
+        }
+        schedule(DELAY);
+    }
+
+    private void schedule(int delay) {
+        synchronized (this) {
+            if (!queued) {
+                queued = true;
+                QUEUED.incrementAndGet();
+            }
+        }
+        task.schedule(delay);
+    }
+
+    private void parse() {
+        synchronized (this) {
+            if (queued) {
+                queued = false;
+                QUEUED.decrementAndGet();
+            }
+        }
+        running = true;
+        long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            SceneTree tree = SceneTree.get(doc);
+            lastTree = tree;
+            for (Task t : tasks) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+                t.run(doc, tree);
+            }
+            completed = !Thread.currentThread().isInterrupted();
+        } catch (CancellationException ex) {
+            // rescheduled by the edit which cancelled us
+        } finally {
+            running = false;
+            Thread.interrupted();
+            ran(System.nanoTime() - start, completed);
+        }
+    }
+
+    private void ran(long nanos, boolean completed) {
+        synchronized (this) {
+            if (completed) {
+                runs++;
+                lastNanos = nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+                totalNanos += nanos;
+            } else {
+                cancelled++;
+            }
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} {1} in {2} ms, {3} queued", new Object[]{
+                completed ? "Ran" : "Cancelled", doc,
+                TimeUnit.NANOSECONDS.toMillis(nanos), QUEUED.get()});
+        }
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(QUEUED.get(), runs, cancelled, lastNanos, maxNanos,
+                runs == 0 ? 0 : totalNanos / runs);
+    }
+
+    /**
+     * A snapshot of a scheduler's counters.  Durations cover parsing and
+     * running all tasks, for runs which were not cancelled.
+     */
+    public static final class Statistics {
+
+        private final int queueDepth;
+        private final int runs;
+        private final int cancelled;
+        private final long lastNanos;
+        private final long maxNanos;
+        private final long averageNanos;
+
+        Statistics(int queueDepth, int runs, int cancelled, long lastNanos, long maxNanos, long averageNanos) {
+            this.queueDepth = queueDepth;
+            this.runs = runs;
+            this.cancelled = cancelled;
+            this.lastNanos = lastNanos;
+            this.maxNanos = maxNanos;
+            this.averageNanos = averageNanos;
+        }
+
+        /**
+         * The number of documents, over all schedulers, waiting for a run.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+
+        public int getCancelledRuns() {
+            return cancelled;
+        }
+
+        public long getLastRunMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(lastNanos);
+        }
+
+        public long getMaxRunMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+        public long getAverageRunMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(averageNanos);
+        }
+
+        @Override
+        public String toString() {
+            return runs + " runs, " + cancelled + " cancelled, last "
+                    + getLastRunMillis() + " ms, max " + getMaxRunMillis()
+                    + " ms, average " + getAverageRunMillis() + " ms, "
+                    + queueDepth + " queued";
+        }
+    }
+
+    private final class Listener implements DocumentListener {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            changed();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            changed();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // attribute changes do not affect the tree
+        }
+    }
+}
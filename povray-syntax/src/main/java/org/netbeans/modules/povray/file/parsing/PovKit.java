@@ -26,6 +26,7 @@ package org.netbeans.modules.povray.file.parsing;
 import java.awt.event.KeyEvent;
 import javax.swing.JEditorPane;
 import javax.swing.KeyStroke;
+import javax.swing.text.Document;
 import org.netbeans.modules.editor.NbEditorKit;
 
 /**
@@ -43,6 +44,13 @@ public class PovKit extends NbEditorKit {
         return "text/x-povray";
     }
 
+    @Override
+    public Document createDefaultDocument() {
+        Document result = super.createDefaultDocument();
+        DocumentSymbols.forDocument(result);
+        return result;
+    }
+
     @Override
     protected void executeInstallActions(JEditorPane result) {
         result.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_SLASH, KeyEvent.CTRL_MASK), "toggle-comment");
@@ -0,0 +1,430 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven POV-Ray scanner:  each character is mapped to a character
+ * class, and the next scanner state is looked up from the current state and
+ * that class.  Comments, strings, vectors and argument lists are scanned a
+ * line at a time by scanNested(), so scanning can be restarted
+ * mid-construct from a State.
+ * <p>
+ * Subclasses supply the characters;  PovLexer reads from the editor's
+ * LexerInput, PovTokenizer from decoded NIO buffers.
+ *
+ * @author Tim Boudreau
+ */
+abstract class PovScanner {
+
+    static final int EOF = -1;
+    private State state;
+
+    PovScanner(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Read the next character of the current token.
+     *
+     * @return The character, or EOF
+     */
+    abstract int read();
+
+    /**
+     * Un-read characters of the current token.
+     */
+    abstract void backup(int count);
+
+    /**
+     * The characters read so far for the current token, starting at
+     * tokenStart() in the returned sequence.
+     */
+    abstract CharSequence tokenText();
+
+    abstract int tokenStart();
+
+    abstract int tokenLength();
+
+    /**
+     * The state after the last token, or null at top level.
+     */
+    final State state() {
+        return state;
+    }
+
+    final void setState(State state) {
+        this.state = state;
+    }
+
+    // Character classes
+    private static final byte C_WHITESPACE = 0;
+    private static final byte C_NEWLINE = 1;
+    private static final byte C_SEPARATOR = 2;   // ; and ,
+    private static final byte C_BLOCK_OPEN = 3;
+    private static final byte C_BLOCK_CLOSE = 4;
+    private static final byte C_PAREN_OPEN = 5;
+    private static final byte C_QUOTE = 6;
+    private static final byte C_LESS_THAN = 7;
+    private static final byte C_SLASH = 8;
+    private static final byte C_STAR = 9;
+    private static final byte C_OPERATOR = 10;   // + and =
+    private static final byte C_DIGIT = 11;
+    private static final byte C_DOT = 12;
+    private static final byte C_HASH = 13;
+    private static final byte C_PUNCTUATION = 14; // > ) :
+    private static final byte C_WORD = 15;
+    private static final int CLASS_COUNT = 16;
+
+    // Scanner states.  States from S_BLOCK_OPEN on are final - the token
+    // ends with the character that entered them;  states from S_COMMENT
+    // on continue in scanNested()
+    private static final byte S_START = 0;
+    private static final byte S_WHITESPACE = 1;
+    private static final byte S_SLASH = 2;
+    private static final byte S_WORD = 3;
+    private static final byte S_NUMBER = 4;
+    private static final byte S_POUND = 5;
+    private static final byte S_LINE_COMMENT = 6;
+    private static final byte S_BLOCK_OPEN = 7;
+    private static final byte S_BLOCK_CLOSE = 8;
+    private static final byte S_OPERATOR = 9;
+    private static final byte S_OTHER = 10;
+    private static final byte S_COMMENT = 11;
+    private static final byte S_STRING = 12;
+    private static final byte S_VECTOR = 13;
+    private static final byte S_ARGUMENT_LIST = 14;
+    private static final int STATE_COUNT = 15;
+    private static final byte FIRST_FINAL = S_BLOCK_OPEN;
+    private static final byte FIRST_NESTED = S_COMMENT;
+    // Transition meaning the character is not part of the current token
+    private static final byte END = -1;
+
+    private static final byte[] CLASSES = new byte[128];
+    private static final byte[][] TRANSITIONS = new byte[STATE_COUNT][CLASS_COUNT];
+    private static final PovTokenId[] IDS = new PovTokenId[STATE_COUNT];
+
+    static {
+        for (char c = 0; c < CLASSES.length; c++) {
+            CLASSES[c] = classify(c);
+        }
+        for (byte[] row : TRANSITIONS) {
+            Arrays.fill(row, END);
+        }
+        byte[] start = TRANSITIONS[S_START];
+        start[C_WHITESPACE] = S_WHITESPACE;
+        start[C_NEWLINE] = S_WHITESPACE;
+        start[C_SEPARATOR] = S_WHITESPACE;
+        start[C_BLOCK_OPEN] = S_BLOCK_OPEN;
+        start[C_BLOCK_CLOSE] = S_BLOCK_CLOSE;
+        start[C_PAREN_OPEN] = S_ARGUMENT_LIST;
+        start[C_QUOTE] = S_STRING;
+        start[C_LESS_THAN] = S_VECTOR;
+        start[C_SLASH] = S_SLASH;
+        start[C_STAR] = S_OPERATOR;
+        start[C_OPERATOR] = S_OPERATOR;
+        start[C_DIGIT] = S_NUMBER;
+        start[C_DOT] = S_OTHER;
+        start[C_HASH] = S_POUND;
+        start[C_PUNCTUATION] = S_OTHER;
+        start[C_WORD] = S_WORD;
+
+        TRANSITIONS[S_WHITESPACE][C_WHITESPACE] = S_WHITESPACE;
+        TRANSITIONS[S_WHITESPACE][C_NEWLINE] = S_WHITESPACE;
+
+        // Words may contain slashes, quotes and digits;  anything else
+        // that is not whitespace is punctuation and ends them
+        byte[] word = TRANSITIONS[S_WORD];
+        word[C_SLASH] = S_WORD;
+        word[C_QUOTE] = S_WORD;
+        word[C_DIGIT] = S_WORD;
+        word[C_WORD] = S_WORD;
+
+        // A slash at the start of a token starts a comment or a word
+        System.arraycopy(word, 0, TRANSITIONS[S_SLASH], 0, CLASS_COUNT);
+        TRANSITIONS[S_SLASH][C_STAR] = S_COMMENT;
+        TRANSITIONS[S_SLASH][C_SLASH] = S_LINE_COMMENT;
+
+        TRANSITIONS[S_NUMBER][C_DIGIT] = S_NUMBER;
+        TRANSITIONS[S_NUMBER][C_DOT] = S_NUMBER;
+
+        Arrays.fill(TRANSITIONS[S_POUND], S_POUND);
+        TRANSITIONS[S_POUND][C_WHITESPACE] = END;
+        TRANSITIONS[S_POUND][C_NEWLINE] = END;
+
+        Arrays.fill(TRANSITIONS[S_LINE_COMMENT], S_LINE_COMMENT);
+        TRANSITIONS[S_LINE_COMMENT][C_NEWLINE] = END;
+
+        IDS[S_WHITESPACE] = PovTokenId.whitespace;
+        IDS[S_NUMBER] = PovTokenId.number;
+        IDS[S_POUND] = PovTokenId.pound;
+        IDS[S_LINE_COMMENT] = PovTokenId.comment;
+        IDS[S_BLOCK_OPEN] = PovTokenId.block_open;
+        IDS[S_BLOCK_CLOSE] = PovTokenId.block_close;
+        IDS[S_OPERATOR] = PovTokenId.operator;
+        IDS[S_OTHER] = PovTokenId.other;
+        IDS[S_COMMENT] = PovTokenId.comment;
+        IDS[S_STRING] = PovTokenId.string;
+        IDS[S_VECTOR] = PovTokenId.vector;
+        IDS[S_ARGUMENT_LIST] = PovTokenId.argument_list;
+        // S_WORD and S_SLASH are keywords, identifiers or numbers, decided
+        // by wordId()
+    }
+
+    private static byte classify(char c) {
+        if (c == '\n') {
+            return C_NEWLINE;
+        }
+        if (Character.isWhitespace(c)) {
+            return C_WHITESPACE;
+        }
+        switch (c) {
+            case ';':
+            case ',':
+                return C_SEPARATOR;
+            case '{':
+                return C_BLOCK_OPEN;
+            case '}':
+                return C_BLOCK_CLOSE;
+            case '(':
+                return C_PAREN_OPEN;
+            case '"':
+                return C_QUOTE;
+            case '<':
+                return C_LESS_THAN;
+            case '/':
+                return C_SLASH;
+            case '*':
+                return C_STAR;
+            case '+':
+            case '=':
+                return C_OPERATOR;
+            case '.':
+                return C_DOT;
+            case '#':
+                return C_HASH;
+            case '>':
+            case ')':
+            case ':':
+                return C_PUNCTUATION;
+            default:
+                return Character.isDigit(c) ? C_DIGIT : C_WORD;
+        }
+    }
+
+    static byte classOf(char c) {
+        return c < CLASSES.length ? CLASSES[c] : classify(c);
+    }
+
+    /**
+     * Scan the next token.
+     *
+     * @return The token's id, or null if there is no more input
+     */
+    final PovTokenId nextTokenId() {
+        if (state != null) {
+            // Continuing a comment, string, vector or argument list from
+            // the previous line
+            PovTokenId id = state.id;
+            state = scanNested(id, state.depth);
+            return tokenLength() == 0 ? null : id;
+        }
+
+        byte st = S_START;
+        for (;;) {
+            int i = read();
+            if (i == EOF) {
+                break;
+            }
+            byte next = TRANSITIONS[st][classOf((char) i)];
+            if (next == END) {
+                backup(1);
+                break;
+            }
+            st = next;
+            if (st >= FIRST_FINAL) {
+                if (st >= FIRST_NESTED) {
+                    state = scanNested(IDS[st], 0);
+                }
+                break;
+            }
+        }
+        if (st == S_START) {
+            return null;
+        }
+        return st == S_WORD || st == S_SLASH ? wordId() : IDS[st];
+    }
+
+    private PovTokenId wordId() {
+        CharSequence s = tokenText();
+        int start = tokenStart();
+        int end = start + tokenLength();
+        if (Keywords.match(s, start, end) != null) {
+            return PovTokenId.keyword;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return PovTokenId.identifier;
+            }
+        }
+        return PovTokenId.number;
+    }
+
+    /**
+     * Scan the body of a comment, string, vector or argument list up to
+     * and including either its closing delimiter or the end of the line,
+     * whichever comes first.  Tokens never span lines, so after an edit
+     * the lexer can be restarted at the start of any line of a long
+     * construct instead of re-lexing it from its beginning.
+     *
+     * @param id The construct
+     * @param depth The nesting depth carried over from the previous line,
+     * or 0 if the opening delimiter was just read
+     * @return The state to restart from, or null if the construct was
+     * closed
+     */
+    private State scanNested(PovTokenId id, int depth) {
+        if (depth == 0) {
+            depth = 1;
+        }
+        boolean inString = false;
+        // Whether the next character follows an odd run of backslashes,
+        // so "C:\\" ends with an escaped backslash, then the closing quote
+        boolean escaped = false;
+        char pc = 0;
+        for (;;) {
+            int i = read();
+            if (i == EOF) {
+                break;
+            }
+            char c = (char) i;
+            if (c == '\n') {
+                // A string literal inside an argument list cannot span lines
+                return State.of(id, depth);
+            }
+            switch (id) {
+                case comment:
+                    // POV-Ray block comments nest
+                    if (pc == '/' && c == '*') {
+                        depth++;
+                        c = 0;
+                    } else if (pc == '*' && c == '/') {
+                        if (--depth == 0) {
+                            return null;
+                        }
+                        c = 0;
+                    }
+                    break;
+                case string:
+                    if (c == '"' && !escaped) {
+                        return null;
+                    }
+                    escaped = c == '\\' && !escaped;
+                    break;
+                case argument_list:
+                    if (inString) {
+                        inString = c != '"' || escaped;
+                        escaped = c == '\\' && !escaped;
+                    } else if (c == '"') {
+                        inString = true;
+                    } else if (c == '(') {
+                        depth++;
+                    } else if (c == ')' && --depth == 0) {
+                        return null;
+                    }
+                    break;
+                case vector:
+                    // depth is 1 + the number of open parentheses, so a
+                    // comparison inside a function call does not end it
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')' && depth > 1) {
+                        depth--;
+                    } else if (c == '>' && depth == 1) {
+                        return null;
+                    }
+                    break;
+                default:
+                    throw new AssertionError(id);
+            }
+            pc = c;
+        }
+        return State.of(id, depth);
+    }
+
+    /**
+     * Lexer state at a token boundary inside a multi-line comment, string,
+     * vector or argument list.  Top-level positions have a null state.
+     * Instances for common nesting depths are shared, so the infrastructure
+     * can compare and store them per-token cheaply.
+     */
+    static final class State {
+
+        private static final int CACHED_DEPTH = 16;
+        private static final State[][] CACHE = new State[PovTokenId.values().length][CACHED_DEPTH];
+
+        static {
+            for (byte st = FIRST_NESTED; st < STATE_COUNT; st++) {
+                PovTokenId id = IDS[st];
+                for (int i = 1; i < CACHED_DEPTH; i++) {
+                    CACHE[id.ordinal()][i] = new State(id, i);
+                }
+            }
+        }
+        private final PovTokenId id;
+        private final int depth;
+
+        private State(PovTokenId id, int depth) {
+            this.id = id;
+            this.depth = depth;
+        }
+
+        static State of(PovTokenId id, int depth) {
+            return depth < CACHED_DEPTH ? CACHE[id.ordinal()][depth] : new State(id, depth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof State)) {
+                return false;
+            }
+            State other = (State) o;
+            return other.id == id && other.depth == depth;
+        }
+
+        @Override
+        public int hashCode() {
+            return (id.ordinal() * 31) + depth;
+        }
+
+        @Override
+        public String toString() {
+            return id + "[" + depth + "]";
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless, streaming tokenizer for POV-Ray sources, for batch processing
+ * of include libraries outside the editor.  Produces the same tokens as
+ * the editor's lexer, without a Document or token hierarchy:  tokens are
+ * passed to a TokenHandler as they are recognized and not retained.
+ * <p>
+ * Files and channels are decoded into a fixed-size character buffer, so
+ * memory use does not depend on the size of the input - only on the
+ * length of the longest token, and tokens never span lines.
+ *
+ * @author Tim Boudreau
+ */
+public final class PovTokenizer {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAP_WINDOW = 32 * 1024 * 1024;
+
+    private PovTokenizer() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Receives tokens from the tokenizer.
+     */
+    public interface TokenHandler {
+
+        /**
+         * Called for each token, in order.
+         *
+         * @param id The token's type
+         * @param offset The character offset of the token in the input
+         * @param length The length of the token in characters
+         * @param text Characters containing the token;  only valid for the
+         * duration of the call
+         * @param start The index of the token's first character in text
+         */
+        void token(PovTokenId id, long offset, int length, CharSequence text, int start);
+    }
+
+    /**
+     * Tokenize characters already in memory, such as a CharBuffer decoded
+     * from a memory-mapped file.
+     */
+    public static void tokenize(CharSequence text, TokenHandler handler) {
+        TextScanner scanner = new TextScanner();
+        scanner.reset(text, text.length(), true);
+        scanner.scan(handler, 0);
+    }
+
+    /**
+     * Tokenize characters already in memory using the threads of a
+     * fork-join pool, for very large scenes.  The handler is called on the
+     * calling thread, in order, with exactly the tokens the sequential
+     * method would produce.  The text must not change while this runs.
+     */
+    public static void tokenize(CharSequence text, ForkJoinPool pool, TokenHandler handler) {
+        ParallelTokenizer.tokenize(text, pool, handler, ParallelTokenizer.CHUNK_SIZE);
+    }
+
+    /**
+     * Tokenize a file, memory-mapping it a window at a time.
+     */
+    public static void tokenize(File file, Charset charset, TokenHandler handler) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            tokenize(new MappedSource(in.getChannel(), charset), handler, BUFFER_SIZE);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Tokenize the bytes read from a channel.  The channel is not closed.
+     */
+    public static void tokenize(ReadableByteChannel channel, Charset charset, TokenHandler handler) throws IOException {
+        tokenize(new ChannelSource(channel, charset), handler, BUFFER_SIZE);
+    }
+
+    static void tokenize(Source source, TokenHandler handler, int bufferSize) throws IOException {
+        char[] chars = new char[bufferSize];
+        int count = 0;
+        long base = 0;
+        boolean more = true;
+        TextScanner scanner = new TextScanner();
+        while (more) {
+            CharBuffer out = CharBuffer.wrap(chars, count, chars.length - count);
+            more = source.fill(out);
+            count = out.position();
+            scanner.reset(CharBuffer.wrap(chars, 0, count), count, !more);
+            int consumed = scanner.scan(handler, base);
+            if (more && consumed == 0 && count == chars.length) {
+                // a single token longer than the buffer
+                char[] nue = new char[chars.length * 2];
+                System.arraycopy(chars, 0, nue, 0, count);
+                chars = nue;
+            } else {
+                System.arraycopy(chars, consumed, chars, 0, count - consumed);
+                count -= consumed;
+                base += consumed;
+            }
+        }
+    }
+
+    /**
+     * Scans a window of characters.  Running out of characters before the
+     * end of the input leaves the last token for the next window.
+     */
+    private static final class TextScanner extends PovScanner {
+
+        private CharSequence text;
+        private int limit;
+        private boolean eof;
+        private int start;
+        private int pos;
+        private boolean starved;
+
+        TextScanner() {
+            super(null);
+        }
+
+        void reset(CharSequence text, int limit, boolean eof) {
+            this.text = text;
+            this.limit = limit;
+            this.eof = eof;
+        }
+
+        /**
+         * Scan tokens until the end of the window.
+         *
+         * @return The index of the first character not yet tokenized
+         */
+        int scan(TokenHandler handler, long base) {
+            pos = 0;
+            for (;;) {
+                start = pos;
+                starved = false;
+                State before = state();
+                PovTokenId id = nextTokenId();
+                if (starved && !eof) {
+                    setState(before);
+                    return start;
+                }
+                if (id == null) {
+                    return pos;
+                }
+                handler.token(id, base + start, pos - start, text, start);
+            }
+        }
+
+        @Override
+        int read() {
+            if (pos >= limit) {
+                starved = true;
+                return EOF;
+            }
+            return text.charAt(pos++);
+        }
+
+        @Override
+        void backup(int count) {
+            pos -= count;
+        }
+
+        @Override
+        CharSequence tokenText() {
+            return text;
+        }
+
+        @Override
+        int tokenStart() {
+            return start;
+        }
+
+        @Override
+        int tokenLength() {
+            return pos - start;
+        }
+    }
+
+    /**
+     * Decodes bytes into characters.
+     */
+    abstract static class Source {
+
+        private final CharsetDecoder decoder;
+        private boolean flushing;
+        private boolean done;
+
+        Source(Charset charset) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * Get a buffer with more bytes to decode;  bytes the decoder left
+         * unconsumed last time must still be in it.
+         */
+        abstract ByteBuffer next() throws IOException;
+
+        /**
+         * Whether the buffer returned by the last call to next() holds the
+         * last bytes of the input.
+         */
+        abstract boolean isEnd();
+
+        /**
+         * Decode characters until the buffer is full or the input is
+         * exhausted.
+         *
+         * @return false if the end of the input has been decoded
+         */
+        final boolean fill(CharBuffer out) throws IOException {
+            while (!done && out.hasRemaining()) {
+                if (!flushing) {
+                    ByteBuffer in = next();
+                    boolean end = isEnd();
+                    if (decoder.decode(in, out, end).isOverflow()) {
+                        break;
+                    }
+                    flushing = end;
+                }
+                if (flushing) {
+                    if (decoder.flush(out).isOverflow()) {
+                        break;
+                    }
+                    done = true;
+                }
+            }
+            return !done;
+        }
+    }
+
+    private static final class ChannelSource extends Source {
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean end;
+
+        ChannelSource(ReadableByteChannel channel, Charset charset) {
+            super(charset);
+            this.channel = channel;
+            bytes.flip();
+        }
+
+        @Override
+        ByteBuffer next() throws IOException {
+            bytes.compact();
+            if (!end && channel.read(bytes) < 0) {
+                end = true;
+            }
+            bytes.flip();
+            return bytes;
+        }
+
+        @Override
+        boolean isEnd() {
+            return end;
+        }
+    }
+
+    private static final class MappedSource extends Source {
+
+        // Less than this many undecoded bytes means the decoder stopped
+        // on a partial character at the end of the window
+        private static final int MIN_REMAINING = 16;
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private ByteBuffer window;
+
+        MappedSource(FileChannel channel, Charset charset) throws IOException {
+            super(charset);
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        ByteBuffer next() throws IOException {
+            if (window == null || (window.remaining() < MIN_REMAINING && !isEnd())) {
+                if (window != null) {
+                    position += window.position();
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, size - position));
+            }
+            return window;
+        }
+
+        @Override
+        boolean isEnd() {
+            return position + window.limit() >= size;
+        }
+    }
+}
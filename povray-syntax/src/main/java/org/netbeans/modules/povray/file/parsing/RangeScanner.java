@@ -0,0 +1,91 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+/**
+ * Scans tokens from any offset of text held in memory, given the lexer
+ * state at that offset.
+ *
+ * @author Tim Boudreau
+ */
+final class RangeScanner extends PovScanner {
+
+    private final CharSequence text;
+    private final int length;
+    private int start;
+    int pos;
+
+    RangeScanner(CharSequence text) {
+        super(null);
+        this.text = text;
+        this.length = text.length();
+    }
+
+    void reset(int offset, State state) {
+        pos = offset;
+        setState(state);
+    }
+
+    /**
+     * Scan the token at the current position.
+     *
+     * @return The token's id, or null at the end of the text
+     */
+    PovTokenId next() {
+        start = pos;
+        return nextTokenId();
+    }
+
+    /**
+     * The offset of the token last returned by next().
+     */
+    int start() {
+        return start;
+    }
+
+    @Override
+    int read() {
+        return pos < length ? text.charAt(pos++) : EOF;
+    }
+
+    @Override
+    void backup(int count) {
+        pos -= count;
+    }
+
+    @Override
+    CharSequence tokenText() {
+        return text;
+    }
+
+    @Override
+    int tokenStart() {
+        return start;
+    }
+
+    @Override
+    int tokenLength() {
+        return pos - start;
+    }
+}
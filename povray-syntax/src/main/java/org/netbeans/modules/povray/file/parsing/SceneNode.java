@@ -0,0 +1,164 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in a SceneTree:  a directive, a block or a vector.  Nodes are
+ * immutable and do not know their absolute offsets - each stores the
+ * distance from the end of its previous sibling (or the start of its
+ * parent), so an edit only creates new nodes for the block it re-parses
+ * and that block's ancestors, and every other subtree is shared with the
+ * tree from before the edit.
+ *
+ * @author Tim Boudreau
+ */
+public final class SceneNode {
+
+    public enum Kind {
+        /**
+         * The root of the tree, spanning the whole file.
+         */
+        SCENE,
+        /**
+         * A directive such as #declare or #include, up to the end of its
+         * value;  #macro, #if, #while and similar contain the nodes up to
+         * their matching #end.
+         */
+        DIRECTIVE,
+        /**
+         * A block in braces, with the keyword preceding it, such as
+         * sphere { ... }.
+         */
+        BLOCK,
+        /**
+         * A vector literal in angle brackets.
+         */
+        VECTOR
+    }
+    private static final SceneNode[] NO_CHILDREN = new SceneNode[0];
+    private final Kind kind;
+    private final Keywords keyword;
+    private final String name;
+    final int gap;
+    final int length;
+    // Characters up to where children can start, such as through the {
+    final int header;
+    // Characters of the closing } or #end, or 0 if unterminated
+    final int trailer;
+    // Characters after the end which the parser read to find the end
+    final int lookahead;
+    final SceneNode[] children;
+
+    SceneNode(Kind kind, Keywords keyword, String name, int gap, int length,
+            int header, int trailer, int lookahead, SceneNode[] children) {
+        this.kind = kind;
+        this.keyword = keyword;
+        this.name = name;
+        this.gap = gap;
+        this.length = length;
+        this.header = header;
+        this.trailer = trailer;
+        this.lookahead = lookahead;
+        this.children = children.length == 0 ? NO_CHILDREN : children;
+    }
+
+    /**
+     * Copy this node with a different child and length, after an edit
+     * inside that child.
+     */
+    SceneNode replace(int index, SceneNode child, int delta) {
+        SceneNode[] kids = children.clone();
+        kids[index] = child;
+        return new SceneNode(kind, keyword, name, gap, length + delta, header,
+                trailer, lookahead, kids);
+    }
+
+    SceneNode withGap(int gap) {
+        return gap == this.gap ? this : new SceneNode(kind, keyword, name, gap,
+                length, header, trailer, lookahead, children);
+    }
+
+    /**
+     * Whether this node contains other nodes between a header and a
+     * closing delimiter, and can be re-parsed on its own.
+     */
+    boolean isContainer() {
+        return kind == Kind.BLOCK || (kind == Kind.DIRECTIVE && SceneParser.isContainer(keyword));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The keyword of a block or directive, such as sphere or declare.  Null
+     * for vectors, blocks not preceded by a keyword, and directives this
+     * module does not know.
+     */
+    public Keywords getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * The name defined by a #declare, #local or #macro directive, the file
+     * named by an #include directive without its quotes, or null.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public List<SceneNode> getChildren() {
+        return children.length == 0 ? Collections.<SceneNode>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    /**
+     * Whether the closing brace, angle bracket or #end of this block,
+     * vector or directive is present.  Always false for directives such as
+     * #declare, which have no closing delimiter.
+     */
+    public boolean isTerminated() {
+        return trailer > 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(kind.name());
+        if (keyword != null) {
+            sb.append(' ').append(keyword);
+        }
+        if (name != null) {
+            sb.append(' ').append(name);
+        }
+        return sb.append(" length ").append(length).toString();
+    }
+}
@@ -0,0 +1,505 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import org.netbeans.modules.povray.file.parsing.SceneNode.Kind;
+
+/**
+ * Recursive-descent parser building SceneNodes from the token stream of a
+ * RangeScanner.  When re-parsing a block after an edit, the children of
+ * the block's previous version are reused wherever the parser reaches the
+ * start of one at the block's own level with nothing pending, provided the
+ * text the old child was parsed from is untouched by the edit.
+ * <p>
+ * Parsing throws a CancellationException if the parsing thread is
+ * interrupted, so a parse made stale by further edits can be abandoned.
+ *
+ * @author Tim Boudreau
+ */
+final class SceneParser {
+
+    private static final int IN_SCENE = 0;
+    private static final int IN_BLOCK = 1;
+    private static final int IN_DIRECTIVE = 2;
+    private final CharSequence text;
+    private final RangeScanner scanner;
+    private final int editStart;
+    private final int editOldEnd;
+    private final int editNewEnd;
+    private PovTokenId token;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean pushedBack;
+    // End of the last token which is part of the node being parsed
+    private int lastEnd;
+    private int reads;
+
+    SceneParser(CharSequence text) {
+        this(text, -1, -1, -1);
+    }
+
+    /**
+     * Create a parser for text after an edit.
+     *
+     * @param text The edited text
+     * @param editStart Where the edit starts
+     * @param editOldEnd Where the edit ended before the edit
+     * @param editNewEnd Where the edit ends in the passed text
+     */
+    SceneParser(CharSequence text, int editStart, int editOldEnd, int editNewEnd) {
+        this.text = text;
+        this.scanner = new RangeScanner(text);
+        this.editStart = editStart;
+        this.editOldEnd = editOldEnd;
+        this.editNewEnd = editNewEnd;
+    }
+
+    /**
+     * Parse the whole text.
+     *
+     * @param old The children of the root before the edit, or null
+     */
+    SceneNode scene(SceneNode[] old) {
+        scanner.reset(0, null);
+        List<SceneNode> kids = new ArrayList<SceneNode>();
+        children(0, IN_SCENE, kids, old == null ? null : new Reuse(old, 0));
+        return new SceneNode(Kind.SCENE, null, null, 0, text.length(), 0, 0, 0, toArray(kids));
+    }
+
+    /**
+     * Re-parse a block or a directive containing other nodes, which starts
+     * at the passed offset in both the old and the new text.
+     *
+     * @return The new node, or null if the text at the offset no longer
+     * starts one of the same kind
+     */
+    SceneNode reparse(SceneNode old, int start) {
+        scanner.reset(start, null);
+        Reuse reuse = new Reuse(old.children, start);
+        PovTokenId id = next();
+        if (old.getKind() == Kind.BLOCK) {
+            Keywords keyword = null;
+            if (id == PovTokenId.keyword || id == PovTokenId.identifier) {
+                keyword = keyword();
+                lastEnd = tokenEnd;
+                id = nextSignificant();
+            }
+            return id == PovTokenId.block_open ? block(start, old.gap, keyword, reuse) : null;
+        }
+        return id == PovTokenId.pound ? directive(start, old.gap, directiveKeyword(), reuse) : null;
+    }
+
+    /**
+     * Parse nodes up to the closing token of the context.
+     *
+     * @return The length of the closing token, or 0 if unterminated
+     */
+    private int children(int parentStart, int context, List<SceneNode> kids, Reuse reuse) {
+        int prevEnd = parentStart;
+        int pending = -1;
+        Keywords pendingKeyword = null;
+        // Whether nothing was read since the start or the last reused node
+        boolean clean = true;
+        if (reuse != null) {
+            reuse.begin(scanner.pos);
+        }
+        for (;;) {
+            if (reuse != null && pending < 0 && !pushedBack && scanner.state() == null) {
+                SceneNode old = reuse.at(scanner.pos, clean);
+                if (old != null) {
+                    int start = reuse.newStart();
+                    kids.add(old.withGap(start - prevEnd));
+                    prevEnd = lastEnd = tokenEnd = start + old.length;
+                    scanner.reset(prevEnd, null);
+                    clean = true;
+                    continue;
+                }
+            }
+            clean = false;
+            PovTokenId id = next();
+            if (id == null) {
+                return 0;
+            }
+            int start = tokenStart;
+            SceneNode node = null;
+            switch (id) {
+                case whitespace:
+                case comment:
+                    continue;
+                case keyword:
+                case identifier:
+                    // May be the keyword of a block
+                    pending = tokenStart;
+                    pendingKeyword = keyword();
+                    lastEnd = tokenEnd;
+                    continue;
+                case block_open:
+                    if (pending >= 0) {
+                        start = pending;
+                    }
+                    node = block(start, start - prevEnd, pendingKeyword, null);
+                    break;
+                case block_close:
+                    if (context == IN_BLOCK) {
+                        lastEnd = tokenEnd;
+                        return tokenEnd - tokenStart;
+                    } else if (context == IN_DIRECTIVE) {
+                        // Unbalanced - the #end is missing, or a block
+                        // closes inside an #if
+                        pushBack();
+                        return 0;
+                    }
+                    lastEnd = tokenEnd;
+                    break;
+                case pound:
+                    Keywords directive = directiveKeyword();
+                    if (directive == Keywords.end) {
+                        if (context == IN_DIRECTIVE) {
+                            return lastEnd - start;
+                        }
+                        break;
+                    }
+                    node = directive(start, start - prevEnd, directive, null);
+                    break;
+                case vector:
+                    node = vector(start, start - prevEnd);
+                    break;
+                default:
+                    lastEnd = tokenEnd;
+            }
+            pending = -1;
+            pendingKeyword = null;
+            if (node != null) {
+                kids.add(node);
+                prevEnd = start + node.length;
+            }
+        }
+    }
+
+    /**
+     * Parse a block whose opening brace has just been read.
+     */
+    private SceneNode block(int start, int gap, Keywords keyword, Reuse reuse) {
+        lastEnd = tokenEnd;
+        int header = tokenEnd - start;
+        List<SceneNode> kids = new ArrayList<SceneNode>();
+        int trailer = children(start, IN_BLOCK, kids, reuse);
+        return new SceneNode(Kind.BLOCK, keyword, null, gap, lastEnd - start,
+                header, trailer, tokenEnd - lastEnd, toArray(kids));
+    }
+
+    private static String unquote(String s) {
+        int start = s.startsWith("\"") ? 1 : 0;
+        int end = s.length() > start && s.endsWith("\"") ? s.length() - 1 : s.length();
+        return s.substring(start, end);
+    }
+
+    /**
+     * Parse a directive whose keyword has just been read by
+     * directiveKeyword().
+     */
+    private SceneNode directive(int start, int gap, Keywords keyword, Reuse reuse) {
+        String name = null;
+        if (keyword == Keywords.declare || keyword == Keywords.local || keyword == Keywords.macro) {
+            PovTokenId id = nextSignificant();
+            // The lexer does not know POV-Ray keywords are case-sensitive
+            if (id == PovTokenId.identifier || id == PovTokenId.keyword) {
+                name = text.subSequence(tokenStart, tokenEnd).toString();
+                lastEnd = tokenEnd;
+            } else {
+                pushBack();
+            }
+        } else if (keyword == Keywords.include) {
+            if (nextSignificant() == PovTokenId.string) {
+                name = unquote(text.subSequence(tokenStart, tokenEnd).toString());
+                lastEnd = tokenEnd;
+            } else {
+                pushBack();
+            }
+        }
+        List<SceneNode> kids = new ArrayList<SceneNode>();
+        if (isContainer(keyword)) {
+            // The condition or parameters, possibly spanning lines
+            if (nextSignificant() == PovTokenId.argument_list) {
+                lastEnd = tokenEnd;
+                while (scanner.state() != null && next() != null) {
+                    lastEnd = tokenEnd;
+                }
+            } else {
+                pushBack();
+            }
+            int header = lastEnd - start;
+            int trailer = children(start, IN_DIRECTIVE, kids, reuse);
+            return new SceneNode(Kind.DIRECTIVE, keyword, name, gap, lastEnd - start,
+                    header, trailer, tokenEnd - lastEnd, toArray(kids));
+        }
+        // Anything else ends at the end of the line, unless the line ends
+        // in an operator or a block opens;  the value of a #declare may
+        // start on the next line
+        boolean complete = keyword != Keywords.declare && keyword != Keywords.local;
+        int prevEnd = start;
+        int pending = -1;
+        Keywords pendingKeyword = null;
+        loop:
+        for (;;) {
+            PovTokenId id = next();
+            if (id == null) {
+                break;
+            }
+            switch (id) {
+                case whitespace:
+                    if (complete && containsNewline()) {
+                        pushBack();
+                        break loop;
+                    }
+                    continue;
+                case comment:
+                    continue;
+                case block_close:
+                case pound:
+                    pushBack();
+                    break loop;
+                case keyword:
+                case identifier:
+                    pending = tokenStart;
+                    pendingKeyword = keyword();
+                    lastEnd = tokenEnd;
+                    complete = true;
+                    continue;
+                case block_open:
+                    int blockStart = pending >= 0 ? pending : tokenStart;
+                    kids.add(block(blockStart, blockStart - prevEnd, pendingKeyword, null));
+                    break loop;
+                case vector:
+                    SceneNode vector = vector(tokenStart, tokenStart - prevEnd);
+                    kids.add(vector);
+                    prevEnd = lastEnd;
+                    complete = true;
+                    break;
+                case operator:
+                    lastEnd = tokenEnd;
+                    complete = false;
+                    break;
+                default:
+                    lastEnd = tokenEnd;
+                    complete = true;
+            }
+            pending = -1;
+            pendingKeyword = null;
+        }
+        return new SceneNode(Kind.DIRECTIVE, keyword, name, gap, lastEnd - start,
+                0, 0, tokenEnd - lastEnd, toArray(kids));
+    }
+
+    /**
+     * Parse a vector whose first token has just been read.
+     */
+    private SceneNode vector(int start, int gap) {
+        lastEnd = tokenEnd;
+        while (scanner.state() != null && next() != null) {
+            lastEnd = tokenEnd;
+        }
+        int trailer = scanner.state() == null && text.charAt(lastEnd - 1) == '>' ? 1 : 0;
+        return new SceneNode(Kind.VECTOR, null, null, gap, lastEnd - start,
+                0, trailer, 0, toArray(null));
+    }
+
+    static boolean isContainer(Keywords keyword) {
+        if (keyword == null) {
+            return false;
+        }
+        switch (keyword) {
+            case macro:
+            case $if:
+            case ifdef:
+            case ifndef:
+            case $while:
+            case $for:
+            case $switch:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The keyword of the pound token just read, reading one more token if
+     * the # is followed by whitespace.
+     */
+    private Keywords directiveKeyword() {
+        lastEnd = tokenEnd;
+        int end = tokenStart + 1;
+        while (end < tokenEnd && Character.isLetter(text.charAt(end))) {
+            end++;
+        }
+        if (end > tokenStart + 1) {
+            return Keywords.match(text, tokenStart + 1, end);
+        } else if (tokenEnd > end) {
+            return null;
+        }
+        PovTokenId id = next();
+        if (id == PovTokenId.whitespace && !containsNewline()) {
+            id = next();
+        }
+        if (id == PovTokenId.keyword) {
+            lastEnd = tokenEnd;
+            return keyword();
+        }
+        pushBack();
+        return null;
+    }
+
+    private Keywords keyword() {
+        return token == PovTokenId.keyword ? Keywords.match(text, tokenStart, tokenEnd) : null;
+    }
+
+    private boolean containsNewline() {
+        for (int i = tokenStart; i < tokenEnd; i++) {
+            if (text.charAt(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PovTokenId next() {
+        if (pushedBack) {
+            pushedBack = false;
+            return token;
+        }
+        if ((++reads & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+        tokenStart = scanner.pos;
+        token = scanner.next();
+        tokenEnd = scanner.pos;
+        return token;
+    }
+
+    private PovTokenId nextSignificant() {
+        PovTokenId id;
+        do {
+            id = next();
+        } while (id == PovTokenId.whitespace || id == PovTokenId.comment);
+        return id;
+    }
+
+    private void pushBack() {
+        if (token != null) {
+            pushedBack = true;
+        }
+    }
+
+    private static SceneNode[] toArray(List<SceneNode> nodes) {
+        return nodes == null ? new SceneNode[0] : nodes.toArray(new SceneNode[nodes.size()]);
+    }
+
+    /**
+     * Walks the children of a node's previous version in step with
+     * parsing its new version.
+     */
+    private final class Reuse {
+
+        private final SceneNode[] old;
+        private int index;
+        // Start of old[index] in the old text
+        private int start;
+        // Where parsing the old text was in the state the parser is in when
+        // it is clean
+        private int clean;
+
+        Reuse(SceneNode[] old, int parentStart) {
+            this.old = old;
+            this.start = parentStart + (old.length > 0 ? old[0].gap : 0);
+        }
+
+        /**
+         * Called where the children start, which is before the edit.
+         */
+        void begin(int pos) {
+            clean = pos;
+        }
+
+        /**
+         * Get an old node which would be parsed identically at the passed
+         * offset of the new text.  If the parser is clean - it has read
+         * nothing since the start of the children or the end of the last
+         * reused node - the node may start further on, as long as the
+         * text in between is unchanged:  it held no nodes before, so it
+         * holds none now.
+         */
+        SceneNode at(int pos, boolean isClean) {
+            if (isClean) {
+                SceneNode node = next(clean);
+                if (node != null && (start + node.length + node.lookahead < editStart
+                        || (clean > editStart && clean >= editOldEnd))) {
+                    return take(node);
+                }
+            }
+            int oldPos;
+            if (pos < editStart) {
+                oldPos = pos;
+            } else if (pos >= editNewEnd) {
+                oldPos = pos - editNewEnd + editOldEnd;
+            } else {
+                return null;
+            }
+            SceneNode node = next(oldPos);
+            if (node == null || start != oldPos) {
+                return null;
+            }
+            if (oldPos < editStart && start + node.length + node.lookahead >= editStart) {
+                // The edit touches the node, or the text the parser read
+                // to find where it ends
+                return null;
+            }
+            return take(node);
+        }
+
+        private SceneNode next(int oldPos) {
+            while (index < old.length && start < oldPos) {
+                start += old[index++].length;
+                if (index < old.length) {
+                    start += old[index].gap;
+                }
+            }
+            return index < old.length ? old[index] : null;
+        }
+
+        private SceneNode take(SceneNode node) {
+            clean = start + node.length;
+            return node;
+        }
+
+        /**
+         * The offset in the new text of the node last returned by at().
+         */
+        int newStart() {
+            return start < editStart ? start : start - editOldEnd + editNewEnd;
+        }
+    }
+}
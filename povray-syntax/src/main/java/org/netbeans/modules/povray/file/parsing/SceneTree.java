@@ -0,0 +1,204 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.text.Document;
+
+/**
+ * Parse tree of a POV-Ray scene:  the directives, blocks and vectors of a
+ * file, for folding, navigation and validation.  Trees are immutable
+ * snapshots;  after an edit, edit() re-parses only the innermost block or
+ * #macro / #if style directive around the change, and the new tree shares
+ * every node outside that block's ancestors with the old one.
+ * <p>
+ * Parsing on a thread which is interrupted stops with a
+ * CancellationException.
+ *
+ * @author Tim Boudreau
+ */
+public final class SceneTree {
+
+    private final SceneNode root;
+
+    private SceneTree(SceneNode root) {
+        this.root = root;
+    }
+
+    public static SceneTree parse(CharSequence text) {
+        return new SceneTree(new SceneParser(text).scene(null));
+    }
+
+    /**
+     * Get the tree for a document, updated for any edits since it was last
+     * requested.
+     */
+    public static SceneTree get(Document doc) {
+        return DocumentSceneTree.forDocument(doc).getTree();
+    }
+
+    /**
+     * Get the tree for the text after an edit to the text this tree was
+     * parsed from.
+     *
+     * @param text The text after the edit
+     * @param offset The start of the edit
+     * @param removed The number of characters the edit removed
+     * @param inserted The number of characters the edit inserted
+     * @return A new tree
+     */
+    public SceneTree edit(CharSequence text, int offset, int removed, int inserted) {
+        if (text.length() != root.length + inserted - removed) {
+            throw new IllegalArgumentException("Edit of " + removed + " to "
+                    + inserted + " chars does not turn " + root.length
+                    + " chars into " + text.length());
+        }
+        // The nodes around the edit, with their offsets and indices
+        List<SceneNode> path = new ArrayList<SceneNode>();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> indices = new ArrayList<Integer>();
+        SceneNode node = root;
+        int start = 0;
+        path.add(root);
+        starts.add(0);
+        indices.add(-1);
+        outer:
+        for (;;) {
+            int childStart = start;
+            for (int i = 0; i < node.children.length; i++) {
+                SceneNode child = node.children[i];
+                childStart += child.gap;
+                if (childStart > offset) {
+                    break;
+                }
+                if (offset + removed <= childStart + child.length) {
+                    path.add(child);
+                    starts.add(childStart);
+                    indices.add(i);
+                    node = child;
+                    start = childStart;
+                    continue outer;
+                }
+                childStart += child.length;
+            }
+            break;
+        }
+        SceneParser parser = new SceneParser(text, offset, offset + removed, offset + inserted);
+        int delta = inserted - removed;
+        for (int depth = path.size() - 1; depth > 0; depth--) {
+            SceneNode old = path.get(depth);
+            if (!old.isContainer() || !isInside(old, starts.get(depth), offset, removed)) {
+                continue;
+            }
+            SceneNode reparsed = parser.reparse(old, starts.get(depth));
+            if (reparsed != null && reparsed.getKind() == old.getKind()
+                    && reparsed.length == old.length + delta) {
+                for (int i = depth - 1; i >= 0; i--) {
+                    reparsed = path.get(i).replace(indices.get(i + 1), reparsed, delta);
+                }
+                return new SceneTree(reparsed);
+            }
+            // The edit changed where the container ends;  try its parent
+            parser = new SceneParser(text, offset, offset + removed, offset + inserted);
+        }
+        return new SceneTree(parser.scene(root.children));
+    }
+
+    private static boolean isInside(SceneNode node, int start, int offset, int removed) {
+        int headerEnd = start + node.header;
+        if (node.getKind() == SceneNode.Kind.DIRECTIVE) {
+            // The last token of the header could be extended
+            headerEnd++;
+        }
+        return offset >= headerEnd && offset + removed <= start + node.length - node.trailer
+                && node.trailer > 0;
+    }
+
+    public SceneNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Receives nodes with their offsets.
+     */
+    public interface Visitor {
+
+        /**
+         * Visit a node.
+         *
+         * @param node The node
+         * @param start The offset of its first character
+         * @param depth Its depth, 0 for the root
+         * @return true to visit its children
+         */
+        boolean visit(SceneNode node, int start, int depth);
+    }
+
+    /**
+     * Visit the tree depth first, in document order.
+     */
+    public void accept(Visitor visitor) {
+        accept(root, 0, 0, visitor);
+    }
+
+    private static void accept(SceneNode node, int start, int depth, Visitor visitor) {
+        if (visitor.visit(node, start, depth)) {
+            int childStart = start;
+            for (SceneNode child : node.children) {
+                childStart += child.gap;
+                accept(child, childStart, depth + 1, visitor);
+                childStart += child.length;
+            }
+        }
+    }
+
+    /**
+     * Get the nodes containing an offset, from the root to the innermost.
+     */
+    public List<SceneNode> path(int offset) {
+        List<SceneNode> result = new ArrayList<SceneNode>();
+        SceneNode node = root;
+        int start = 0;
+        result.add(root);
+        outer:
+        for (;;) {
+            int childStart = start;
+            for (SceneNode child : node.children) {
+                childStart += child.gap;
+                if (childStart > offset) {
+                    break;
+                }
+                if (offset < childStart + child.length) {
+                    result.add(child);
+                    node = child;
+                    start = childStart;
+                    continue outer;
+                }
+                childStart += child.length;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,694 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.modules.povray.file.parsing.SceneNode.Kind;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+import org.openide.modules.Places;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Where the #declare, #local and #macro definitions in every scene and
+ * include file the IDE has come across are.  The index lives in the user
+ * cache directory and is read back as-is on startup - nothing is
+ * rescanned.  A file is re-read when it changes while the IDE runs, and
+ * when a lookup returns symbols from a file whose size or timestamp no
+ * longer match the ones it was indexed with.
+ *
+ * @author Tim Boudreau
+ */
+public final class SymbolIndex {
+
+    private static final Logger LOG = Logger.getLogger(SymbolIndex.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor("POV-Ray symbol index", 1);
+    private static final int MAGIC = 0x504f5653;
+    private static final int VERSION = 2;
+    private static final int SAVE_DELAY = 5000;
+    private static final Keywords[] KINDS = {Keywords.declare, Keywords.local, Keywords.macro};
+    private static SymbolIndex INSTANCE;
+    private final File store;
+    private final Map<String, Entry> files = new HashMap<String, Entry>();
+    private final Map<String, List<Entry>> byName = new HashMap<String, List<Entry>>();
+    private final Set<String> watched = new HashSet<String>();
+    private final FileChangeAdapter listener = new Listener();
+    private final RequestProcessor.Task saveTask;
+    private boolean loaded;
+    // Grows with every change to the index;  guarded by this
+    private long stamp;
+    private volatile List<File> libraryPath = Collections.emptyList();
+
+    SymbolIndex(File store) {
+        this.store = store;
+        saveTask = RP.create(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    public static synchronized SymbolIndex getDefault() {
+        if (INSTANCE == null) {
+            INSTANCE = new SymbolIndex(Places.getCacheSubfile("povray/symbols.idx"));
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Index a file if it is not yet indexed or has changed, and keep it up
+     * to date from now on.
+     */
+    public void watch(final FileObject fo) {
+        File file = FileUtil.toFile(fo);
+        if (file == null) {
+            return;
+        }
+        synchronized (watched) {
+            if (!watched.add(file.getPath())) {
+                return;
+            }
+        }
+        fo.addFileChangeListener(listener);
+        update(fo);
+    }
+
+    /**
+     * Set the library directories #include names are looked up in after
+     * those of the including file and the document, in order, and index
+     * the scene files below the ones which are new.  Relative directories
+     * are relative to the document's.
+     */
+    public void setLibraryPath(List<File> dirs) {
+        List<File> old = libraryPath;
+        if (old.equals(dirs)) {
+            return;
+        }
+        libraryPath = Collections.unmodifiableList(new ArrayList<File>(dirs));
+        for (File dir : dirs) {
+            if (dir.isAbsolute() && !old.contains(dir)) {
+                FileObject fo = FileUtil.toFileObject(FileUtil.normalizeFile(dir));
+                if (fo != null && fo.isFolder()) {
+                    update(fo);
+                }
+            }
+        }
+    }
+
+    List<File> getLibraryPath() {
+        return libraryPath;
+    }
+
+    /**
+     * Bring the index up to date for a file, or for all the scene files
+     * below a folder, in the background.  Files which have not changed
+     * since they were indexed are not read.
+     */
+    private void update(final FileObject fo) {
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                refresh(fo);
+            }
+        });
+    }
+
+    /**
+     * Find the definitions of a name.
+     */
+    List<Symbol> find(String name) {
+        List<Entry> entries;
+        synchronized (this) {
+            load();
+            List<Entry> found = byName.get(name);
+            if (found == null) {
+                return Collections.emptyList();
+            }
+            entries = new ArrayList<Entry>(found);
+        }
+        List<Symbol> result = new ArrayList<Symbol>();
+        for (Entry e : entries) {
+            e = current(e);
+            if (e != null) {
+                e.symbols(name, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the definitions in a file, as of when it was last indexed.
+     */
+    public List<Symbol> getSymbols(File file) {
+        Entry e;
+        synchronized (this) {
+            load();
+            e = files.get(file.getPath());
+        }
+        List<Symbol> result = new ArrayList<Symbol>();
+        if (e != null) {
+            e.symbols(null, result);
+        }
+        return result;
+    }
+
+    /**
+     * Find the definitions in a file whose names match a fuzzy query, best
+     * first.  The file is indexed first if it has not been or has changed.
+     *
+     * @param max The maximum number of definitions to return
+     */
+    List<Symbol> matching(File file, FuzzyMatcher matcher, int max) {
+        List<Symbol> result = new ArrayList<Symbol>();
+        Entry e = indexed(file);
+        if (e != null) {
+            e.matching(matcher, max, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the file names in the #include directives of a file, as they
+     * are written.  The file is indexed first if it has not been or has
+     * changed.
+     */
+    public List<String> getIncludes(File file) {
+        Entry e = indexed(file);
+        return e == null ? Collections.<String>emptyList() : Arrays.asList(e.includes);
+    }
+
+    /**
+     * Get a number which grows with every change to the index, to pass to
+     * changedSince() later.
+     */
+    synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Find whether any of some files was indexed again, or dropped from the
+     * index, after stamp() returned a value.
+     */
+    synchronized boolean changedSince(long stamp, List<File> files) {
+        for (File file : files) {
+            Entry e = this.files.get(file.getPath());
+            if (e == null || e.stamp > stamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the up to date entry for a file, indexing it if it is not yet
+     * indexed.
+     */
+    private Entry indexed(File file) {
+        Entry e;
+        synchronized (this) {
+            load();
+            e = files.get(file.getPath());
+        }
+        if (e != null) {
+            return current(e);
+        }
+        FileObject fo = FileUtil.toFileObject(file);
+        if (fo == null || !fo.isData()) {
+            return null;
+        }
+        refresh(fo);
+        watch(fo);
+        synchronized (this) {
+            return files.get(file.getPath());
+        }
+    }
+
+    /**
+     * Re-read a file returned by a lookup if it has changed since it was
+     * indexed.
+     *
+     * @return The up to date entry, or null if the file is gone
+     */
+    private Entry current(Entry e) {
+        File file = new File(e.path);
+        if (file.lastModified() == e.modified && file.length() == e.size) {
+            return e;
+        }
+        FileObject fo = FileUtil.toFileObject(file);
+        if (fo == null) {
+            remove(e.path);
+            return null;
+        }
+        refresh(fo);
+        synchronized (this) {
+            return files.get(e.path);
+        }
+    }
+
+    private void refresh(FileObject fo) {
+        if (fo.isFolder()) {
+            for (FileObject kid : fo.getChildren()) {
+                if (kid.isFolder() || "text/x-povray".equals(kid.getMIMEType())) {
+                    refresh(kid);
+                }
+            }
+            return;
+        }
+        File file = FileUtil.toFile(fo);
+        if (file == null) {
+            return;
+        }
+        String path = file.getPath();
+        long modified = file.lastModified();
+        long size = file.length();
+        synchronized (this) {
+            load();
+            Entry old = files.get(path);
+            if (old != null && old.modified == modified && old.size == size) {
+                return;
+            }
+        }
+        try {
+            put(path, modified, size, fo.asText());
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Could not read " + path, ex);
+            remove(path);
+        }
+    }
+
+    /**
+     * Index the text of a file.
+     */
+    void put(String path, long modified, long size, CharSequence text) {
+        final List<SceneNode> nodes = new ArrayList<SceneNode>();
+        final List<Integer> starts = new ArrayList<Integer>();
+        final List<String> includes = new ArrayList<String>();
+        SceneTree.parse(text).accept(new SceneTree.Visitor() {
+            @Override
+            public boolean visit(SceneNode node, int start, int depth) {
+                if (node.getKind() != Kind.DIRECTIVE || node.getName() == null) {
+                    return true;
+                }
+                if (node.getKeyword() == Keywords.include) {
+                    includes.add(node.getName());
+                } else {
+                    nodes.add(node);
+                    starts.add(start);
+                }
+                return true;
+            }
+        });
+        int count = nodes.size();
+        byte[] kinds = new byte[count];
+        String[] names = new String[count];
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            kinds[i] = kind(nodes.get(i).getKeyword());
+            names[i] = nodes.get(i).getName();
+            offsets[i] = starts.get(i);
+        }
+        Entry e = new Entry(path, modified, size, kinds, names, offsets,
+                includes.toArray(new String[includes.size()]));
+        synchronized (this) {
+            load();
+            add(e);
+        }
+        saveTask.schedule(SAVE_DELAY);
+    }
+
+    void remove(String path) {
+        synchronized (this) {
+            load();
+            Entry old = files.remove(path);
+            if (old != null) {
+                drop(old);
+                stamp++;
+            }
+        }
+        saveTask.schedule(SAVE_DELAY);
+    }
+
+    private void add(Entry e) {
+        e.stamp = ++stamp;
+        Entry old = files.put(e.path, e);
+        if (old != null) {
+            drop(old);
+        }
+        for (String name : e.names) {
+            List<Entry> l = byName.get(name);
+            if (l == null) {
+                l = new ArrayList<Entry>(1);
+                byName.put(name, l);
+            }
+            // A name defined twice in a file is seen twice in a row
+            if (l.isEmpty() || l.get(l.size() - 1) != e) {
+                l.add(e);
+            }
+        }
+    }
+
+    private void drop(Entry old) {
+        for (String name : old.names) {
+            List<Entry> l = byName.get(name);
+            if (l != null && l.remove(old) && l.isEmpty()) {
+                byName.remove(name);
+            }
+        }
+    }
+
+    private static byte kind(Keywords keyword) {
+        for (byte i = 0; i < KINDS.length; i++) {
+            if (KINDS[i] == keyword) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.valueOf(keyword));
+    }
+
+    /**
+     * Read the stored index, the first time it is needed.
+     */
+    private void load() {
+        assert Thread.holdsLock(this);
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (store == null || store.length() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.log(Level.INFO, "Ignoring old symbol index {0}", store);
+                return;
+            }
+            String path = "";
+            for (int i = readVarInt(in); i > 0; i--) {
+                path = path.substring(0, readVarInt(in)) + in.readUTF();
+                long modified = in.readLong();
+                long size = readVarLong(in);
+                int count = readVarInt(in);
+                byte[] kinds = new byte[count];
+                String[] names = new String[count];
+                int[] offsets = new int[count];
+                int offset = 0;
+                for (int j = 0; j < count; j++) {
+                    kinds[j] = in.readByte();
+                    names[j] = in.readUTF();
+                    offsets[j] = offset += readVarInt(in);
+                }
+                String[] includes = new String[readVarInt(in)];
+                for (int j = 0; j < includes.length; j++) {
+                    includes[j] = in.readUTF();
+                }
+                add(new Entry(path, modified, size, kinds, names, offsets, includes));
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.INFO, "Corrupt symbol index " + store, ex);
+            files.clear();
+            byName.clear();
+        }
+        LOG.log(Level.FINE, "Loaded {0} files from {1} in {2} ms", new Object[]{
+            files.size(), store, (System.nanoTime() - start) / 1000000});
+    }
+
+    void save() {
+        List<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<Entry>(files.values());
+        }
+        if (store == null) {
+            return;
+        }
+        // Sorted, consecutive paths mostly share a prefix, which is
+        // written once
+        Collections.sort(entries);
+        File tmp = new File(store.getPath() + ".tmp");
+        try {
+            store.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeVarInt(out, entries.size());
+                String prev = "";
+                for (Entry e : entries) {
+                    int common = 0;
+                    int max = Math.min(prev.length(), e.path.length());
+                    while (common < max && prev.charAt(common) == e.path.charAt(common)) {
+                        common++;
+                    }
+                    writeVarInt(out, common);
+                    out.writeUTF(e.path.substring(common));
+                    out.writeLong(e.modified);
+                    writeVarLong(out, e.size);
+                    writeVarInt(out, e.names.length);
+                    int offset = 0;
+                    for (int j = 0; j < e.names.length; j++) {
+                        out.writeByte(e.kinds[j]);
+                        out.writeUTF(e.names[j]);
+                        writeVarInt(out, e.offsets[j] - offset);
+                        offset = e.offsets[j];
+                    }
+                    writeVarInt(out, e.includes.length);
+                    for (String include : e.includes) {
+                        out.writeUTF(include);
+                    }
+                    prev = e.path;
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Could not write symbol index " + store, ex);
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * A definition of a name.
+     */
+    public static final class Symbol {
+
+        private final Keywords kind;
+        private final String name;
+        private final File file;
+        private final int offset;
+
+        Symbol(Keywords kind, String name, File file, int offset) {
+            this.kind = kind;
+            this.name = name;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        /**
+         * Get the directive defining it - declare, local or macro.
+         */
+        public Keywords getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Get the offset of the # starting the directive.
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + kind.name() + " " + name + " at " + file + ":" + offset;
+        }
+    }
+
+    /**
+     * The definitions in one file, immutable.
+     */
+    private static final class Entry implements Comparable<Entry> {
+
+        final String path;
+        final long modified;
+        final long size;
+        final byte[] kinds;
+        final String[] names;
+        final int[] offsets;
+        final String[] includes;
+        // The index's stamp when it was added, guarded by the index
+        long stamp;
+        // Names by the characters their segments start with, for fuzzy
+        // matching, computed when first needed
+        private volatile int[][] initials;
+
+        Entry(String path, long modified, long size, byte[] kinds, String[] names,
+                int[] offsets, String[] includes) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.kinds = kinds;
+            this.names = names;
+            this.offsets = offsets;
+            this.includes = includes;
+        }
+
+        void matching(FuzzyMatcher matcher, int max, List<Symbol> into) {
+            int[][] index = initials;
+            if (index == null) {
+                initials = index = FuzzyMatcher.index(names);
+            }
+            int[] candidates = index[matcher.bucket()];
+            // Score in the high bits, index of the name in the low ones
+            long[] found = new long[candidates.length];
+            int count = 0;
+            for (int ix : candidates) {
+                int score = matcher.score(names[ix]);
+                if (score != FuzzyMatcher.NO_MATCH) {
+                    found[count++] = ((long) -score << 32) | ix;
+                }
+            }
+            Arrays.sort(found, 0, count);
+            File file = new File(path);
+            for (int i = 0; i < count && i < max; i++) {
+                int ix = (int) found[i];
+                into.add(new Symbol(KINDS[kinds[ix]], names[ix], file, offsets[ix]));
+            }
+        }
+
+        void symbols(String name, List<Symbol> into) {
+            File file = new File(path);
+            for (int i = 0; i < names.length; i++) {
+                if (name == null || name.equals(names[i])) {
+                    into.add(new Symbol(KINDS[kinds[i]], names[i], file, offsets[i]));
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return path.compareTo(o.path);
+        }
+    }
+
+    private final class Listener extends FileChangeAdapter {
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            update(fe.getFile());
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            File file = FileUtil.toFile(fe.getFile());
+            if (file != null) {
+                forget(file);
+            }
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            File file = FileUtil.toFile(fe.getFile());
+            if (file != null) {
+                String ext = fe.getExt();
+                String old = ext == null || ext.isEmpty() ? fe.getName() : fe.getName() + '.' + ext;
+                forget(new File(file.getParentFile(), old));
+                synchronized (watched) {
+                    watched.add(file.getPath());
+                }
+            }
+            update(fe.getFile());
+        }
+
+        private void forget(File file) {
+            synchronized (watched) {
+                watched.remove(file.getPath());
+            }
+            remove(file.getPath());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests compositing regions into PNG images of the kinds POV-Ray writes,
+ * and into others, against painting them into the decoded image, that
+ * compositing takes time in proportion to the image's height, and that
+ * cancelling it leaves the image alone.
+ *
+ * @author Tim Boudreau
+ */
+public class ImageCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cachetest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRgb() throws Exception {
+        check(TestImages.render(300, 200, false));
+    }
+
+    @Test
+    public void testRgba() throws Exception {
+        check(TestImages.render(300, 200, true));
+    }
+
+    @Test
+    public void testRgb16() throws Exception {
+        ImageTypeSpecifier type = ImageTypeSpecifier.createInterleaved(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                new int[]{0, 1, 2}, DataBuffer.TYPE_USHORT, false, false);
+        check(convert(TestImages.render(300, 200, false), type.createBufferedImage(300, 200)));
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        check(convert(TestImages.render(300, 200, false), new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_GRAY)));
+    }
+
+    @Test
+    public void testGray16() throws Exception {
+        check(convert(TestImages.render(300, 200, false), new BufferedImage(300, 200, BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    @Test
+    public void testPalette() throws Exception {
+        // Not decoded a band at a time
+        check(convert(TestImages.render(300, 200, false), new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_INDEXED)));
+    }
+
+    @Test
+    public void testTimeLinearInHeight() throws Exception {
+        // Reading each band through the image reader decoded the image
+        // from the top again, so four times the rows took sixteen times
+        // as long
+        time(1000, 400);
+        long small = time(1000, 400);
+        long big = time(1000, 1600);
+        assertTrue("400 rows took " + small / 1000000 + "ms, 1600 took " + big / 1000000 + "ms",
+                big < small * 8);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        File file = new File(dir, "image.png");
+        ImageIO.write(TestImages.render(300, 200, false), "png", file);
+        byte[] before = Files.readAllBytes(file.toPath());
+        Rectangle region = new Rectangle(40, 50, 101, 77);
+        BufferedImage patch = TestImages.render(region.width, region.height, false);
+        try {
+            new ImageCache(1 << 20).composite(file, region, patch, 300 * 16, new AtomicBoolean(true));
+            fail("Composited though cancelled");
+        } catch (InterruptedIOException ex) {
+            // expected
+        }
+        assertTrue("Image changed", Arrays.equals(before, Files.readAllBytes(file.toPath())));
+        assertEquals(Arrays.asList(file), Arrays.asList(dir.listFiles()));
+    }
+
+    private static BufferedImage convert(BufferedImage from, BufferedImage to) {
+        to.getGraphics().drawImage(from, 0, 0, null);
+        return to;
+    }
+
+    private void check(BufferedImage img) throws IOException {
+        File file = new File(dir, "image.png");
+        ImageIO.write(img, "png", file);
+        BufferedImage expected = ImageIO.read(file);
+        Rectangle region = new Rectangle(40, 50, 101, 77);
+        BufferedImage patch = TestImages.render(region.width, region.height, false);
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                expected.setRGB(region.x + x, region.y + y, patch.getRGB(x, y));
+            }
+        }
+        // Bands of 16 rows, so the region spans several
+        new ImageCache(1 << 20).composite(file, region, patch, img.getWidth() * 16, new AtomicBoolean());
+        BufferedImage result = ImageIO.read(file);
+        assertEquals(expected.getColorModel().getNumComponents(), result.getColorModel().getNumComponents());
+        assertEquals(expected.getColorModel().getComponentSize(0), result.getColorModel().getComponentSize(0));
+        int w = expected.getWidth();
+        for (int y = 0; y < expected.getHeight(); y++) {
+            int[] want = expected.getRaster().getPixels(0, y, w, 1, (int[]) null);
+            int[] got = result.getRaster().getPixels(0, y, w, 1, (int[]) null);
+            if (!Arrays.equals(want, got)) {
+                fail("row " + y + " composited wrongly");
+            }
+        }
+    }
+
+    /**
+     * Get the least time of three composites into an image, in
+     * nanoseconds.
+     */
+    private long time(int width, int height) throws IOException {
+        File file = new File(dir, "time.png");
+        Rectangle region = new Rectangle(100, height / 2, 50, 50);
+        BufferedImage patch = TestImages.render(region.width, region.height, false);
+        ImageIO.write(TestImages.render(width, height, false), "png", file);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            // Bands of 8 rows
+            new ImageCache(1 << 20).composite(file, region, patch, width * 8, new AtomicBoolean());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
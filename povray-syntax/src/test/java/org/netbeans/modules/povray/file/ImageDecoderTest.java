@@ -0,0 +1,126 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests images decoded by RasterDecoder against the images they were
+ * written from, whole, subsampled and in regions, for each variant of
+ * TGA and PPM, and that truncated files are reported incomplete.
+ *
+ * @author Tim Boudreau
+ */
+public class ImageDecoderTest {
+
+    @Test
+    public void testTga() throws IOException {
+        check("tga", false);
+        check("tga", true);
+    }
+
+    @Test
+    public void testRunLengthEncodedTga() throws IOException {
+        check("tga-rle", false);
+        check("tga-rle", true);
+    }
+
+    @Test
+    public void testTopDownTga() throws IOException {
+        check("tga-top", false);
+        check("tga-top", true);
+    }
+
+    @Test
+    public void testPpm() throws IOException {
+        check("ppm", false);
+    }
+
+    @Test
+    public void testSixteenBitPpm() throws IOException {
+        check("ppm16", false);
+    }
+
+    @Test
+    public void testPgm() throws IOException {
+        check("pgm", false);
+    }
+
+    private static void check(String format, boolean alpha) throws IOException {
+        BufferedImage img = TestImages.render(517, 301, alpha);
+        File file = File.createTempFile("decode", format.startsWith("tga") ? ".tga"
+                : format.equals("pgm") ? ".pgm" : ".ppm");
+        try {
+            TestImages.write(img, file, format);
+            check(img, file, format + (alpha ? " alpha" : ""), "pgm".equals(format));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(BufferedImage img, File file, String name, boolean gray) throws IOException {
+        assertEquals(name + ": complete file", ImageDecoder.Completeness.COMPLETE,
+                ImageDecoder.completeness(file));
+        Rectangle[] regions = {null, new Rectangle(0, 0, 1, 1), new Rectangle(100, 37, 250, 200),
+            new Rectangle(516, 300, 1, 1), new Rectangle(400, 250, 500, 500)};
+        for (Rectangle region : regions) {
+            for (int subsampling : new int[]{1, 2, 3, 8}) {
+                Rectangle r = region == null ? new Rectangle(img.getWidth(), img.getHeight())
+                        : region.intersection(new Rectangle(img.getWidth(), img.getHeight()));
+                BufferedImage decoded = ImageDecoder.read(file, region, subsampling);
+                int w = (r.width + subsampling - 1) / subsampling;
+                int h = (r.height + subsampling - 1) / subsampling;
+                String where = name + " " + r + "/" + subsampling;
+                assertEquals(where + ": width", w, decoded.getWidth());
+                assertEquals(where + ": height", h, decoded.getHeight());
+                for (int y = 0; y < h; y++) {
+                    for (int x = 0; x < w; x++) {
+                        int expected = img.getRGB(r.x + x * subsampling, r.y + y * subsampling);
+                        if (gray) {
+                            expected = 0xFF000000 | (expected & 0xFF) * 0x010101;
+                        }
+                        if (decoded.getRGB(x, y) != expected) {
+                            fail(where + ": pixel " + x + "," + y + " is "
+                                    + Integer.toHexString(decoded.getRGB(x, y))
+                                    + " not " + Integer.toHexString(expected));
+                        }
+                    }
+                }
+            }
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() / 2);
+        }
+        assertNotEquals(name + ": truncated file reported complete", ImageDecoder.Completeness.COMPLETE,
+                ImageDecoder.completeness(file));
+    }
+}
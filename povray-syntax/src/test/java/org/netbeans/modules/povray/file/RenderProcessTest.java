@@ -0,0 +1,163 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs renders through RenderProcess with StubRenderer standing in for
+ * POV-Ray, and tests the progress reported, the output, previews,
+ * compositing regions rendered again, failures and cancellation.
+ *
+ * @author Tim Boudreau
+ */
+public class RenderProcessTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        StubRenderer.install();
+        dir = Files.createTempDirectory("rendertest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRender() throws Exception {
+        File scene = RenderResult.scene(dir, "ok", "sphere { 0, 1 }\n");
+        File out = new File(dir, "ok.png");
+        RenderResult r = run(scene, out, Arrays.asList("+W200", "+H100"));
+        assertTrue("render failed: " + r.message, r.success);
+        assertTrue("phases not reported: " + r.phases,
+                r.phases.contains("Parsing...") && r.phases.contains("Rendering..."));
+        r.assertProgress();
+        BufferedImage img = ImageIO.read(out);
+        assertEquals(200, img.getWidth());
+        assertEquals(100, img.getHeight());
+        assertEquals(StubRenderer.pixel(150, 70), img.getRGB(150, 70) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testPreview() throws Exception {
+        File scene = RenderResult.scene(dir, "preview", "sphere { 0, 1 }\n");
+        File out = new File(dir, "preview.png");
+        RenderResult r = run(scene, out, RenderSettings.previewOptions(Arrays.asList("+W800", "-H600", "+A0.3")));
+        assertTrue("preview failed: " + r.message, r.success);
+        BufferedImage img = ImageIO.read(out);
+        assertEquals("a quarter of the width", 200, img.getWidth());
+        assertEquals("a quarter of the height", 150, img.getHeight());
+    }
+
+    @Test
+    public void testRegion() throws Exception {
+        File scene = RenderResult.scene(dir, "region", "sphere { 0, 1 }\n");
+        File image = new File(dir, "region.png");
+        ImageIO.write(new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB), "png", image);
+        // Cached before the region is rendered, and replaced by a patched
+        // copy
+        BufferedImage overview = ImageCache.getDefault().read(image, null, 4);
+        Rectangle region = new Rectangle(300, 301, 123, 77);
+        File out = new File(dir, "region-part.png");
+        RenderResult r = run(scene, out, Arrays.asList("+W1000", "+H800",
+                "+SC" + (region.x + 1), "+EC" + (region.x + region.width),
+                "+SR" + (region.y + 1), "+ER" + (region.y + region.height)));
+        assertTrue("region render failed: " + r.message, r.success);
+        // Bands of 64 rows, so the region spans two
+        ImageCache.getDefault().composite(image, region, ImageIO.read(out), 1000 * 64, new AtomicBoolean());
+        BufferedImage result = ImageIO.read(image);
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                int expected = region.contains(x, y) ? StubRenderer.pixel(x, y) : 0;
+                if ((result.getRGB(x, y) & 0xFFFFFF) != expected) {
+                    fail("region composited wrongly at " + x + "," + y);
+                }
+            }
+        }
+        BufferedImage cached = ImageCache.getDefault().get(image, null, 4);
+        assertNotNull("cached overview not kept for the composited image", cached);
+        assertNotSame("cached overview patched in place", overview, cached);
+        assertEquals("cached overview changed", 0, overview.getRGB(80, 80) & 0xFFFFFF);
+        assertEquals("cached overview not patched", StubRenderer.pixel(320, 320),
+                cached.getRGB(80, 80) & 0xFFFFFF);
+        assertEquals(0, cached.getRGB(10, 10) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        File scene = RenderResult.scene(dir, "bad", "#error \"no\"\n");
+        RenderResult r = run(scene, new File(dir, "bad.png"), Arrays.<String>asList());
+        assertFalse(r.success);
+        assertTrue("parse error not reported: " + r.message,
+                r.message != null && r.message.contains("Parse Error"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        // Slow enough that it cannot finish first
+        File scene = RenderResult.scene(dir, "slow", "// stub delay 20\nsphere { 0, 1 }\n");
+        RenderResult r = new RenderResult();
+        RenderProcess render = new RenderProcess(RenderSettings.getExecutable(),
+                Arrays.asList("+W100", "+H1000"), scene, new File(dir, "slow.png"), r);
+        render.start();
+        long start = System.nanoTime();
+        while (r.percents.isEmpty() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30)) {
+            Thread.sleep(10);
+        }
+        render.cancel();
+        assertTrue("cancelled render did not finish", r.done.await(5, TimeUnit.SECONDS));
+        assertFalse("cancelled render succeeded", r.success);
+        assertEquals(1, r.finishes.get());
+    }
+
+    private static RenderResult run(File scene, File out, List<String> options) throws Exception {
+        RenderResult r = new RenderResult();
+        new RenderProcess(RenderSettings.getExecutable(), options, scene, out, r).start();
+        return r.await(scene.getName());
+    }
+}
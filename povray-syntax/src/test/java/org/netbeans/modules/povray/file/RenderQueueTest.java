@@ -0,0 +1,233 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs renders of several scenes through the RenderQueue with StubRenderer
+ * standing in for POV-Ray, and tests that their threads stay within the
+ * cores allowed, that the focused scene's go first, and moving and
+ * cancelling waiting renders.  The cores setting is written to the
+ * in-memory MemoryPreferences, never the user's own.
+ *
+ * @author Tim Boudreau
+ */
+public class RenderQueueTest {
+
+    private File dir;
+    private int cores;
+    // The order renders finished in
+    private final List<String> finished = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setUp() throws IOException {
+        StubRenderer.install();
+        dir = Files.createTempDirectory("queuetest").toFile();
+        cores = RenderSettings.getCores();
+    }
+
+    @After
+    public void tearDown() {
+        RenderSettings.setCores(cores);
+        RenderQueue.getDefault().setFocused(null);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private File scene(String name, int delay) throws IOException {
+        File scene = new File(dir, name + ".pov");
+        Files.write(scene.toPath(), ("// stub delay " + delay + "\nsphere { 0, 1 }\n")
+                .getBytes(StandardCharsets.UTF_8));
+        return scene;
+    }
+
+    private Render render(File scene, String name, String... options) {
+        Render r = new Render(name);
+        List<String> list = new ArrayList<String>(Arrays.asList("+W50", "+H40"));
+        list.addAll(Arrays.asList(options));
+        r.process = new RenderProcess(RenderSettings.getExecutable(), list,
+                scene, new File(dir, name + ".png"), name, r);
+        return r;
+    }
+
+    private static String threadsOption(Render r) {
+        List<String> command = r.process.getCommand();
+        return command.get(command.size() - 1);
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        RenderSettings.setCores(2);
+        RenderQueue queue = RenderQueue.getDefault();
+        List<Render> renders = new ArrayList<Render>();
+        File a = scene("a", 5);
+        File b = scene("b", 5);
+        for (int i = 0; i < 6; i++) {
+            Render r = render(i % 2 == 0 ? a : b, "budget" + i, "+WT1");
+            renders.add(r);
+            r.process.start();
+        }
+        int most = 0;
+        long start = System.nanoTime();
+        while (!queue.getRunning().isEmpty() || !queue.getWaiting().isEmpty()) {
+            most = Math.max(most, queue.getRunning().size());
+            assertTrue("threads over the budget", queue.getThreads() <= 2);
+            if (System.nanoTime() - start > TimeUnit.SECONDS.toNanos(60)) {
+                fail("queued renders did not finish");
+            }
+            Thread.sleep(5);
+        }
+        assertEquals("renders at once", 2, most);
+        for (Render r : renders) {
+            assertTrue(r.name + " did not finish", r.done.await(5, TimeUnit.SECONDS));
+            assertTrue(r.name + " failed: " + r.message, r.success);
+            assertEquals("+WT1", threadsOption(r));
+            if (renders.indexOf(r) >= 2) {
+                assertTrue(r.name + " did not report waiting", r.phases.contains("Waiting for a free core"));
+            }
+        }
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        RenderSettings.setCores(3);
+        RenderQueue queue = RenderQueue.getDefault();
+        Render one = render(scene("one", 20), "one", "+WT1");
+        one.process.start();
+        // Gets the two cores left, then there are none for the last
+        Render rest = render(scene("rest", 20), "rest");
+        rest.process.start();
+        Render last = render(scene("last", 0), "last", "+WT1");
+        last.process.start();
+        assertEquals("running: " + queue.getRunning(), 2, queue.getRunning().size());
+        assertEquals(3, queue.getThreads());
+        assertEquals(Arrays.asList(last.process), queue.getWaiting());
+        for (Render r : Arrays.asList(one, rest, last)) {
+            assertTrue(r.name + " did not finish", r.done.await(60, TimeUnit.SECONDS));
+            assertTrue(r.name + " failed: " + r.message, r.success);
+        }
+        assertEquals("+WT1", threadsOption(one));
+        assertEquals("+WT2", threadsOption(rest));
+        assertEquals("+WT1", threadsOption(last));
+        assertTrue("last did not wait", last.phases.contains("Waiting for a free core"));
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        RenderSettings.setCores(1);
+        RenderQueue queue = RenderQueue.getDefault();
+        queue.setFocused(null);
+        // Keeps the one core busy while the rest are queued
+        Render blocker = render(scene("blocker", 20), "blocker");
+        blocker.process.start();
+        File b = scene("b", 0);
+        File c = scene("c", 0);
+        Render c1 = render(c, "c1");
+        Render b1 = render(b, "b1");
+        Render c2 = render(c, "c2");
+        c1.process.start();
+        b1.process.start();
+        c2.process.start();
+        assertWaiting(queue, "added", c1, b1, c2);
+        queue.setFocused(b);
+        assertWaiting(queue, "focused", b1, c1, c2);
+        Render b2 = render(b, "b2");
+        b2.process.start();
+        assertWaiting(queue, "added for the focused scene", b1, b2, c1, c2);
+        queue.move(c2.process, -1);
+        assertWaiting(queue, "moved", b1, b2, c2, c1);
+        c1.process.cancel();
+        assertEquals("cancelled waiting render not finished", 0, c1.done.getCount());
+        assertFalse(c1.success);
+        assertWaiting(queue, "cancelled", b1, b2, c2);
+        assertEquals("running: " + queue.getRunning(), 1, queue.getRunning().size());
+        assertSame(blocker.process, queue.getRunning().get(0));
+        for (Render r : Arrays.asList(blocker, b1, b2, c2)) {
+            assertTrue(r.name + " did not finish", r.done.await(60, TimeUnit.SECONDS));
+            assertTrue(r.name + " failed: " + r.message, r.success);
+        }
+        assertEquals(Arrays.asList("c1", "blocker", "b1", "b2", "c2"), finished);
+    }
+
+    private static void assertWaiting(RenderQueue queue, String when, Render... renders) {
+        List<String> expected = new ArrayList<String>();
+        for (Render r : renders) {
+            expected.add(r.name);
+        }
+        List<String> names = new ArrayList<String>();
+        for (RenderProcess p : queue.getWaiting()) {
+            names.add(p.getDescription());
+        }
+        assertEquals("order when " + when, expected, names);
+    }
+
+    private final class Render implements RenderJob.Listener {
+
+        final String name;
+        final List<String> phases = new CopyOnWriteArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        RenderProcess process;
+        volatile boolean success;
+        volatile String message;
+
+        Render(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void progress(RenderJob render, String status, int percent) {
+            if (percent < 0) {
+                phases.add(status);
+            }
+        }
+
+        @Override
+        public void finished(RenderJob render, boolean success, String message) {
+            this.success = success;
+            this.message = message;
+            finished.add(name);
+            done.countDown();
+        }
+    }
+}
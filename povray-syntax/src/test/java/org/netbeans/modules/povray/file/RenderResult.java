@@ -0,0 +1,97 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records what a render reports, for the render tests.
+ *
+ * @author Tim Boudreau
+ */
+final class RenderResult implements RenderJob.Listener {
+
+    final List<String> phases = new CopyOnWriteArrayList<String>();
+    final List<Integer> percents = new CopyOnWriteArrayList<Integer>();
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger finishes = new AtomicInteger();
+    volatile boolean success;
+    volatile String message;
+
+    /**
+     * Write a scene for the stub renderer.
+     */
+    static File scene(File dir, String name, String text) throws IOException {
+        File scene = new File(dir, name + ".pov");
+        Files.write(scene.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return scene;
+    }
+
+    /**
+     * Wait for the render to finish, failing if it takes a minute.
+     */
+    RenderResult await(String name) throws InterruptedException {
+        assertTrue(name + " did not finish", done.await(60, TimeUnit.SECONDS));
+        return this;
+    }
+
+    /**
+     * Check that the percentages reported never went down, and reached
+     * 100.
+     */
+    void assertProgress() {
+        int last = -1;
+        for (int percent : percents) {
+            assertTrue("progress went backwards: " + percents, percent >= last);
+            last = percent;
+        }
+        assertTrue("progress did not reach 100: " + percents, last == 100);
+    }
+
+    @Override
+    public void progress(RenderJob render, String status, int percent) {
+        if (percent < 0) {
+            phases.add(status);
+        } else {
+            percents.add(percent);
+        }
+    }
+
+    @Override
+    public void finished(RenderJob render, boolean success, String message) {
+        this.success = success;
+        this.message = message;
+        finishes.incrementAndGet();
+        done.countDown();
+    }
+}
@@ -0,0 +1,61 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the settings read from the renderer options.
+ *
+ * @author Tim Boudreau
+ */
+public class RenderSettingsTest {
+
+    private String options;
+
+    @Before
+    public void setUp() {
+        options = RenderSettings.getOptions();
+    }
+
+    @After
+    public void tearDown() {
+        RenderSettings.setOptions(options);
+    }
+
+    @Test
+    public void testLibraryPath() {
+        RenderSettings.setOptions("+W800 +L/usr/share/povray/include +A0.3 -Linc Library_Path=/opt/lib");
+        assertEquals(Arrays.asList(new File("/usr/share/povray/include"), new File("inc"), new File("/opt/lib")),
+                RenderSettings.getLibraryPath());
+        RenderSettings.setOptions("+W800 +H600");
+        assertTrue(RenderSettings.getLibraryPath().isEmpty());
+    }
+}
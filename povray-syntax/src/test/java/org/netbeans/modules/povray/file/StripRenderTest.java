@@ -0,0 +1,144 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Renders frames in strips with StubRenderer standing in for POV-Ray, and
+ * tests how rows are split, the stitched image for renderers which write
+ * strips cropped and at full size, and failures.
+ *
+ * @author Tim Boudreau
+ */
+public class StripRenderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        StubRenderer.install();
+        dir = Files.createTempDirectory("striptest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSplit() {
+        for (int height = 1; height < 100; height++) {
+            for (int count = 1; count < 20; count++) {
+                int[] rows = StripRender.split(height, count);
+                String split = height + " into " + count + ": " + Arrays.toString(rows);
+                assertEquals(split, 0, rows[0]);
+                assertEquals(split, height, rows[rows.length - 1]);
+                assertEquals(split, Math.min(count, height), rows.length - 1);
+                for (int i = 1; i < rows.length; i++) {
+                    int size = rows[i] - rows[i - 1];
+                    int even = height / (rows.length - 1);
+                    assertTrue("uneven split of " + split, size == even || size == even + 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCroppedStrips() throws Exception {
+        // As POV-Ray 3.7 writes them
+        check("strips", "");
+    }
+
+    @Test
+    public void testFullFrameStrips() throws Exception {
+        // As POV-Ray 3.6 writes them
+        check("fullstrips", "// stub full frame\n");
+    }
+
+    private void check(String name, String prefix) throws Exception {
+        File scene = RenderResult.scene(dir, name, prefix + "sphere { 0, 1 }\n");
+        File out = new File(dir, name + ".png");
+        RenderResult r = new RenderResult();
+        // Rows which do not divide evenly
+        StripRender render = new StripRender(RenderSettings.getExecutable(), Arrays.asList("+A0.3"),
+                scene, out, 301, 203, 4, r);
+        render.start();
+        r.await(name);
+        assertTrue("render in strips failed: " + r.message, r.success);
+        r.assertProgress();
+        BufferedImage img = ImageIO.read(out);
+        assertEquals(301, img.getWidth());
+        assertEquals(203, img.getHeight());
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                if ((img.getRGB(x, y) & 0xFFFFFF) != StubRenderer.pixel(x, y)) {
+                    fail("strips stitched wrongly at " + x + "," + y);
+                }
+            }
+        }
+        for (long millis : render.getStripMillis()) {
+            assertTrue("strip times not reported: " + Arrays.toString(render.getStripMillis()), millis > 0);
+        }
+        assertStripsDeleted(render);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        File scene = RenderResult.scene(dir, "badstrips", "#error \"no\"\n");
+        File out = new File(dir, "badstrips.png");
+        RenderResult r = new RenderResult();
+        StripRender render = new StripRender(RenderSettings.getExecutable(), Arrays.<String>asList(),
+                scene, out, 100, 100, 3, r);
+        render.start();
+        r.await("failed render in strips");
+        assertFalse(r.success);
+        assertTrue("parse error in strips not reported: " + r.message,
+                r.message != null && r.message.contains("Parse Error"));
+        assertEquals("finished once", 1, r.finishes.get());
+        assertFalse("failed render in strips wrote an image", out.exists());
+        assertStripsDeleted(render);
+    }
+
+    private static void assertStripsDeleted(StripRender render) {
+        for (File strip : render.getStripFiles()) {
+            assertFalse("strip not deleted: " + strip, strip.exists());
+        }
+    }
+}
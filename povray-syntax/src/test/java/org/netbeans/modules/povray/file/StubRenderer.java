@@ -0,0 +1,166 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import org.junit.Assume;
+
+/**
+ * Stands in for POV-Ray:  takes the same options for the scene, output,
+ * size and rows and columns to render, reports progress the way POV-Ray
+ * 3.7 does, and writes a PNG whose pixels are a function of their
+ * position, so output can be checked.  A scene containing #error fails
+ * to parse;  one containing "// stub delay n" waits n milliseconds per
+ * row rendered, and one containing "// stub full frame" writes partial
+ * renders at the size of the whole image, as POV-Ray 3.6 does.  Tests
+ * install it in place of POV-Ray with install().
+ *
+ * @author Tim Boudreau
+ */
+public final class StubRenderer {
+
+    private static boolean installed;
+
+    private StubRenderer() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Make renders run the stub, through a script which starts it with
+     * this JVM and class path, as setting the povray.executable property
+     * to POV-Ray would.  Skips the calling test where there is no shell to
+     * run the script.
+     */
+    static synchronized void install() throws IOException {
+        Assume.assumeFalse("No shell to run the stub renderer", File.separatorChar == '\\');
+        if (installed) {
+            return;
+        }
+        File script = File.createTempFile("stub-povray", ".sh");
+        script.deleteOnExit();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        // Surefire passes the test class path in a property of its own
+        String classPath = System.getProperty("surefire.test.class.path",
+                System.getProperty("java.class.path"));
+        String text = "#!/bin/sh\nexec " + quote(java) + " -Djava.awt.headless=true -cp "
+                + quote(classPath) + " " + StubRenderer.class.getName() + " \"$@\"\n";
+        Files.write(script.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        if (!script.setExecutable(true)) {
+            throw new IOException("Cannot make " + script + " executable");
+        }
+        System.setProperty("povray.executable", script.getPath());
+        installed = true;
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Get the color the stub renders a pixel of the whole image.
+     */
+    static int pixel(int x, int y) {
+        return (x * 255 / 4096) << 16 | (y * 255 / 4096) << 8 | ((x ^ y) & 0xFF);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File scene = null;
+        File output = null;
+        int width = 320;
+        int height = 240;
+        // One based and inclusive, as POV-Ray's
+        int startRow = 1;
+        int endRow = -1;
+        int startCol = 1;
+        int endCol = -1;
+        for (String arg : args) {
+            String opt = arg.length() > 1 ? arg.substring(1).toUpperCase() : "";
+            String value = arg.length() > 2 ? arg.substring(2) : "";
+            if (opt.startsWith("I")) {
+                scene = new File(value);
+            } else if (opt.startsWith("O")) {
+                output = new File(value);
+            } else if (opt.startsWith("WT")) {
+                // Threads;  the stub renders on one
+                continue;
+            } else if (opt.startsWith("W")) {
+                width = Integer.parseInt(value);
+            } else if (opt.startsWith("H")) {
+                height = Integer.parseInt(value);
+            } else if (opt.startsWith("SR")) {
+                startRow = Integer.parseInt(arg.substring(3));
+            } else if (opt.startsWith("ER")) {
+                endRow = Integer.parseInt(arg.substring(3));
+            } else if (opt.startsWith("SC")) {
+                startCol = Integer.parseInt(arg.substring(3));
+            } else if (opt.startsWith("EC")) {
+                endCol = Integer.parseInt(arg.substring(3));
+            }
+        }
+        if (scene == null || output == null) {
+            System.err.println("Usage: stub-povray +Iscene.pov +Oimage.png [+Wn] [+Hn] [+SRn] [+ERn] [+SCn] [+ECn]");
+            System.exit(2);
+        }
+        endRow = endRow < 0 ? height : Math.min(endRow, height);
+        endCol = endCol < 0 ? width : Math.min(endCol, width);
+        System.err.println("==== [Parsing...] ==========================================================");
+        String text = new String(Files.readAllBytes(scene.toPath()), StandardCharsets.UTF_8);
+        if (text.contains("#error")) {
+            System.err.println("File '" + scene.getName() + "' line 1: Parse Error: #error directive");
+            System.exit(1);
+        }
+        System.err.println("==== [Rendering...] ========================================================");
+        Matcher m = Pattern.compile("// stub delay (\\d+)").matcher(text);
+        long delay = m.find() ? Long.parseLong(m.group(1)) : 0;
+        int w = endCol - startCol + 1;
+        int h = endRow - startRow + 1;
+        // Partial renders are written cropped, as POV-Ray 3.7 does, unless
+        // asked to write the whole frame
+        boolean fullFrame = text.contains("// stub full frame");
+        BufferedImage img = fullFrame ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+                : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int left = fullFrame ? startCol - 1 : 0;
+        int top = fullFrame ? startRow - 1 : 0;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                img.setRGB(left + x, top + y, pixel(startCol - 1 + x, startRow - 1 + y));
+            }
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            System.err.print("\rRendered " + (long) (y + 1) * w + " of " + (long) w * h + " pixels ("
+                    + (y + 1) * 100 / h + "%)");
+        }
+        System.err.println();
+        ImageIO.write(img, "png", output);
+        System.err.println("Render Time: done");
+    }
+}
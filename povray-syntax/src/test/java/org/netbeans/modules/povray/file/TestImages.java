@@ -0,0 +1,166 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes images in the formats renderers produce, for the decoder tests
+ * and benchmarks.
+ *
+ * @author Tim Boudreau
+ */
+final class TestImages {
+
+    private TestImages() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Make an image resembling a render:  smooth gradients, which
+     * compress, with noise, which does not.
+     */
+    static BufferedImage render(int width, int height, boolean alpha) {
+        BufferedImage img = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                // A noisy band through the middle, like a textured object
+                int b = Math.abs(x - width / 2) < width / 6 ? random.nextInt(256) : 128;
+                int a = alpha ? (x + y) & 0xFF : 0xFF;
+                img.setRGB(x, y, a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Write an image as png, tga, tga-rle, tga-top (stored top row first),
+     * ppm, ppm16 (16-bit samples) or pgm.
+     */
+    static void write(BufferedImage img, File file, String format) throws IOException {
+        if ("png".equals(format)) {
+            ImageIO.write(img, "png", file);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            if (format.startsWith("tga")) {
+                writeTga(img, out, "tga-rle".equals(format), "tga-top".equals(format));
+            } else {
+                writePnm(img, out, "ppm16".equals(format), "pgm".equals(format));
+            }
+        }
+    }
+
+    private static void writeTga(BufferedImage img, OutputStream out, boolean rle, boolean topDown) throws IOException {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean alpha = img.getColorModel().hasAlpha();
+        int bpp = alpha ? 4 : 3;
+        byte[] header = new byte[18];
+        header[2] = (byte) (rle ? 10 : 2);
+        header[12] = (byte) w;
+        header[13] = (byte) (w >> 8);
+        header[14] = (byte) h;
+        header[15] = (byte) (h >> 8);
+        header[16] = (byte) (bpp * 8);
+        header[17] = (byte) ((alpha ? 8 : 0) | (topDown ? 0x20 : 0));
+        out.write(header);
+        byte[] px = new byte[bpp];
+        for (int i = 0; i < h; i++) {
+            int y = topDown ? i : h - 1 - i;
+            int x = 0;
+            while (x < w) {
+                if (!rle) {
+                    out.write(pixel(img.getRGB(x++, y), px, bpp));
+                    continue;
+                }
+                // Packets may not span rows;  runs of up to 128 pixels
+                int run = 1;
+                while (x + run < w && run < 128 && img.getRGB(x + run, y) == img.getRGB(x, y)) {
+                    run++;
+                }
+                if (run > 1) {
+                    out.write(0x80 | (run - 1));
+                    out.write(pixel(img.getRGB(x, y), px, bpp));
+                    x += run;
+                    continue;
+                }
+                int raw = 1;
+                while (x + raw < w && raw < 128
+                        && (x + raw + 1 >= w || img.getRGB(x + raw, y) != img.getRGB(x + raw + 1, y))) {
+                    raw++;
+                }
+                out.write(raw - 1);
+                for (int j = 0; j < raw; j++) {
+                    out.write(pixel(img.getRGB(x++, y), px, bpp));
+                }
+            }
+        }
+        out.write(new byte[8]);
+        out.write("TRUEVISION-XFILE.\0".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] pixel(int argb, byte[] px, int bpp) {
+        px[0] = (byte) argb;
+        px[1] = (byte) (argb >> 8);
+        px[2] = (byte) (argb >> 16);
+        if (bpp == 4) {
+            px[3] = (byte) (argb >> 24);
+        }
+        return px;
+    }
+
+    private static void writePnm(BufferedImage img, OutputStream out, boolean wide, boolean gray) throws IOException {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        out.write(((gray ? "P5" : "P6") + "\n# written by TestImages\n" + w + " " + h + "\n"
+                + (wide ? 65535 : 255) + "\n").getBytes(StandardCharsets.US_ASCII));
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int rgb = img.getRGB(x, y);
+                int[] samples = gray ? new int[]{rgb & 0xFF}
+                        : new int[]{(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
+                for (int s : samples) {
+                    if (wide) {
+                        // Scales back to s exactly
+                        out.write(s);
+                    }
+                    out.write(s);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the keywords blocks.txt allows in blocks.
+ *
+ * @author Tim Boudreau
+ */
+public class BlockGrammarTest {
+
+    @Test
+    public void testEveryKeywordListed() {
+        assertEquals(Collections.<Keywords>emptyList(), BlockGrammar.getDefault().unlisted());
+    }
+
+    @Test
+    public void testBlocks() {
+        BlockGrammar grammar = BlockGrammar.getDefault();
+        KeywordTrie trie = KeywordTrie.getDefault();
+        assertTrue(grammar.block(Keywords.function).get(trie.position(Keywords.pattern)));
+        assertTrue(grammar.block(Keywords.function).get(trie.position(Keywords.trace)));
+        assertTrue(grammar.block(Keywords.pigment).get(trie.position(Keywords.facets)));
+        assertTrue(grammar.block(Keywords.pigment).get(trie.position(Keywords.coords)));
+        assertTrue(grammar.block(Keywords.image_map).get(trie.position(Keywords.all)));
+        assertTrue(grammar.block(Keywords.tiles).get(trie.position(Keywords.tile2)));
+        assertFalse(grammar.scene().get(trie.position(Keywords.tile2)));
+    }
+}
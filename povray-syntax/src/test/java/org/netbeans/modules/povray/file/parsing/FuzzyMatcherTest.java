@@ -0,0 +1,63 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests fuzzy matching of keywords, ignoring case, and of declared names,
+ * which must match it.
+ *
+ * @author Tim Boudreau
+ */
+public class FuzzyMatcherTest {
+
+    @Test
+    public void testSegments() {
+        FuzzyMatcher matcher = new FuzzyMatcher("mtl");
+        assertNotEquals(FuzzyMatcher.NO_MATCH, matcher.score("max_trace_level"));
+        assertEquals(FuzzyMatcher.NO_MATCH, matcher.score("matrix"));
+        assertTrue("a prefix scores best",
+                new FuzzyMatcher("ph").score("phong") > new FuzzyMatcher("ph").score("phong_size"));
+    }
+
+    @Test
+    public void testKeywordsIgnoreCase() {
+        assertNotEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("MTL").score("max_trace_level"));
+        assertNotEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("mt").score("MaxTrace"));
+    }
+
+    @Test
+    public void testNamesMatchCase() {
+        assertNotEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("Red", false).score("Red_Glass"));
+        assertNotEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("mT", false).score("myTexture"));
+        assertEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("red", false).score("Red_Glass"));
+        assertEquals(FuzzyMatcher.NO_MATCH, new FuzzyMatcher("MT", false).score("myTexture"));
+        assertEquals("the index ignores case for both", FuzzyMatcher.bucket('r'),
+                new FuzzyMatcher("Red", false).bucket());
+    }
+}
@@ -0,0 +1,168 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential test of the parallel tokenizer against the editor's
+ * sequential PovLexer:  lexes generated scenes - including ones built so
+ * that split points fall inside comments, strings and vectors - at chunk
+ * sizes down to a few characters, and fails on the first token that
+ * differs in type, offset or length.
+ *
+ * @author Tim Boudreau
+ */
+public class ParallelTokenizerTest {
+
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 7, 64, 1000, 4096, 65536};
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testScene() {
+        check("scene", SceneCorpus.generate(2000));
+    }
+
+    @Test
+    public void testCommentedScene() {
+        check("commented scene", SceneCorpus.generate(2000, 500));
+    }
+
+    @Test
+    public void testDirectivesInComment() {
+        check("directives in comment", directivesIn("/*\n", "*/\n", 400));
+        check("directives in nested comment", directivesIn("/* /*\n", "*/ */\n", 400));
+    }
+
+    @Test
+    public void testDirectivesInString() {
+        check("directives in string", directivesIn("#debug \"\n", "\"\n", 400));
+    }
+
+    @Test
+    public void testDirectivesInVector() {
+        check("directives in vector", directivesIn("#declare V = <\n", ">;\n", 400));
+    }
+
+    @Test
+    public void testDirectivesInArguments() {
+        check("directives in arguments", directivesIn("#declare F = f(\n", ");\n", 400));
+    }
+
+    @Test
+    public void testEscapedBackslashes() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("#include \"C:\\\\\" sphere { 0, 1 }\n")
+                    .append("#declare F = f(\"a\\\\\", \"b\\\")\", 1);\n");
+        }
+        check("escaped backslashes", sb.toString());
+    }
+
+    /**
+     * A scene in which a construct spanning many lines contains lines that
+     * start with directives, where the splitter prefers to cut.
+     */
+    private static String directivesIn(String open, String close, int lines) {
+        String scene = SceneCorpus.generate(lines);
+        StringBuilder sb = new StringBuilder(scene).append(open);
+        for (String line : scene.split("\n")) {
+            if (line.startsWith("#")) {
+                sb.append(line.replace("*/", "").replace("\"", "").replace(">", "").replace(")", "")).append('\n');
+            }
+        }
+        return sb.append(close).append(scene).toString();
+    }
+
+    private void check(String name, String text) {
+        long[] expected = sequential(text);
+        for (int chunkSize : CHUNK_SIZES) {
+            Recorder recorder = new Recorder();
+            ParallelTokenizer.tokenize(text, pool, recorder, chunkSize);
+            long[] actual = Arrays.copyOf(recorder.tokens, recorder.count);
+            if (!Arrays.equals(expected, actual)) {
+                fail(name + ", chunk size " + chunkSize + ": " + describe(expected, actual));
+            }
+        }
+    }
+
+    private static long[] sequential(String text) {
+        TokenHierarchy<String> hierarchy = TokenHierarchy.create(text, PovTokenId.getLanguage());
+        TokenSequence<PovTokenId> seq = hierarchy.tokenSequence(PovTokenId.getLanguage());
+        Recorder recorder = new Recorder();
+        while (seq.moveNext()) {
+            recorder.token(seq.token().id(), seq.offset(), seq.token().length(), text, seq.offset());
+        }
+        return Arrays.copyOf(recorder.tokens, recorder.count);
+    }
+
+    private static String describe(long[] expected, long[] actual) {
+        int max = Math.min(expected.length, actual.length);
+        for (int i = 0; i < max; i++) {
+            if (expected[i] != actual[i]) {
+                return "token " + i + " expected " + decode(expected[i]) + " got " + decode(actual[i]);
+            }
+        }
+        return "expected " + expected.length + " tokens, got " + actual.length;
+    }
+
+    private static String decode(long token) {
+        return PovTokenId.values()[(int) (token >>> 56)] + " at "
+                + ((token >>> 24) & 0xFFFFFFFFL) + " length " + (token & 0xFFFFFF);
+    }
+
+    /**
+     * Packs each token's id, offset and length into a long.
+     */
+    private static final class Recorder implements PovTokenizer.TokenHandler {
+
+        long[] tokens = new long[1024];
+        int count;
+
+        @Override
+        public void token(PovTokenId id, long offset, int length, CharSequence text, int start) {
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+            tokens[count++] = ((long) id.ordinal() << 56) | (offset << 24) | length;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests where PovLexer ends strings and argument lists containing escaped
+ * quotes and backslashes.
+ *
+ * @author Tim Boudreau
+ */
+public class PovLexerTest {
+
+    @Test
+    public void testEscapedBackslashEndsString() {
+        assertTokens("#include \"C:\\\\\" sphere",
+                "pound #include", "whitespace  ", "string \"C:\\\\\"", "whitespace  ", "keyword sphere");
+    }
+
+    @Test
+    public void testEscapedQuoteInString() {
+        assertTokens("#debug \"a\\\"b\" sphere",
+                "pound #debug", "whitespace  ", "string \"a\\\"b\"", "whitespace  ", "keyword sphere");
+        assertTokens("#debug \"a\\\\\\\"b\" sphere",
+                "pound #debug", "whitespace  ", "string \"a\\\\\\\"b\"", "whitespace  ", "keyword sphere");
+    }
+
+    @Test
+    public void testEscapesInArgumentList() {
+        assertTokens("f(\"a\\\\\", 1) sphere",
+                "identifier f", "argument_list (\"a\\\\\", 1)", "whitespace  ", "keyword sphere");
+        assertTokens("f(\"a\\\")\", 1) sphere",
+                "identifier f", "argument_list (\"a\\\")\", 1)", "whitespace  ", "keyword sphere");
+    }
+
+    private static void assertTokens(String text, String... expected) {
+        TokenHierarchy<String> hierarchy = TokenHierarchy.create(text, PovTokenId.getLanguage());
+        TokenSequence<PovTokenId> seq = hierarchy.tokenSequence(PovTokenId.getLanguage());
+        List<String> tokens = new ArrayList<String>();
+        while (seq.moveNext()) {
+            tokens.add(seq.token().id() + " " + seq.token().text());
+        }
+        assertEquals(text, Arrays.asList(expected), tokens);
+    }
+}
@@ -0,0 +1,115 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates synthetic scenes of a given number of lines by repeating the
+ * new-file template, renaming declared identifiers and macros in each copy
+ * so that symbols stay unique as the scene grows.
+ *
+ * @author Tim Boudreau
+ */
+final class SceneCorpus {
+
+    private static final String TEMPLATE = "/org/netbeans/modules/povray/file/PovrayTemplate.pov";
+    private static final Pattern DECLARATION = Pattern.compile("(#(?:declare|local|macro)\\s+)(\\w+)");
+
+    private SceneCorpus() {
+        throw new AssertionError();
+    }
+
+    static String template() {
+        try (InputStream in = SceneCorpus.class.getResourceAsStream(TEMPLATE)) {
+            if (in == null) {
+                throw new IllegalStateException("No " + TEMPLATE + " on classpath");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int count; (count = in.read(buf)) > 0;) {
+                out.write(buf, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Generate a scene.
+     *
+     * @param lines The number of lines, 1000 to 1000000 in the benchmarks
+     * @return A scene
+     */
+    static String generate(int lines) {
+        return generate(lines, 0);
+    }
+
+    /**
+     * Generate a scene with a block comment of the given number of lines in
+     * its middle;  the comment contains the text COMMENT_MIDDLE half way
+     * through.
+     */
+    static String generate(int lines, int commentLines) {
+        String[] template = template().split("\n");
+        StringBuilder sb = new StringBuilder(lines * 24);
+        int line = 0;
+        int copy = 0;
+        int commentAt = commentLines > 0 ? (lines - commentLines) / 2 : -1;
+        while (line < lines) {
+            String suffix = "_" + copy++;
+            for (int i = 0; i < template.length && line < lines; i++) {
+                if (line == commentAt) {
+                    line += comment(commentLines, sb);
+                    continue;
+                }
+                Matcher m = DECLARATION.matcher(template[i]);
+                sb.append(copy == 1 ? template[i] : m.replaceAll("$1$2" + suffix)).append('\n');
+                line++;
+            }
+        }
+        return sb.toString();
+    }
+
+    static final String COMMENT_MIDDLE = "COMMENT_MIDDLE";
+
+    private static int comment(int lines, StringBuilder sb) {
+        sb.append("/*\n");
+        for (int i = 1; i < lines - 1; i++) {
+            if (i == lines / 2) {
+                sb.append("  ").append(COMMENT_MIDDLE).append('\n');
+            } else {
+                sb.append("  sphere { <").append(i).append(", 0, 0>, 1 } commented out\n");
+            }
+        }
+        sb.append("*/\n");
+        return lines;
+    }
+}
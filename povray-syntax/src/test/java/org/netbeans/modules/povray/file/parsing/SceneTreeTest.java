@@ -0,0 +1,90 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Differential test of incremental parse tree updates:  applies random
+ * edits - mostly fragments which open or close blocks, comments, strings
+ * and directives - to a generated scene, and fails if the updated tree
+ * differs from a full parse of the edited text.
+ *
+ * @author Tim Boudreau
+ */
+public class SceneTreeTest {
+
+    private static final String[] FRAGMENTS = {
+        "{", "}", "/*", "*/", "\"", "<", ">", "(", ")", "#", "//", "\n", " ",
+        "x", "1.5", "+", "#end", "#else\n", "#if (A)\n", "#macro M(A)\n",
+        "#declare X = ", "sphere {", "object { X }\n", "< 1, 2,\n 3>",
+        "# declare Y = 2\n"
+    };
+    private static final int EDITS = 5000;
+
+    @Test
+    public void testIncrementalUpdatesMatchFullParses() {
+        // Fixed seeds, so a failure can be reproduced
+        for (long seed = 1; seed <= 4; seed++) {
+            check(seed);
+        }
+    }
+
+    private static void check(long seed) {
+        Random random = new Random(seed);
+        String text = SceneCorpus.generate(400);
+        SceneTree tree = SceneTree.parse(text);
+        for (int i = 0; i < EDITS; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextBoolean() ? Math.min(text.length() - offset, random.nextInt(12)) : 0;
+            String inserted = random.nextInt(3) > 0 ? FRAGMENTS[random.nextInt(FRAGMENTS.length)] : "";
+            String edited = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            SceneTree updated = tree.edit(edited, offset, removed, inserted.length());
+            assertEquals("Seed " + seed + ", edit " + i + " at " + offset + " removing " + removed
+                    + " inserting '" + inserted + "'", describe(SceneTree.parse(edited)), describe(updated));
+            text = edited;
+            tree = updated;
+        }
+    }
+
+    private static String describe(SceneTree tree) {
+        final StringBuilder sb = new StringBuilder();
+        tree.accept(new SceneTree.Visitor() {
+            @Override
+            public boolean visit(SceneNode node, int start, int depth) {
+                for (int i = 0; i < depth; i++) {
+                    sb.append("  ");
+                }
+                sb.append(node).append(" at ").append(start)
+                        .append(" header ").append(node.header)
+                        .append(" trailer ").append(node.trailer)
+                        .append(" lookahead ").append(node.lookahead).append('\n');
+                return true;
+            }
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2013 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.netbeans.modules.povray.file.parsing;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the symbol index's record of when its files changed.
+ *
+ * @author Tim Boudreau
+ */
+public class SymbolIndexTest {
+
+    @Test
+    public void testChangedSince() {
+        SymbolIndex index = new SymbolIndex(null);
+        List<File> files = Arrays.asList(new File("/scenes/a.inc"), new File("/scenes/b.inc"));
+        index.put("/scenes/a.inc", 1, 10, "#declare A = 1;\n");
+        index.put("/scenes/b.inc", 1, 10, "#declare B = 1;\n");
+        long stamp = index.stamp();
+        index.put("/scenes/c.inc", 1, 10, "#declare C = 1;\n");
+        assertFalse("another file changed", index.changedSince(stamp, files));
+        index.put("/scenes/b.inc", 2, 10, "#declare B = 2;\n");
+        assertTrue("b.inc indexed again", index.changedSince(stamp, files));
+        stamp = index.stamp();
+        index.remove("/scenes/a.inc");
+        assertTrue("a.inc dropped", index.changedSince(stamp, files));
+    }
+}